@@ -31,6 +31,31 @@ def external_plugin_deps(omit_commons_codec = True):
         artifact = "com.fasterxml.jackson.core:jackson-core:" + JACKSON_VERS,
         sha1 = "73d4322a6bda684f676a2b5fe918361c4e5c7cca",
     )
+    JMH_VERS = "1.37"
+    maven_jar(
+        name = "jmh-core",
+        artifact = "org.openjdk.jmh:jmh-core:" + JMH_VERS,
+        sha1 = "896f27e49105b35ea1964319c83d12082e7a79ef",
+        deps = [
+            "@jopt-simple//jar",
+            "@commons-math3//jar",
+        ],
+    )
+    maven_jar(
+        name = "jmh-generator-annprocess",
+        artifact = "org.openjdk.jmh:jmh-generator-annprocess:" + JMH_VERS,
+        sha1 = "da93888682df163144edf9b13d2b78e54166063a",
+    )
+    maven_jar(
+        name = "jopt-simple",
+        artifact = "net.sf.jopt-simple:jopt-simple:5.0.4",
+        sha1 = "4fdac2fbe92dfad86aa6e9301736f6b4342a3f5c",
+    )
+    maven_jar(
+        name = "commons-math3",
+        artifact = "org.apache.commons:commons-math3:3.6.1",
+        sha1 = "e4ba98f1d4b3c80ec46392f25e094a6a2e58fcbf",
+    )
     if not omit_commons_codec:
         maven_jar(
             name = "commons-codec",
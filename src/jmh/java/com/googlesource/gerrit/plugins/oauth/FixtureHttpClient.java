@@ -0,0 +1,75 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import com.github.scribejava.core.model.Response;
+import com.github.scribejava.core.model.Verb;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.server.config.PluginConfig;
+import java.io.File;
+import java.util.Map;
+import org.eclipse.jgit.lib.Config;
+
+/** {@link OAuthHttpClient} answering every blocking request with a fixture, without any I/O. */
+class FixtureHttpClient extends OAuthHttpClient {
+  private static final Map<String, String> HEADERS =
+      ImmutableMap.of("Content-Type", "application/json; charset=utf-8");
+
+  private volatile String body;
+
+  FixtureHttpClient() {
+    super(PluginConfig.Update.forTest("gerrit-oauth-provider", new Config()).asPluginConfig());
+  }
+
+  /** Set the body of the responses to the following requests. */
+  void respondWith(String body) {
+    this.body = body;
+  }
+
+  @Override
+  public Response execute(
+      String userAgent,
+      Map<String, String> headers,
+      Verb httpVerb,
+      String completeUrl,
+      byte[] body) {
+    return respond();
+  }
+
+  @Override
+  public Response execute(
+      String userAgent,
+      Map<String, String> headers,
+      Verb httpVerb,
+      String completeUrl,
+      String body) {
+    return respond();
+  }
+
+  @Override
+  public Response execute(
+      String userAgent,
+      Map<String, String> headers,
+      Verb httpVerb,
+      String completeUrl,
+      File body) {
+    return respond();
+  }
+
+  private Response respond() {
+    return new Response(200, "OK", HEADERS, body);
+  }
+}
@@ -0,0 +1,52 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.Resources;
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Recorded IdP responses under {@code src/jmh/resources}, anonymized.
+ *
+ * <p>{@code <provider>-token.json} is the response of the token endpoint, {@code
+ * <provider>-userinfo.json} the response of the user info endpoint. Providers that map the claims
+ * of the id_token have no user info fixture.
+ */
+final class Fixtures {
+  private static final String DIR = "fixtures/";
+
+  static String token(String provider) throws IOException {
+    return read(provider + "-token.json");
+  }
+
+  static String userInfo(String provider) throws IOException {
+    URL url = Fixtures.class.getResource(DIR + provider + "-userinfo.json");
+    return url != null ? Resources.toString(url, UTF_8) : null;
+  }
+
+  private static String read(String name) throws IOException {
+    URL url = Fixtures.class.getResource(DIR + name);
+    if (url == null) {
+      throw new IOException("Missing fixture " + name);
+    }
+    return Resources.toString(url, UTF_8);
+  }
+
+  private Fixtures() {}
+}
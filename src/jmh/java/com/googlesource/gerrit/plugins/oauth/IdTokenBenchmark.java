@@ -0,0 +1,74 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of the id_token payload of the recorded token responses of {@link Fixtures}, reading
+ * the claims the provider maps to the account.
+ *
+ * <pre>
+ *   bazel run //:gerrit-oauth-provider_benchmarks -- IdTokenBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class IdTokenBenchmark {
+  private static final ImmutableMap<String, String[]> CLAIMS =
+      ImmutableMap.of(
+          "azure", new String[] {"oid", "email", "name"},
+          "dex", new String[] {"email", "name"},
+          "google", new String[] {"sub", "email", "name", "hd"},
+          "keycloak", new String[] {"preferred_username", "email", "name"},
+          "lemonldap", new String[] {"sub", "preferred_username", "email", "name"});
+
+  @Param({"azure", "dex", "google", "keycloak", "lemonldap"})
+  public String provider;
+
+  private String idToken;
+  private String[] claims;
+
+  @Setup
+  public void setUp() throws IOException {
+    JsonObject tokenResponse = JsonFields.parse(Fixtures.token(provider), "id_token");
+    idToken = JsonFields.getString(tokenResponse, "id_token");
+    claims = CLAIMS.get(provider);
+  }
+
+  @Benchmark
+  public JsonObject decodeClaims() throws IOException {
+    return JwtDecoder.decodeClaims(idToken, claims);
+  }
+}
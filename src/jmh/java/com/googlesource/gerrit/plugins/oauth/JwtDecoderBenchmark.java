@@ -0,0 +1,103 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.gerrit.json.OutputFormat.JSON;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link JwtDecoder} with the JWT payload decoding the providers used before.
+ *
+ * <p>The benchmark target runs with the gc profiler, which reports the allocation rate:
+ *
+ * <pre>
+ *   bazel run //:gerrit-oauth-provider_benchmarks -- JwtDecoderBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JwtDecoderBenchmark {
+  static final String ID_TOKEN = idToken();
+
+  private static String idToken() {
+    Base64.Encoder enc = Base64.getUrlEncoder().withoutPadding();
+    String header = "{\"alg\":\"RS256\",\"kid\":\"5aaff47c21d06e266cce395b2145c7c6d4730ea5\"}";
+    String payload =
+        "{\"iss\":\"https://accounts.google.com\","
+            + "\"azp\":\"1234987819200.apps.googleusercontent.com\","
+            + "\"aud\":\"1234987819200.apps.googleusercontent.com\","
+            + "\"sub\":\"10769150350006150715113082367\","
+            + "\"hd\":\"example.com\","
+            + "\"email\":\"jsmith@example.com\","
+            + "\"email_verified\":true,"
+            + "\"at_hash\":\"HK6E_P6Dh8Y93mRNtsDB1Q\","
+            + "\"name\":\"John Smith\","
+            + "\"picture\":\"https://lh3.googleusercontent.com/a/ACg8ocJ5kqPvbiK_Tq0=s96-c\","
+            + "\"given_name\":\"John\","
+            + "\"family_name\":\"Smith\","
+            + "\"locale\":\"en\","
+            + "\"iat\":1353601026,"
+            + "\"exp\":1353604926}";
+    return enc.encodeToString(header.getBytes(UTF_8))
+        + "."
+        + enc.encodeToString(payload.getBytes(UTF_8))
+        + "."
+        + enc.encodeToString(new byte[256]);
+  }
+
+  /** Decoding as done by Google, Keycloak and Dex before, using commons-codec. */
+  @Benchmark
+  public JsonElement splitCommonsCodec() throws IOException {
+    String[] parts = ID_TOKEN.split("\\.");
+    String payload =
+        new String(org.apache.commons.codec.binary.Base64.decodeBase64(parts[1]), UTF_8.name());
+    JsonObject claims = JSON.newGson().fromJson(payload, JsonElement.class).getAsJsonObject();
+    return claims.get("email");
+  }
+
+  /** Decoding as done by Azure before, using the JDK decoder. */
+  @Benchmark
+  public JsonElement splitJdkBase64() {
+    String[] parts = ID_TOKEN.split("\\.");
+    JsonObject claims =
+        JSON.newGson()
+            .fromJson(new String(Base64.getUrlDecoder().decode(parts[1]), UTF_8), JsonObject.class);
+    return claims.get("email");
+  }
+
+  @Benchmark
+  public JsonElement jwtDecoder() throws IOException {
+    return JwtDecoder.decodeClaims(ID_TOKEN, "email").get("email");
+  }
+}
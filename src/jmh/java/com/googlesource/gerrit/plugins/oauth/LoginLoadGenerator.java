@@ -0,0 +1,249 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Splitter;
+import com.google.gerrit.extensions.auth.oauth.OAuthServiceProvider;
+import com.google.gerrit.extensions.auth.oauth.OAuthToken;
+import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
+import com.google.gerrit.extensions.auth.oauth.OAuthVerifier;
+import com.google.gerrit.server.config.PluginConfig;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Drives logins, i.e. {@code getAccessToken} followed by {@code getUserInfo}, against {@link
+ * StubIdp} at a fixed concurrency and reports their latency percentiles and throughput.
+ *
+ * <p>The providers use the real {@link OAuthHttpClient}, so transport settings like {@code threads}
+ * or {@code call-mode} can be compared offline:
+ *
+ * <pre>
+ *   bazel run //:gerrit-oauth-provider_loadgen -- \
+ *     --provider github,google --concurrency 64 --duration 30 --idp-latency 50 \
+ *     --set call-mode=async --set http-max-requests-per-host=32
+ * </pre>
+ */
+public class LoginLoadGenerator {
+  private static final String USAGE =
+      "Usage: LoginLoadGenerator [--provider <name>,...] [--concurrency <threads>]\n"
+          + "    [--duration <seconds>] [--warmup <seconds>] [--idp-latency <ms>]\n"
+          + "    [--set <key>=<value>]...";
+  private static final OAuthVerifier CODE = new OAuthVerifier("4/0AeanS0aJm3c7gXh");
+
+  private List<String> providers = Providers.NAMES;
+  private int concurrency = 16;
+  private long durationSec = 30;
+  private long warmupSec = 5;
+  private long idpLatencyMs;
+  private final Map<String, String> settings = new LinkedHashMap<>();
+
+  public static void main(String[] args) throws Exception {
+    LoginLoadGenerator generator = new LoginLoadGenerator();
+    if (!generator.parse(args)) {
+      System.err.println(USAGE);
+      System.exit(1);
+    }
+    generator.run();
+    System.exit(0);
+  }
+
+  private boolean parse(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      String option = args[i];
+      if (++i == args.length) {
+        return false;
+      }
+      String value = args[i];
+      switch (option) {
+        case "--provider":
+          providers = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(value);
+          break;
+        case "--concurrency":
+          concurrency = Integer.parseInt(value);
+          break;
+        case "--duration":
+          durationSec = Long.parseLong(value);
+          break;
+        case "--warmup":
+          warmupSec = Long.parseLong(value);
+          break;
+        case "--idp-latency":
+          idpLatencyMs = Long.parseLong(value);
+          break;
+        case "--set":
+          int eq = value.indexOf('=');
+          if (eq <= 0) {
+            return false;
+          }
+          settings.put(value.substring(0, eq), value.substring(eq + 1));
+          break;
+        default:
+          return false;
+      }
+    }
+    return true;
+  }
+
+  private void run() throws Exception {
+    try (StubIdp idp = new StubIdp(idpLatencyMs)) {
+      System.out.printf(
+          "%d threads, %d s warmup, %d s measurement, %d ms IdP latency%n",
+          concurrency, warmupSec, durationSec, idpLatencyMs);
+      for (String provider : providers) {
+        PluginConfig cfg = config(provider, idp.rootUrl(provider));
+        OAuthHttpClient httpClient = new OAuthHttpClient(cfg);
+        try {
+          OAuthServiceProvider service = Providers.create(provider, cfg, httpClient);
+          drive(service, warmupSec);
+          report(provider, drive(service, durationSec));
+        } finally {
+          httpClient.stop();
+        }
+      }
+    }
+  }
+
+  private PluginConfig config(String provider, String rootUrl) {
+    Config cfg = new Config();
+    cfg.setString("plugin", Providers.PLUGIN_NAME, InitOAuth.CLIENT_ID, "gerrit-client");
+    cfg.setString("plugin", Providers.PLUGIN_NAME, InitOAuth.CLIENT_SECRET, "s3cr3t");
+    cfg.setString("plugin", Providers.PLUGIN_NAME, InitOAuth.ROOT_URL, rootUrl);
+    if (provider.equals("keycloak")) {
+      cfg.setString("plugin", Providers.PLUGIN_NAME, InitOAuth.REALM, "gerrit");
+    }
+    for (Map.Entry<String, String> e : settings.entrySet()) {
+      cfg.setString("plugin", Providers.PLUGIN_NAME, e.getKey(), e.getValue());
+    }
+    return PluginConfig.Update.forTest(Providers.PLUGIN_NAME, cfg).asPluginConfig();
+  }
+
+  private Worker drive(OAuthServiceProvider service, long seconds) throws Exception {
+    long deadline = System.nanoTime() + SECONDS.toNanos(seconds);
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    try {
+      List<Future<Worker>> futures = new ArrayList<>();
+      for (int i = 0; i < concurrency; i++) {
+        futures.add(executor.submit(() -> new Worker().loop(service, deadline)));
+      }
+      Worker total = new Worker();
+      for (Future<Worker> f : futures) {
+        total.add(f.get());
+      }
+      total.elapsedNanos = SECONDS.toNanos(seconds);
+      return total;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void report(String provider, Worker w) {
+    System.out.printf(
+        "%n%s: %d logins, %.1f logins/s, %d errors%n",
+        provider,
+        w.login.size,
+        w.login.size / (w.elapsedNanos / 1e9),
+        w.errors);
+    System.out.printf("  %-10s %10s %10s %10s%n", "", "p50 ms", "p99 ms", "max ms");
+    w.token.print("token");
+    w.userInfo.print("userinfo");
+    w.login.print("login");
+  }
+
+  /** Logins of one thread, merged into the total of all threads. */
+  private static class Worker {
+    final Latencies token = new Latencies();
+    final Latencies userInfo = new Latencies();
+    final Latencies login = new Latencies();
+    long errors;
+    long elapsedNanos;
+
+    Worker loop(OAuthServiceProvider service, long deadline) {
+      long start;
+      while ((start = System.nanoTime()) < deadline) {
+        try {
+          OAuthToken accessToken = service.getAccessToken(CODE);
+          long exchanged = System.nanoTime();
+          OAuthUserInfo info = service.getUserInfo(accessToken);
+          long end = System.nanoTime();
+          if (info == null) {
+            errors++;
+            continue;
+          }
+          token.add(exchanged - start);
+          userInfo.add(end - exchanged);
+          login.add(end - start);
+        } catch (Exception e) {
+          errors++;
+        }
+      }
+      return this;
+    }
+
+    void add(Worker other) {
+      token.add(other.token);
+      userInfo.add(other.userInfo);
+      login.add(other.login);
+      errors += other.errors;
+    }
+  }
+
+  private static class Latencies {
+    long[] nanos = new long[1024];
+    int size;
+
+    void add(long value) {
+      if (size == nanos.length) {
+        nanos = Arrays.copyOf(nanos, size * 2);
+      }
+      nanos[size++] = value;
+    }
+
+    void add(Latencies other) {
+      for (int i = 0; i < other.size; i++) {
+        add(other.nanos[i]);
+      }
+    }
+
+    void print(String name) {
+      if (size == 0) {
+        System.out.printf("  %-10s %10s %10s %10s%n", name, "-", "-", "-");
+        return;
+      }
+      Arrays.sort(nanos, 0, size);
+      System.out.printf(
+          "  %-10s %10.3f %10.3f %10.3f%n",
+          name, millis(percentile(0.50)), millis(percentile(0.99)), millis(nanos[size - 1]));
+    }
+
+    private long percentile(double p) {
+      return nanos[(int) Math.ceil(p * size) - 1];
+    }
+
+    private static double millis(long nanos) {
+      return nanos / 1e6;
+    }
+  }
+}
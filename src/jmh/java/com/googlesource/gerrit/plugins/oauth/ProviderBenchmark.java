@@ -0,0 +1,138 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.extensions.auth.oauth.OAuthServiceProvider;
+import com.google.gerrit.extensions.auth.oauth.OAuthToken;
+import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
+import com.google.gerrit.extensions.auth.oauth.OAuthVerifier;
+import com.google.gerrit.server.config.PluginConfig;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hot paths of every provider, with the IdP replaced by the recorded responses of {@link
+ * Fixtures}: building the authorization URL, extracting the access token from the token response
+ * and mapping the user info response, or the id_token claims, to {@link OAuthUserInfo}.
+ *
+ * <p>See {@link Providers} for the setup, and {@link IdTokenBenchmark} for the decoding of the
+ * id_token.
+ *
+ * <p>Run all providers, or a single one:
+ *
+ * <pre>
+ *   bazel run //:gerrit-oauth-provider_benchmarks -- ProviderBenchmark
+ *   bazel run //:gerrit-oauth-provider_benchmarks -- ProviderBenchmark -p provider=github
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProviderBenchmark {
+  private static final String CLIENT_ID = "gerrit-client";
+  private static final OAuthVerifier CODE = new OAuthVerifier("4/0AeanS0aJm3c7gXh");
+  private static final ImmutableMap<String, String> ROOT_URLS =
+      ImmutableMap.<String, String>builder()
+          .put("cas", "https://cas.example.com/cas")
+          .put("dex", "https://dex.example.com")
+          .put("gitlab", "https://gitlab.example.com")
+          .put("keycloak", "https://keycloak.example.com")
+          .put("lemonldap", "https://auth.example.com")
+          .put("phabricator", "https://phabricator.example.com")
+          .build();
+
+  @Param({
+    "airvantage",
+    "azure",
+    "bitbucket",
+    "cas",
+    "dex",
+    "facebook",
+    "github",
+    "gitlab",
+    "google",
+    "keycloak",
+    "lemonldap",
+    "phabricator"
+  })
+  public String provider;
+
+  private FixtureHttpClient httpClient;
+  private OAuthServiceProvider service;
+  private String tokenResponse;
+  private String userInfoResponse;
+  private OAuthToken token;
+
+  @Setup
+  public void setUp() throws IOException {
+    tokenResponse = Fixtures.token(provider);
+    userInfoResponse = Fixtures.userInfo(provider);
+    httpClient = new FixtureHttpClient();
+    service = newService();
+    httpClient.respondWith(tokenResponse);
+    token = service.getAccessToken(CODE);
+  }
+
+  @Benchmark
+  public String getAuthorizationUrl() {
+    return service.getAuthorizationUrl();
+  }
+
+  @Benchmark
+  public OAuthToken getAccessToken() {
+    httpClient.respondWith(tokenResponse);
+    return service.getAccessToken(CODE);
+  }
+
+  @Benchmark
+  public OAuthUserInfo getUserInfo() throws IOException {
+    httpClient.respondWith(userInfoResponse);
+    return service.getUserInfo(token);
+  }
+
+  private OAuthServiceProvider newService() {
+    PluginConfig.Update cfg = PluginConfig.Update.forTest(Providers.PLUGIN_NAME, new Config());
+    cfg.setString(InitOAuth.CLIENT_ID, CLIENT_ID);
+    cfg.setString(InitOAuth.CLIENT_SECRET, "s3cr3t");
+    if (ROOT_URLS.containsKey(provider)) {
+      cfg.setString(InitOAuth.ROOT_URL, ROOT_URLS.get(provider));
+    }
+    if (provider.equals("keycloak")) {
+      cfg.setString(InitOAuth.REALM, "gerrit");
+    }
+    if (provider.equals("google")) {
+      // Restricting the hosted domain adds the id_token to the user info path.
+      cfg.setString(InitOAuth.DOMAIN, "example.com");
+    }
+    return Providers.create(provider, cfg.asPluginConfig(), httpClient);
+  }
+}
@@ -0,0 +1,118 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.extensions.auth.oauth.OAuthServiceProvider;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Provider;
+import java.nio.file.Paths;
+
+/**
+ * Creates providers outside of Gerrit, with {@code cfg} as the config of the provider and of the
+ * plugin itself.
+ *
+ * <p>The user info and rejected token caches hold no entries, so every call of {@code
+ * getUserInfo} goes to the IdP. id_token signatures are only verified if {@code cfg} enables it.
+ */
+final class Providers {
+  static final String PLUGIN_NAME = "gerrit-oauth-provider";
+
+  static final ImmutableList<String> NAMES =
+      ImmutableList.of(
+          "airvantage",
+          "azure",
+          "bitbucket",
+          "cas",
+          "dex",
+          "facebook",
+          "github",
+          "gitlab",
+          "google",
+          "keycloak",
+          "lemonldap",
+          "phabricator");
+
+  static OAuthServiceProvider create(
+      String provider, PluginConfig cfg, OAuthHttpClient httpClient) {
+    PluginConfigFactory cfgFactory = mock(PluginConfigFactory.class);
+    when(cfgFactory.getFromGerritConfig(anyString())).thenReturn(cfg);
+    Provider<String> urlProvider = () -> "https://gerrit.example.com/";
+    IdpClients idpClients =
+        new IdpClients(
+            new UserInfoCache(CacheBuilder.newBuilder().maximumSize(0).build()),
+            new RejectedTokenCache(
+                CacheBuilder.newBuilder().maximumSize(0).build(), new DisabledMetricMaker()),
+            new GitCredentialCache(CacheBuilder.newBuilder().maximumSize(0).build()),
+            new RefreshTokenStore(CacheBuilder.newBuilder().maximumSize(0).build()),
+            new JwksCache(httpClient, cfgFactory, PLUGIN_NAME),
+            new IdpMetrics(new DisabledMetricMaker()),
+            () -> null,
+            () -> null);
+    OidcDiscovery discovery =
+        new OidcDiscovery(
+            httpClient, Paths.get(System.getProperty("java.io.tmpdir")), cfgFactory, PLUGIN_NAME);
+
+    switch (provider) {
+      case "airvantage":
+        return new AirVantageOAuthService(
+            cfgFactory, PLUGIN_NAME, urlProvider, httpClient, idpClients);
+      case "azure":
+        return new AzureActiveDirectoryService(
+            cfgFactory, PLUGIN_NAME, urlProvider, httpClient, idpClients);
+      case "bitbucket":
+        return new BitbucketOAuthService(
+            cfgFactory, PLUGIN_NAME, urlProvider, httpClient, idpClients);
+      case "cas":
+        return new CasOAuthService(cfgFactory, PLUGIN_NAME, urlProvider, httpClient, idpClients);
+      case "dex":
+        return new DexOAuthService(
+            cfgFactory, PLUGIN_NAME, urlProvider, httpClient, idpClients, discovery);
+      case "facebook":
+        return new FacebookOAuthService(
+            cfgFactory, PLUGIN_NAME, urlProvider, httpClient, idpClients);
+      case "github":
+        return new GitHubOAuthService(
+            cfgFactory, PLUGIN_NAME, urlProvider, httpClient, idpClients);
+      case "gitlab":
+        return new GitLabOAuthService(
+            cfgFactory, PLUGIN_NAME, urlProvider, httpClient, idpClients);
+      case "google":
+        return new GoogleOAuthService(
+            cfgFactory, PLUGIN_NAME, urlProvider, httpClient, idpClients);
+      case "keycloak":
+        return new KeycloakOAuthService(
+            cfgFactory, PLUGIN_NAME, urlProvider, httpClient, idpClients, discovery);
+      case "lemonldap":
+        return new LemonLDAPOAuthService(
+            cfgFactory, PLUGIN_NAME, urlProvider, httpClient, idpClients, discovery);
+      case "phabricator":
+        return new PhabricatorOAuthService(
+            cfgFactory, PLUGIN_NAME, urlProvider, httpClient, idpClients);
+      default:
+        throw new IllegalArgumentException("Unknown provider " + provider);
+    }
+  }
+
+  private Providers() {}
+}
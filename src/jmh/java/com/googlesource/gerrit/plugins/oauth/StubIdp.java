@@ -0,0 +1,128 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process IdP answering the token and user info endpoints of every provider with the recorded
+ * responses of {@link Fixtures}.
+ *
+ * <p>Each provider is served below {@link #rootUrl(String)}, which is set as its {@code root-url}.
+ * Requests to other paths are answered with 404, so a provider calling an endpoint the stub
+ * doesn't know about fails instead of being measured.
+ */
+class StubIdp implements AutoCloseable {
+  /** Token and user info endpoints, below the root URL of the provider. */
+  private static final ImmutableMap<String, String[]> ENDPOINTS =
+      ImmutableMap.<String, String[]>builder()
+          .put("airvantage", new String[] {"/api/oauth/token", "/api/v1/users/current"})
+          .put("azure", new String[] {"/organizations/oauth2/v2.0/token", "/v1.0/me"})
+          .put("bitbucket", new String[] {"/site/oauth2/access_token", "/api/1.0/user/"})
+          .put("cas", new String[] {"/oauth2.0/accessToken", "/oauth2.0/profile"})
+          .put("dex", new String[] {"/dex/token"})
+          .put("facebook", new String[] {"/oauth/access_token", "/me"})
+          .put("github", new String[] {"/login/oauth/access_token", "/api/v3/user"})
+          .put("gitlab", new String[] {"/oauth/token", "/api/v3/user"})
+          .put("google", new String[] {"/oauth2/v4/token", "/oauth2/v2/userinfo"})
+          .put("keycloak", new String[] {"/auth/realms/gerrit/protocol/openid-connect/token"})
+          .put("lemonldap", new String[] {"/oauth2/token", "/oauth2/userinfo"})
+          .put("phabricator", new String[] {"/oauthserver/token/", "/api/user.whoami"})
+          .build();
+
+  private final Map<String, byte[]> responses = new HashMap<>();
+  private final long latencyMs;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /**
+   * Start the stub on a free port of the loopback interface.
+   *
+   * @param latencyMs time to wait before answering a request, to simulate a remote IdP
+   */
+  StubIdp(long latencyMs) throws IOException {
+    for (Map.Entry<String, String[]> e : ENDPOINTS.entrySet()) {
+      String provider = e.getKey();
+      String[] paths = e.getValue();
+      responses.put("/" + provider + paths[0], Fixtures.token(provider).getBytes(UTF_8));
+      if (paths.length > 1) {
+        responses.put("/" + provider + paths[1], Fixtures.userInfo(provider).getBytes(UTF_8));
+      }
+    }
+    this.latencyMs = latencyMs;
+    executor =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("StubIdp-%d").setDaemon(true).build());
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+    server.createContext("/", this::handle);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /** Root URL serving the endpoints of {@code provider}. */
+  String rootUrl(String provider) {
+    InetSocketAddress address = server.getAddress();
+    return String.format(
+        "http://%s:%d/%s", address.getAddress().getHostAddress(), address.getPort(), provider);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      try (InputStream in = exchange.getRequestBody()) {
+        ByteStreams.exhaust(in);
+      }
+      if (latencyMs > 0) {
+        Thread.sleep(latencyMs);
+      }
+      byte[] body = responses.get(exchange.getRequestURI().getPath());
+      if (body == null) {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      exchange.sendResponseHeaders(503, -1);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
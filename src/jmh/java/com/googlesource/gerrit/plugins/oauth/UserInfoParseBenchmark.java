@@ -0,0 +1,88 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.gerrit.json.OutputFormat.JSON;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link JsonFields} with the user info parsing the providers used before, on a GitHub
+ * {@code /user} response.
+ *
+ * <p>The benchmark target runs with the gc profiler, which reports the allocation rate:
+ *
+ * <pre>
+ *   bazel run //:gerrit-oauth-provider_benchmarks -- UserInfoParseBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UserInfoParseBenchmark {
+  static final String GITHUB_USER =
+      "{\"login\":\"octocat\",\"id\":583231,\"node_id\":\"MDQ6VXNlcjU4MzIzMQ==\","
+          + "\"avatar_url\":\"https://avatars.githubusercontent.com/u/583231?v=4\","
+          + "\"gravatar_id\":\"\",\"url\":\"https://api.github.com/users/octocat\","
+          + "\"html_url\":\"https://github.com/octocat\","
+          + "\"followers_url\":\"https://api.github.com/users/octocat/followers\","
+          + "\"following_url\":\"https://api.github.com/users/octocat/following{/other_user}\","
+          + "\"gists_url\":\"https://api.github.com/users/octocat/gists{/gist_id}\","
+          + "\"starred_url\":\"https://api.github.com/users/octocat/starred{/owner}{/repo}\","
+          + "\"subscriptions_url\":\"https://api.github.com/users/octocat/subscriptions\","
+          + "\"organizations_url\":\"https://api.github.com/users/octocat/orgs\","
+          + "\"repos_url\":\"https://api.github.com/users/octocat/repos\","
+          + "\"events_url\":\"https://api.github.com/users/octocat/events{/privacy}\","
+          + "\"received_events_url\":\"https://api.github.com/users/octocat/received_events\","
+          + "\"type\":\"User\",\"site_admin\":false,\"name\":\"The Octocat\","
+          + "\"company\":\"@github\",\"blog\":\"https://github.blog\","
+          + "\"location\":\"San Francisco\",\"email\":\"octocat@github.com\","
+          + "\"hireable\":null,\"bio\":null,\"twitter_username\":null,"
+          + "\"public_repos\":8,\"public_gists\":8,\"followers\":12000,\"following\":9,"
+          + "\"created_at\":\"2011-01-25T18:44:36Z\",\"updated_at\":\"2026-09-22T14:07:51Z\","
+          + "\"private_gists\":0,\"total_private_repos\":0,\"owned_private_repos\":0,"
+          + "\"disk_usage\":10000,\"collaborators\":0,\"two_factor_authentication\":true,"
+          + "\"plan\":{\"name\":\"free\",\"space\":976562499,\"collaborators\":0,"
+          + "\"private_repos\":10000}}";
+
+  /** Parsing as done by all providers before: a new Gson and a tree of the whole response. */
+  @Benchmark
+  public JsonElement newGsonTree() {
+    JsonElement userJson = JSON.newGson().fromJson(GITHUB_USER, JsonElement.class);
+    JsonObject jsonObject = userJson.getAsJsonObject();
+    return jsonObject.get("login");
+  }
+
+  @Benchmark
+  public JsonElement jsonFields() throws IOException {
+    JsonObject jsonObject = JsonFields.parse(GITHUB_USER, "id", "email", "name", "login");
+    return jsonObject.get("login");
+  }
+}
@@ -19,14 +19,25 @@ import com.github.scribejava.core.oauth2.bearersignature.BearerSignature;
 import com.github.scribejava.core.oauth2.bearersignature.BearerSignatureURIQueryParameter;
 
 public class AirVantageApi extends DefaultApi20 {
+  private final String rootUrl;
+
+  public AirVantageApi() {
+    this(null);
+  }
+
+  /** @param rootUrl URL serving the endpoints instead of eu.airvantage.net, or null */
+  public AirVantageApi(String rootUrl) {
+    this.rootUrl = rootUrl;
+  }
+
   @Override
   public String getAuthorizationBaseUrl() {
-    return "https://eu.airvantage.net/api/oauth/authorize";
+    return OAuthConfigUtil.withRootUrl("https://eu.airvantage.net/api/oauth/authorize", rootUrl);
   }
 
   @Override
   public String getAccessTokenEndpoint() {
-    return "https://eu.airvantage.net/api/oauth/token";
+    return OAuthConfigUtil.withRootUrl("https://eu.airvantage.net/api/oauth/token", rootUrl);
   }
 
   @Override
@@ -0,0 +1,42 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import com.github.scribejava.apis.MicrosoftAzureActiveDirectory20Api;
+
+/** Microsoft identity platform v2.0 endpoints of a tenant, optionally under another root URL. */
+class AzureActiveDirectoryApi extends MicrosoftAzureActiveDirectory20Api {
+  private final String rootUrl;
+
+  /**
+   * @param tenant tenant
+   * @param rootUrl URL serving the endpoints instead of login.microsoftonline.com, or null
+   */
+  AzureActiveDirectoryApi(String tenant, String rootUrl) {
+    super(tenant);
+    this.rootUrl = rootUrl;
+  }
+
+  @Override
+  public String getAccessTokenEndpoint() {
+    return OAuthConfigUtil.withRootUrl(super.getAccessTokenEndpoint(), rootUrl);
+  }
+
+  @Override
+  protected String getAuthorizationBaseUrl() {
+    return OAuthConfigUtil.withRootUrl(super.getAuthorizationBaseUrl(), rootUrl);
+  }
+}
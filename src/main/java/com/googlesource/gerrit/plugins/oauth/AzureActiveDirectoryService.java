@@ -14,11 +14,7 @@
 
 package com.googlesource.gerrit.plugins.oauth;
 
-import static com.google.gerrit.json.OutputFormat.JSON;
-
-import com.github.scribejava.apis.MicrosoftAzureActiveDirectory20Api;
 import com.github.scribejava.core.builder.ServiceBuilder;
-import com.github.scribejava.core.exceptions.OAuthException;
 import com.github.scribejava.core.model.OAuth2AccessToken;
 import com.github.scribejava.core.model.OAuthRequest;
 import com.github.scribejava.core.model.Response;
@@ -27,6 +23,7 @@ import com.github.scribejava.core.oauth.OAuth20Service;
 import com.google.common.base.CharMatcher;
 import com.google.common.collect.ImmutableSet;
 import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.auth.oauth.OAuthLoginProvider;
 import com.google.gerrit.extensions.auth.oauth.OAuthServiceProvider;
 import com.google.gerrit.extensions.auth.oauth.OAuthToken;
 import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
@@ -34,38 +31,41 @@ import com.google.gerrit.extensions.auth.oauth.OAuthVerifier;
 import com.google.gerrit.server.config.CanonicalWebUrl;
 import com.google.gerrit.server.config.PluginConfig;
 import com.google.gerrit.server.config.PluginConfigFactory;
-import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
-import com.google.inject.Singleton;
+import com.google.inject.ProvisionException;
+import com.googlesource.gerrit.plugins.oauth.IdpMetrics.Failure;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.net.URI;
 import java.util.concurrent.ExecutionException;
 import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@Singleton
-class AzureActiveDirectoryService implements OAuthServiceProvider {
+class AzureActiveDirectoryService implements OAuthServiceProvider, OAuthLoginProvider {
   private static final Logger log = LoggerFactory.getLogger(AzureActiveDirectoryService.class);
   static final String CONFIG_SUFFIX_LEGACY = "-office365-oauth";
   static final String CONFIG_SUFFIX = "-azure-oauth";
   private static final String AZURE_PROVIDER_PREFIX = "azure-oauth:";
   private static final String OFFICE365_PROVIDER_PREFIX = "office365-oauth:";
   private static final String PROTECTED_RESOURCE_URL = "https://graph.microsoft.com/v1.0/me";
+  private static final String JWKS_URL = "https://login.microsoftonline.com/%s/discovery/v2.0/keys";
+  private static final String ISSUER_URL = "https://login.microsoftonline.com/%s/v2.0";
   private static final String SCOPE =
       "openid offline_access https://graph.microsoft.com/user.readbasic.all";
   public static final String DEFAULT_TENANT = "organizations";
   private static final ImmutableSet<String> TENANTS_WITHOUT_VALIDATION =
       ImmutableSet.<String>builder().add(DEFAULT_TENANT).add("common").add("consumers").build();
   private final OAuth20Service service;
-  private final Gson gson;
+  private final IdpClient idp;
   private final String canonicalWebUrl;
   private final boolean useEmailAsUsername;
   private final String tenant;
+  private final String rootUrl;
+  private final String jwksUrl;
+  private final String userInfoUrl;
   private final String clientId;
   private String providerPrefix;
   private final boolean linkOffice365Id;
@@ -74,7 +74,9 @@ class AzureActiveDirectoryService implements OAuthServiceProvider {
   AzureActiveDirectoryService(
       PluginConfigFactory cfgFactory,
       @PluginName String pluginName,
-      @CanonicalWebUrl Provider<String> urlProvider) {
+      @CanonicalWebUrl Provider<String> urlProvider,
+      OAuthHttpClient httpClient,
+      IdpClients idpClients) {
     PluginConfig cfg = cfgFactory.getFromGerritConfig(pluginName + CONFIG_SUFFIX);
     providerPrefix = AZURE_PROVIDER_PREFIX;
 
@@ -88,16 +90,24 @@ class AzureActiveDirectoryService implements OAuthServiceProvider {
     }
     this.linkOffice365Id = cfg.getBoolean(InitOAuth.LINK_TO_EXISTING_OFFICE365_ACCOUNT, false);
     this.canonicalWebUrl = CharMatcher.is('/').trimTrailingFrom(urlProvider.get()) + "/";
+    this.rootUrl = cfg.getString(InitOAuth.ROOT_URL);
+    if (rootUrl != null && !URI.create(rootUrl).isAbsolute()) {
+      throw new ProvisionException("Root URL must be absolute URL");
+    }
     this.useEmailAsUsername = cfg.getBoolean(InitOAuth.USE_EMAIL_AS_USERNAME, false);
     this.tenant = cfg.getString(InitOAuth.TENANT, DEFAULT_TENANT);
+    this.jwksUrl = OAuthConfigUtil.withRootUrl(String.format(JWKS_URL, tenant), rootUrl);
+    this.userInfoUrl = OAuthConfigUtil.withRootUrl(PROTECTED_RESOURCE_URL, rootUrl);
     this.clientId = cfg.getString(InitOAuth.CLIENT_ID);
     this.service =
         new ServiceBuilder(cfg.getString(InitOAuth.CLIENT_ID))
             .apiSecret(cfg.getString(InitOAuth.CLIENT_SECRET))
+            .httpClient(httpClient)
             .callback(canonicalWebUrl + "oauth")
             .defaultScope(SCOPE)
-            .build(MicrosoftAzureActiveDirectory20Api.custom(tenant));
-    this.gson = JSON.newGson();
+            .build(new AzureActiveDirectoryApi(tenant, rootUrl));
+    this.idp = idpClients.create(CONFIG_SUFFIX, cfg, service);
+    this.idp.setEndpoints(() -> userInfoUrl, () -> jwksUrl);
     if (log.isDebugEnabled()) {
       log.debug("OAuth2: canonicalWebUrl={}", canonicalWebUrl);
       log.debug("OAuth2: scope={}", SCOPE);
@@ -107,13 +117,22 @@ class AzureActiveDirectoryService implements OAuthServiceProvider {
 
   @Override
   public OAuthUserInfo getUserInfo(OAuthToken token) throws IOException {
+    return idp.getUserInfo(token, this::fetchUserInfo);
+  }
+
+  @Override
+  public OAuthUserInfo login(String username, String secret) throws IOException {
+    return idp.login(username, secret, this::fetchUserInfo);
+  }
+
+  private OAuthUserInfo fetchUserInfo(OAuthToken token) throws IOException {
     // ?: Have we set a custom tenant and is this a tenant other than the one set in
     // TENANTS_WITHOUT_VALIDATION
     if (!TENANTS_WITHOUT_VALIDATION.contains(tenant)) {
       // -> Yes, we are using a tenant that should be validated, so verify that is issued for the
       // same one that we
       // have set.
-      String tid = getTokenJson(token.getToken()).get("tid").getAsString();
+      String tid = JwtDecoder.decodeClaims(token.getToken(), "tid").get("tid").getAsString();
 
       // ?: Verify that this token has the same tenant as we are currently using
       if (!tenant.equals(tid)) {
@@ -123,7 +142,7 @@ class AzureActiveDirectoryService implements OAuthServiceProvider {
                 "The token was issued by the tenant [%s] while we are set to use [%s]",
                 tid, tenant));
         // Return null so the user will be shown Unauthorized.
-        return null;
+        return idp.reject(token, Failure.TENANT_MISMATCH);
       }
     }
 
@@ -132,10 +151,11 @@ class AzureActiveDirectoryService implements OAuthServiceProvider {
     // see <a href="https://github.com/scribejava/scribejava/issues/968">Obtaining id_token from
     // access_token</a> for
     // the scribejava issue on this.
-    String rawToken = token.getRaw();
-    JsonObject jwtJson = gson.fromJson(rawToken, JsonObject.class);
-    String idTokenBase64 = jwtJson.get("id_token").getAsString();
-    String aud = getTokenJson(idTokenBase64).get("aud").getAsString();
+    String idTokenBase64 = IdpClient.getIdToken(token);
+    if (!idp.verifyIdToken(idTokenBase64, jwksUrl, ImmutableSet.of(getIssuer(idTokenBase64)))) {
+      return idp.reject(token, Failure.INVALID_ID_TOKEN);
+    }
+    String aud = JwtDecoder.decodeClaims(idTokenBase64, "aud").get("aud").getAsString();
 
     // ?: Does this token have the same clientId set in the 'aud' part of the id_token as we are
     // using.
@@ -149,58 +169,80 @@ class AzureActiveDirectoryService implements OAuthServiceProvider {
               "The id_token had aud [%s] while we expected it to be equal to the clientId [%s]",
               aud, clientId));
       // Return null so the user will be shown Unauthorized.
-      return null;
+      return idp.reject(token, Failure.AUDIENCE_MISMATCH);
+    }
+
+    if (idp.useIdTokenClaims()) {
+      JsonObject claims =
+          JwtDecoder.decodeClaims(idTokenBase64, "oid", "email", "preferred_username", "name");
+      JsonElement oid = claims.get("oid");
+      if (oid == null || oid.isJsonNull()) {
+        throw new IdpResponseException(Failure.MISSING_ID, "id_token doesn't contain oid claim");
+      }
+      // v2 id tokens only contain email if it is configured as optional claim, but always the
+      // sign-in name of the user, which is usually its email address.
+      JsonElement email = claims.get("email");
+      if (email == null || email.isJsonNull()) {
+        email = claims.get("preferred_username");
+      }
+      // The oid claim of the id token is the id returned by Microsoft Graph.
+      return toUserInfo(oid.getAsString(), email, claims.get("name"));
     }
 
-    OAuthRequest request = new OAuthRequest(Verb.GET, PROTECTED_RESOURCE_URL);
+    OAuthRequest request = new OAuthRequest(Verb.GET, userInfoUrl);
     OAuth2AccessToken t = new OAuth2AccessToken(token.getToken(), token.getRaw());
     service.signRequest(t, request);
     request.addHeader("Accept", "*/*");
 
-    JsonElement userJson = null;
-    try (Response response = service.execute(request)) {
+    try (Response response = idp.execute(request)) {
       if (response.getCode() != HttpServletResponse.SC_OK) {
         throw new IOException(
             String.format(
                 "Status %s (%s) for request %s",
                 response.getCode(), response.getBody(), request.getUrl()));
       }
-      userJson = JSON.newGson().fromJson(response.getBody(), JsonElement.class);
       if (log.isDebugEnabled()) {
         log.debug("User info response: {}", response.getBody());
       }
-      if (userJson.isJsonObject()) {
-        JsonObject jsonObject = userJson.getAsJsonObject();
-        JsonElement id = jsonObject.get("id");
-        if (id == null || id.isJsonNull()) {
-          throw new IOException("Response doesn't contain id field");
-        }
-        JsonElement email = jsonObject.get("mail");
-        JsonElement name = jsonObject.get("displayName");
-        String login = null;
-
-        if (useEmailAsUsername && !email.isJsonNull()) {
-          login = email.getAsString().split("@")[0];
-        }
-
-        return new OAuthUserInfo(
-            providerPrefix + id.getAsString() /*externalId*/,
-            login /*username*/,
-            email == null || email.isJsonNull() ? null : email.getAsString() /*email*/,
-            name == null || name.isJsonNull() ? null : name.getAsString() /*displayName*/,
-            linkOffice365Id ? OFFICE365_PROVIDER_PREFIX + id.getAsString() : null);
+      JsonObject jsonObject = JsonFields.parse(response.getBody(), "id", "mail", "displayName");
+      JsonElement id = jsonObject.get("id");
+      if (id == null || id.isJsonNull()) {
+        throw new IdpResponseException(Failure.MISSING_ID, "Response doesn't contain id field");
       }
+      return toUserInfo(
+          id.getAsString(), jsonObject.get("mail"), jsonObject.get("displayName"));
     } catch (ExecutionException | InterruptedException e) {
       throw new RuntimeException("Cannot retrieve user info resource", e);
     }
+  }
+
+  // Id tokens are issued by the tenant of the user, also through the endpoints of the common
+  // tenants.
+  private String getIssuer(String idToken) throws IOException {
+    String tid =
+        TENANTS_WITHOUT_VALIDATION.contains(tenant)
+            ? JsonFields.getString(JwtDecoder.decodeClaims(idToken, "tid"), "tid")
+            : tenant;
+    return OAuthConfigUtil.withRootUrl(String.format(ISSUER_URL, tid), rootUrl);
+  }
 
-    throw new IOException(String.format("Invalid JSON '%s': not a JSON Object", userJson));
+  private OAuthUserInfo toUserInfo(String id, JsonElement email, JsonElement name) {
+    String login = null;
+    if (useEmailAsUsername && email != null && !email.isJsonNull()) {
+      login = email.getAsString().split("@")[0];
+    }
+    return new OAuthUserInfo(
+        providerPrefix + id /*externalId*/,
+        login /*username*/,
+        email == null || email.isJsonNull() ? null : email.getAsString() /*email*/,
+        name == null || name.isJsonNull() ? null : name.getAsString() /*displayName*/,
+        linkOffice365Id ? OFFICE365_PROVIDER_PREFIX + id : null);
   }
 
   @Override
   public OAuthToken getAccessToken(OAuthVerifier rv) {
     try {
-      OAuth2AccessToken accessToken = service.getAccessToken(rv.getValue());
+      OAuth2AccessToken accessToken = idp.getAccessToken(rv.getValue());
       return new OAuthToken(
           accessToken.getAccessToken(), accessToken.getTokenType(), accessToken.getRawResponse());
     } catch (InterruptedException | ExecutionException | IOException e) {
@@ -212,8 +254,7 @@ class AzureActiveDirectoryService implements OAuthServiceProvider {
 
   @Override
   public String getAuthorizationUrl() {
-    String url = service.getAuthorizationUrl();
-    return url;
+    return idp.getAuthorizationUrl(service.getAuthorizationUrl());
   }
 
   @Override
@@ -225,18 +266,4 @@ class AzureActiveDirectoryService implements OAuthServiceProvider {
   public String getName() {
     return "Office365 OAuth2";
   }
-
-  /** Get the {@link JsonObject} of a given token. */
-  private JsonObject getTokenJson(String tokenBase64) {
-    String[] tokenParts = tokenBase64.split("\\.");
-    if (tokenParts.length != 3) {
-      throw new OAuthException("Token does not contain expected number of parts");
-    }
-
-    // Extract the payload part from the JWT token (header.payload.signature) by retrieving
-    // tokenParts[1].
-    return gson.fromJson(
-        new String(Base64.getUrlDecoder().decode(tokenParts[1]), StandardCharsets.UTF_8),
-        JsonObject.class);
-  }
 }
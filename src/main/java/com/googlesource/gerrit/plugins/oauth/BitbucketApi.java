@@ -19,14 +19,25 @@ import com.github.scribejava.core.oauth2.bearersignature.BearerSignature;
 import com.github.scribejava.core.oauth2.bearersignature.BearerSignatureURIQueryParameter;
 
 public class BitbucketApi extends DefaultApi20 {
+  private final String rootUrl;
+
+  public BitbucketApi() {
+    this(null);
+  }
+
+  /** @param rootUrl URL serving the endpoints instead of bitbucket.org, or null */
+  public BitbucketApi(String rootUrl) {
+    this.rootUrl = rootUrl;
+  }
+
   @Override
   public String getAuthorizationBaseUrl() {
-    return "https://bitbucket.org/site/oauth2/authorize";
+    return OAuthConfigUtil.withRootUrl("https://bitbucket.org/site/oauth2/authorize", rootUrl);
   }
 
   @Override
   public String getAccessTokenEndpoint() {
-    return "https://bitbucket.org/site/oauth2/access_token";
+    return OAuthConfigUtil.withRootUrl("https://bitbucket.org/site/oauth2/access_token", rootUrl);
   }
 
   @Override
@@ -14,7 +14,6 @@
 
 package com.googlesource.gerrit.plugins.oauth;
 
-import static com.google.gerrit.json.OutputFormat.JSON;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -37,12 +36,13 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
-import com.google.inject.Singleton;
+import com.google.inject.ProvisionException;
+import com.googlesource.gerrit.plugins.oauth.IdpMetrics.Failure;
 import java.io.IOException;
+import java.net.URI;
 import java.util.concurrent.ExecutionException;
 import org.slf4j.Logger;
 
-@Singleton
 public class BitbucketOAuthService implements OAuthServiceProvider {
   private static final Logger log = getLogger(BitbucketOAuthService.class);
   static final String CONFIG_SUFFIX = "-bitbucket-oauth";
@@ -50,31 +50,46 @@ public class BitbucketOAuthService implements OAuthServiceProvider {
   private static final String PROTECTED_RESOURCE_URL = "https://bitbucket.org/api/1.0/user/";
   private final boolean fixLegacyUserId;
   private final OAuth20Service service;
+  private final IdpClient idp;
+  private final String userInfoUrl;
 
   @Inject
   BitbucketOAuthService(
       PluginConfigFactory cfgFactory,
       @PluginName String pluginName,
-      @CanonicalWebUrl Provider<String> urlProvider) {
+      @CanonicalWebUrl Provider<String> urlProvider,
+      OAuthHttpClient httpClient,
+      IdpClients idpClients) {
     PluginConfig cfg = cfgFactory.getFromGerritConfig(pluginName + CONFIG_SUFFIX);
 
     String canonicalWebUrl = CharMatcher.is('/').trimTrailingFrom(urlProvider.get()) + "/";
+    String rootUrl = cfg.getString(InitOAuth.ROOT_URL);
+    if (rootUrl != null && !URI.create(rootUrl).isAbsolute()) {
+      throw new ProvisionException("Root URL must be absolute URL");
+    }
     fixLegacyUserId = cfg.getBoolean(InitOAuth.FIX_LEGACY_USER_ID, false);
     service =
         new ServiceBuilder(cfg.getString(InitOAuth.CLIENT_ID))
             .apiSecret(cfg.getString(InitOAuth.CLIENT_SECRET))
+            .httpClient(httpClient)
             .callback(canonicalWebUrl + "oauth")
-            .build(new BitbucketApi());
+            .build(new BitbucketApi(rootUrl));
+    userInfoUrl = OAuthConfigUtil.withRootUrl(PROTECTED_RESOURCE_URL, rootUrl);
+    idp = idpClients.create(CONFIG_SUFFIX, cfg, service);
+    idp.setEndpoints(() -> userInfoUrl, null);
   }
 
   @Override
   public OAuthUserInfo getUserInfo(OAuthToken token) throws IOException {
-    OAuthRequest request = new OAuthRequest(Verb.GET, PROTECTED_RESOURCE_URL);
+    return idp.getUserInfo(token, this::fetchUserInfo);
+  }
+
+  private OAuthUserInfo fetchUserInfo(OAuthToken token) throws IOException {
+    OAuthRequest request = new OAuthRequest(Verb.GET, userInfoUrl);
     OAuth2AccessToken t = new OAuth2AccessToken(token.getToken(), token.getRaw());
     service.signRequest(t, request);
 
-    JsonElement userJson = null;
-    try (Response response = service.execute(request)) {
+    try (Response response = idp.execute(request)) {
 
       if (response.getCode() != SC_OK) {
         throw new IOException(
@@ -82,38 +97,33 @@ public class BitbucketOAuthService implements OAuthServiceProvider {
                 "Status %s (%s) for request %s",
                 response.getCode(), response.getBody(), request.getUrl()));
       }
-      userJson = JSON.newGson().fromJson(response.getBody(), JsonElement.class);
       if (log.isDebugEnabled()) {
         log.debug("User info response: {}", response.getBody());
       }
-      if (userJson.isJsonObject()) {
-        JsonObject jsonObject = userJson.getAsJsonObject();
-        JsonObject userObject = jsonObject.getAsJsonObject("user");
-        if (userObject == null || userObject.isJsonNull()) {
-          throw new IOException("Response doesn't contain 'user' field");
-        }
-        JsonElement usernameElement = userObject.get("username");
-        String username = usernameElement.getAsString();
-
-        JsonElement displayName = jsonObject.get("display_name");
-        return new OAuthUserInfo(
-            BITBUCKET_PROVIDER_PREFIX + username,
-            username,
-            null,
-            displayName == null || displayName.isJsonNull() ? null : displayName.getAsString(),
-            fixLegacyUserId ? username : null);
+      JsonObject jsonObject = JsonFields.parse(response.getBody(), "user", "display_name");
+      JsonObject userObject = jsonObject.getAsJsonObject("user");
+      if (userObject == null || userObject.isJsonNull()) {
+        throw new IdpResponseException(Failure.MISSING_ID, "Response doesn't contain 'user' field");
       }
+      JsonElement usernameElement = userObject.get("username");
+      String username = usernameElement.getAsString();
+
+      JsonElement displayName = jsonObject.get("display_name");
+      return new OAuthUserInfo(
+          BITBUCKET_PROVIDER_PREFIX + username,
+          username,
+          null,
+          displayName == null || displayName.isJsonNull() ? null : displayName.getAsString(),
+          fixLegacyUserId ? username : null);
     } catch (ExecutionException | InterruptedException e) {
       throw new RuntimeException("Cannot retrieve user info resource", e);
     }
-
-    throw new IOException(String.format("Invalid JSON '%s': not a JSON Object", userJson));
   }
 
   @Override
   public OAuthToken getAccessToken(OAuthVerifier rv) {
     try {
-      OAuth2AccessToken accessToken = service.getAccessToken(rv.getValue());
+      OAuth2AccessToken accessToken = idp.getAccessToken(rv.getValue());
       return new OAuthToken(
           accessToken.getAccessToken(), accessToken.getTokenType(), accessToken.getRawResponse());
     } catch (InterruptedException | ExecutionException | IOException e) {
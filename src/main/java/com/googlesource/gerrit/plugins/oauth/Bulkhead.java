@@ -0,0 +1,101 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.gerrit.server.config.PluginConfig;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limit on the concurrent calls of one provider to its IdP.
+ *
+ * <p>At most {@code max-concurrent-calls} calls run at once. Up to {@code max-queued-calls} further
+ * calls wait for a free slot, each for at most {@code max-queue-wait} or the time left to its
+ * {@link Deadline}. Calls beyond that fail right away with {@link FullException}, so that a login
+ * storm doesn't pile up blocked threads in Gerrit or exceed the rate limit of the IdP.
+ */
+class Bulkhead {
+
+  /** Thrown when a call can't get a slot. */
+  static class FullException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    FullException(String message) {
+      super(message);
+    }
+  }
+
+  static final String MAX_CONCURRENT_CALLS = "max-concurrent-calls";
+  static final String MAX_QUEUED_CALLS = "max-queued-calls";
+  static final String MAX_QUEUE_WAIT = "max-queue-wait";
+
+  private static final int DEFAULT_MAX_CONCURRENT_CALLS = 100;
+  private static final int DEFAULT_MAX_QUEUED_CALLS = 100;
+  private static final long DEFAULT_MAX_QUEUE_WAIT_MS = 5_000;
+
+  private final String name;
+  private final int maxConcurrentCalls;
+  private final int maxQueuedCalls;
+  private final long maxQueueWaitMs;
+  private final Semaphore permits;
+  private final AtomicInteger queued = new AtomicInteger();
+
+  Bulkhead(String name, PluginConfig cfg) {
+    this.name = name;
+    this.maxConcurrentCalls =
+        Math.max(1, cfg.getInt(MAX_CONCURRENT_CALLS, DEFAULT_MAX_CONCURRENT_CALLS));
+    this.maxQueuedCalls = Math.max(0, cfg.getInt(MAX_QUEUED_CALLS, DEFAULT_MAX_QUEUED_CALLS));
+    this.maxQueueWaitMs =
+        OAuthConfigUtil.getTimeUnit(cfg, MAX_QUEUE_WAIT, DEFAULT_MAX_QUEUE_WAIT_MS, MILLISECONDS);
+    this.permits = new Semaphore(maxConcurrentCalls, true);
+  }
+
+  /**
+   * Wait for a free slot. Every successful call must be followed by {@link #release()}.
+   *
+   * @throws FullException if the queue is full or no slot got free in time
+   * @throws InterruptedException if interrupted while waiting
+   */
+  void acquire() throws FullException, InterruptedException {
+    if (permits.tryAcquire()) {
+      return;
+    }
+    if (queued.incrementAndGet() > maxQueuedCalls) {
+      queued.decrementAndGet();
+      throw new FullException(
+          String.format(
+              "%s: %d calls to IdP in progress and %d waiting, try again later",
+              name, maxConcurrentCalls, maxQueuedCalls));
+    }
+    long waitMs = Deadline.cap(maxQueueWaitMs);
+    try {
+      if (!permits.tryAcquire(waitMs, MILLISECONDS)) {
+        throw new FullException(
+            String.format(
+                "%s: no free slot for a call to IdP within %d ms, try again later",
+                name, waitMs));
+      }
+    } finally {
+      queued.decrementAndGet();
+    }
+  }
+
+  void release() {
+    permits.release();
+  }
+}
@@ -15,7 +15,6 @@
 package com.googlesource.gerrit.plugins.oauth;
 
 import static com.google.common.base.Strings.nullToEmpty;
-import static com.google.gerrit.json.OutputFormat.JSON;
 
 import com.github.scribejava.core.builder.ServiceBuilder;
 import com.github.scribejava.core.model.OAuth2AccessToken;
@@ -38,7 +37,7 @@ import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
-import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.oauth.IdpMetrics.Failure;
 import java.io.IOException;
 import java.net.URI;
 import java.util.concurrent.ExecutionException;
@@ -46,7 +45,6 @@ import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@Singleton
 class CasOAuthService implements OAuthServiceProvider {
   private static final Logger log = LoggerFactory.getLogger(CasOAuthService.class);
   static final String CONFIG_SUFFIX = "-cas-oauth";
@@ -56,12 +54,15 @@ class CasOAuthService implements OAuthServiceProvider {
   private final String rootUrl;
   private final boolean fixLegacyUserId;
   private final OAuth20Service service;
+  private final IdpClient idp;
 
   @Inject
   CasOAuthService(
       PluginConfigFactory cfgFactory,
       @PluginName String pluginName,
-      @CanonicalWebUrl Provider<String> urlProvider) {
+      @CanonicalWebUrl Provider<String> urlProvider,
+      OAuthHttpClient httpClient,
+      IdpClients idpClients) {
     PluginConfig cfg = cfgFactory.getFromGerritConfig(pluginName + CONFIG_SUFFIX);
     rootUrl = cfg.getString(InitOAuth.ROOT_URL);
     if (!URI.create(rootUrl).isAbsolute()) {
@@ -72,18 +73,25 @@ class CasOAuthService implements OAuthServiceProvider {
     service =
         new ServiceBuilder(cfg.getString(InitOAuth.CLIENT_ID))
             .apiSecret(cfg.getString(InitOAuth.CLIENT_SECRET))
+            .httpClient(httpClient)
             .callback(canonicalWebUrl + "oauth")
             .build(new CasApi(rootUrl));
+    idp = idpClients.create(CONFIG_SUFFIX, cfg, service);
+    idp.setEndpoints(() -> String.format(PROTECTED_RESOURCE_URL, rootUrl), null);
   }
 
   @Override
   public OAuthUserInfo getUserInfo(OAuthToken token) throws IOException {
+    return idp.getUserInfo(token, this::fetchUserInfo);
+  }
+
+  private OAuthUserInfo fetchUserInfo(OAuthToken token) throws IOException {
     OAuthRequest request =
         new OAuthRequest(Verb.GET, String.format(PROTECTED_RESOURCE_URL, rootUrl));
     OAuth2AccessToken t = new OAuth2AccessToken(token.getToken(), token.getRaw());
     service.signRequest(t, request);
 
-    try (Response response = service.execute(request)) {
+    try (Response response = idp.execute(request)) {
       if (response.getCode() != HttpServletResponse.SC_OK) {
         throw new IOException(
             String.format(
@@ -95,20 +103,18 @@ class CasOAuthService implements OAuthServiceProvider {
         log.debug("User info response: {}", response.getBody());
       }
 
-      JsonElement userJson = JSON.newGson().fromJson(response.getBody(), JsonElement.class);
-      if (!userJson.isJsonObject()) {
-        throw new IOException(String.format("Invalid JSON '%s': not a JSON Object", userJson));
-      }
-      JsonObject jsonObject = userJson.getAsJsonObject();
+      JsonObject jsonObject = JsonFields.parse(response.getBody(), "id", "attributes");
 
       JsonElement id = jsonObject.get("id");
       if (id == null || id.isJsonNull()) {
-        throw new IOException(String.format("CAS response missing id: %s", response.getBody()));
+        throw new IdpResponseException(
+            Failure.MISSING_ID, String.format("CAS response missing id: %s", response.getBody()));
       }
 
       JsonElement attrListJson = jsonObject.get("attributes");
       if (attrListJson == null) {
-        throw new IOException(
+        throw new IdpResponseException(
+            Failure.MISSING_FIELD,
             String.format("CAS response missing attributes: %s", response.getBody()));
       }
 
@@ -124,7 +130,9 @@ class CasOAuthService implements OAuthServiceProvider {
         JsonArray attrJson = attrListJson.getAsJsonArray();
         for (JsonElement elem : attrJson) {
           if (elem == null || !elem.isJsonObject()) {
-            throw new IOException(String.format("Invalid JSON '%s': not a JSON Object", elem));
+            throw new IdpResponseException(
+                Failure.INVALID_JSON,
+                String.format("Invalid JSON '%s': not a JSON Object", elem));
           }
           JsonObject obj = elem.getAsJsonObject();
 
@@ -166,7 +174,7 @@ class CasOAuthService implements OAuthServiceProvider {
   @Override
   public OAuthToken getAccessToken(OAuthVerifier rv) {
     try {
-      OAuth2AccessToken accessToken = service.getAccessToken(rv.getValue());
+      OAuth2AccessToken accessToken = idp.getAccessToken(rv.getValue());
       return new OAuthToken(
           accessToken.getAccessToken(),
           nullToEmpty(accessToken.getTokenType()),
@@ -0,0 +1,205 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.gerrit.server.config.PluginConfig;
+import java.io.IOException;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker for the calls of one provider to its IdP.
+ *
+ * <p>While {@code CLOSED}, the outcomes of the last {@code circuit-breaker-window} calls are
+ * recorded. Once the window is full and the share of failed or slow calls reaches its threshold,
+ * the breaker opens and calls fail right away with {@link OpenException}. After {@code
+ * circuit-breaker-open-duration} it lets {@code circuit-breaker-half-open-calls} trial calls
+ * through, and closes again if their failure and slow call rates are below the thresholds.
+ */
+class CircuitBreaker {
+  private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  /** Thrown instead of calling the IdP while the circuit breaker is open. */
+  static class OpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    OpenException(String message) {
+      super(message);
+    }
+  }
+
+  static final String CIRCUIT_BREAKER = "circuit-breaker";
+  static final String FAILURE_RATE = "circuit-breaker-failure-rate";
+  static final String SLOW_CALL_RATE = "circuit-breaker-slow-call-rate";
+  static final String SLOW_CALL_DURATION = "circuit-breaker-slow-call-duration";
+  static final String WINDOW = "circuit-breaker-window";
+  static final String OPEN_DURATION = "circuit-breaker-open-duration";
+  static final String HALF_OPEN_CALLS = "circuit-breaker-half-open-calls";
+
+  private static final int DEFAULT_FAILURE_RATE = 50;
+  private static final int DEFAULT_SLOW_CALL_RATE = 100;
+  private static final long DEFAULT_SLOW_CALL_DURATION_MS = 10_000;
+  private static final int DEFAULT_WINDOW = 20;
+  private static final long DEFAULT_OPEN_DURATION_MS = 30_000;
+  private static final int DEFAULT_HALF_OPEN_CALLS = 3;
+
+  private static final byte FAILED = 1;
+  private static final byte SLOW = 2;
+
+  private final String name;
+  private final boolean enabled;
+  private final int failureRate;
+  private final int slowCallRate;
+  private final long slowCallNanos;
+  private final long openNanos;
+  private final int halfOpenCalls;
+  private final LongSupplier nanoTime;
+
+  // Ring buffer of the outcomes of the last calls, guarded by this.
+  private final byte[] outcomes;
+  private int recorded;
+  private int next;
+  private int failed;
+  private int slow;
+
+  private State state = State.CLOSED;
+  private long openedAt;
+  private int trialsStarted;
+
+  CircuitBreaker(String name, PluginConfig cfg, LongSupplier nanoTime) {
+    this.name = name;
+    this.enabled = cfg.getBoolean(CIRCUIT_BREAKER, true);
+    this.failureRate = cfg.getInt(FAILURE_RATE, DEFAULT_FAILURE_RATE);
+    this.slowCallRate = cfg.getInt(SLOW_CALL_RATE, DEFAULT_SLOW_CALL_RATE);
+    this.slowCallNanos =
+        MILLISECONDS.toNanos(
+            OAuthConfigUtil.getTimeUnit(
+                cfg, SLOW_CALL_DURATION, DEFAULT_SLOW_CALL_DURATION_MS, MILLISECONDS));
+    this.openNanos =
+        MILLISECONDS.toNanos(
+            OAuthConfigUtil.getTimeUnit(
+                cfg, OPEN_DURATION, DEFAULT_OPEN_DURATION_MS, MILLISECONDS));
+    this.outcomes = new byte[Math.max(1, cfg.getInt(WINDOW, DEFAULT_WINDOW))];
+    int trials = cfg.getInt(HALF_OPEN_CALLS, DEFAULT_HALF_OPEN_CALLS);
+    this.halfOpenCalls = Math.max(1, Math.min(outcomes.length, trials));
+    this.nanoTime = nanoTime;
+  }
+
+  synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * Ask for permission to call the IdP. Every permitted call must be reported to {@link
+   * #record(long, boolean)}, or to {@link #release()} if it didn't reach the IdP.
+   *
+   * @throws OpenException if the circuit breaker is open
+   */
+  synchronized void acquire() throws OpenException {
+    if (!enabled) {
+      return;
+    }
+    if (state == State.OPEN && nanoTime.getAsLong() - openedAt >= openNanos) {
+      transitionTo(State.HALF_OPEN);
+    }
+    if (state == State.OPEN || (state == State.HALF_OPEN && trialsStarted >= halfOpenCalls)) {
+      throw new OpenException(
+          String.format("%s: IdP is unavailable, circuit breaker is %s", name, state));
+    }
+    if (state == State.HALF_OPEN) {
+      trialsStarted++;
+    }
+  }
+
+  /**
+   * Give back the permission of a call that didn't reach the IdP, e.g. because the {@link
+   * Bulkhead} was full. No outcome is recorded, and a trial call can be made instead while half
+   * open.
+   */
+  synchronized void release() {
+    if (enabled && state == State.HALF_OPEN && trialsStarted > 0) {
+      trialsStarted--;
+    }
+  }
+
+  /**
+   * Record the outcome of a call permitted by {@link #acquire()}.
+   *
+   * @param nanos duration of the call
+   * @param callFailed whether the IdP failed to answer or answered with a server error
+   */
+  synchronized void record(long nanos, boolean callFailed) {
+    if (!enabled || state == State.OPEN) {
+      // Calls that started before the breaker opened don't count.
+      return;
+    }
+    byte outcome = (byte) ((callFailed ? FAILED : 0) | (nanos >= slowCallNanos ? SLOW : 0));
+    if (recorded == outcomes.length) {
+      byte oldest = outcomes[next];
+      failed -= oldest & FAILED;
+      slow -= (oldest & SLOW) >> 1;
+    } else {
+      recorded++;
+    }
+    outcomes[next] = outcome;
+    next = (next + 1) % outcomes.length;
+    failed += outcome & FAILED;
+    slow += (outcome & SLOW) >> 1;
+
+    int window = state == State.HALF_OPEN ? halfOpenCalls : outcomes.length;
+    if (recorded < window) {
+      return;
+    }
+    int failedPercent = failed * 100 / recorded;
+    int slowPercent = slow * 100 / recorded;
+    if (failedPercent >= failureRate || slowPercent >= slowCallRate) {
+      log.warn(
+          "{}: opening circuit breaker for {} ms, {}% of the last {} calls to the IdP failed and"
+              + " {}% were slow",
+          name,
+          NANOSECONDS.toMillis(openNanos),
+          failedPercent,
+          recorded,
+          slowPercent);
+      transitionTo(State.OPEN);
+    } else if (state == State.HALF_OPEN) {
+      transitionTo(State.CLOSED);
+    }
+  }
+
+  private void transitionTo(State newState) {
+    if (newState == State.OPEN) {
+      openedAt = nanoTime.getAsLong();
+    } else {
+      log.info("{}: circuit breaker is {}", name, newState);
+    }
+    state = newState;
+    trialsStarted = 0;
+    recorded = 0;
+    next = 0;
+    failed = 0;
+    slow = 0;
+  }
+}
@@ -0,0 +1,259 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warms up the connections to the IdPs at plugin start, so that the first login after a restart
+ * doesn't pay for DNS lookups, TLS handshakes, OIDC discovery and JWKS fetches, and keeps them
+ * open while nobody logs in.
+ *
+ * <p>The warm-up is off by default, as it builds all configured providers at start instead of on
+ * their first use. If enabled, the configured providers are built in the background and the hosts
+ * of their token, user info and JWKS endpoints are contacted in parallel. The start of the plugin
+ * doesn't wait for the warm-up, which gives up waiting after {@code warm-up-timeout}.
+ *
+ * <p>The keep-alive is off by default as well. If enabled, the JWKS endpoint of each provider
+ * built so far gets {@code http-min-idle-connections} concurrent GET requests every half {@code
+ * jdk.httpclient.keepalive.timeout}, so that the pool of {@link OAuthHttpClient} keeps that many
+ * connections to its host open. The token and user info endpoints are never polled, they expect
+ * authenticated requests.
+ */
+@Singleton
+class ConnectionWarmer implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(ConnectionWarmer.class);
+
+  static final String WARM_UP = "warm-up";
+  static final String WARM_UP_TIMEOUT = "warm-up-timeout";
+  static final String KEEP_ALIVE = "keep-alive";
+  static final String MIN_IDLE_CONNECTIONS = "http-min-idle-connections";
+
+  private static final long DEFAULT_WARM_UP_TIMEOUT_MS = 30_000;
+  private static final int DEFAULT_MIN_IDLE_CONNECTIONS = 1;
+  private static final long DEFAULT_KEEP_ALIVE_TIMEOUT_S = 1200;
+  private static final long MIN_KEEP_ALIVE_INTERVAL_MS = 1_000;
+
+  private final Set<LazyOAuthProvider> providers;
+  private final IdpClients idpClients;
+  private final OAuthHttpClient httpClient;
+  private final JwksCache jwks;
+  private final IdpMetrics metrics;
+  private final boolean warmUp;
+  private final boolean keepAlive;
+  private final long timeoutMs;
+  private final int minIdleConnections;
+  private final long keepAliveIntervalMs;
+  // Whether the last requests to a host got a response, by host.
+  private final ConcurrentMap<String, Boolean> warmHosts = new ConcurrentHashMap<>();
+  private ScheduledThreadPoolExecutor executor;
+
+  @Inject
+  ConnectionWarmer(
+      Set<LazyOAuthProvider> providers,
+      IdpClients idpClients,
+      OAuthHttpClient httpClient,
+      JwksCache jwks,
+      IdpMetrics metrics,
+      PluginConfigFactory cfgFactory,
+      @PluginName String pluginName) {
+    this.providers = providers;
+    this.idpClients = idpClients;
+    this.httpClient = httpClient;
+    this.jwks = jwks;
+    this.metrics = metrics;
+    PluginConfig cfg = cfgFactory.getFromGerritConfig(pluginName);
+    this.warmUp = cfg.getBoolean(WARM_UP, false);
+    this.keepAlive = cfg.getBoolean(KEEP_ALIVE, false);
+    this.timeoutMs =
+        OAuthConfigUtil.getTimeUnit(
+            cfg, WARM_UP_TIMEOUT, DEFAULT_WARM_UP_TIMEOUT_MS, MILLISECONDS);
+    this.minIdleConnections =
+        Math.max(0, cfg.getInt(MIN_IDLE_CONNECTIONS, DEFAULT_MIN_IDLE_CONNECTIONS));
+    // Refresh the pooled connections before the HTTP client closes them as idle.
+    this.keepAliveIntervalMs =
+        Math.max(
+            MIN_KEEP_ALIVE_INTERVAL_MS,
+            SECONDS.toMillis(
+                    Long.getLong("jdk.httpclient.keepalive.timeout", DEFAULT_KEEP_ALIVE_TIMEOUT_S))
+                / 2);
+  }
+
+  @Override
+  public void start() {
+    if (!(warmUp || keepAlive) || providers.isEmpty()) {
+      return;
+    }
+    executor =
+        new ScheduledThreadPoolExecutor(
+            providers.size(),
+            new ThreadFactoryBuilder().setNameFormat("OAuth-WarmUp-%d").setDaemon(true).build());
+    executor.setKeepAliveTime(1, SECONDS);
+    executor.allowCoreThreadTimeOut(true);
+    if (warmUp) {
+      executor.execute(this::warmUp);
+    }
+    if (keepAlive && minIdleConnections > 0) {
+      executor.scheduleWithFixedDelay(
+          this::keepAlive, keepAliveIntervalMs, keepAliveIntervalMs, MILLISECONDS);
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private void warmUp() {
+    long start = System.nanoTime();
+    for (LazyOAuthProvider provider : providers) {
+      try {
+        provider.build();
+      } catch (RuntimeException e) {
+        log.warn("OAuth2: cannot build provider {}", provider.getName(), e);
+      }
+    }
+    List<CompletableFuture<Boolean>> results = new ArrayList<>();
+    for (IdpClient idp : idpClients.getClients()) {
+      results.add(warmUp(idp));
+    }
+    allTrue(results)
+        .completeOnTimeout(false, timeoutMs, MILLISECONDS)
+        .thenAccept(
+            allWarm -> {
+              long warm = results.stream().filter(r -> r.getNow(false)).count();
+              log.info(
+                  "OAuth2: warmed up {} of {} providers in {} ms",
+                  warm,
+                  providers.size(),
+                  NANOSECONDS.toMillis(System.nanoTime() - start));
+            });
+  }
+
+  private CompletableFuture<Boolean> warmUp(IdpClient idp) {
+    Set<String> hosts = ConcurrentHashMap.newKeySet();
+    metrics.warm(idp.getName(), () -> !hosts.isEmpty() && hosts.stream().allMatch(this::isWarm));
+    return CompletableFuture.supplyAsync(
+            () -> {
+              // Looking up the endpoints waits for OIDC discovery, if enabled.
+              List<CompletableFuture<Boolean>> steps = new ArrayList<>();
+              steps.add(connect(hosts, idp.getTokenEndpoint()));
+              String userInfoEndpoint = idp.getUserInfoEndpoint();
+              if (userInfoEndpoint != null) {
+                steps.add(connect(hosts, userInfoEndpoint));
+              }
+              String jwksEndpoint = idp.getJwksEndpoint();
+              if (jwksEndpoint != null) {
+                steps.add(fetchKeys(hosts, jwksEndpoint));
+              }
+              return steps;
+            },
+            executor)
+        .thenCompose(ConnectionWarmer::allTrue)
+        .exceptionally(
+            t -> {
+              log.warn("OAuth2: cannot warm up connections of {}", idp.getName(), t);
+              return false;
+            });
+  }
+
+  private CompletableFuture<Boolean> connect(Set<String> hosts, String url) {
+    String host = register(hosts, url);
+    return httpClient
+        .connect(url, Math.max(1, minIdleConnections))
+        .thenApply(ok -> record(host, ok));
+  }
+
+  private CompletableFuture<Boolean> fetchKeys(Set<String> hosts, String jwksUrl) {
+    String host = register(hosts, jwksUrl);
+    return jwks.prefetch(jwksUrl).handle((keys, t) -> record(host, t == null));
+  }
+
+  private void keepAlive() {
+    for (IdpClient idp : idpClients.getClients()) {
+      String url;
+      try {
+        url = idp.getKeepAliveEndpoint();
+      } catch (RuntimeException e) {
+        log.warn("OAuth2: cannot look up keep-alive endpoint of {}", idp.getName(), e);
+        continue;
+      }
+      if (url == null) {
+        continue;
+      }
+      String host = host(url);
+      for (int i = 0; i < minIdleConnections; i++) {
+        httpClient
+            .getAsync(url, ImmutableMap.of())
+            .whenComplete(
+                (response, t) -> {
+                  metrics.keepAlive(idp.getName(), t == null ? response.getCode() : 0);
+                  record(host, t == null);
+                });
+      }
+    }
+  }
+
+  private static String register(Set<String> hosts, String url) {
+    String host = host(url);
+    hosts.add(host);
+    return host;
+  }
+
+  private static String host(String url) {
+    URI uri = URI.create(url);
+    return uri.getScheme() + "://" + uri.getRawAuthority();
+  }
+
+  private boolean record(String host, boolean ok) {
+    if (!ok && !Boolean.FALSE.equals(warmHosts.get(host))) {
+      log.warn("OAuth2: cannot connect to {}", host);
+    }
+    warmHosts.put(host, ok);
+    return ok;
+  }
+
+  private boolean isWarm(String host) {
+    return warmHosts.getOrDefault(host, false);
+  }
+
+  private static CompletableFuture<Boolean> allTrue(List<CompletableFuture<Boolean>> results) {
+    return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+        .thenApply(v -> results.stream().allMatch(CompletableFuture::join));
+  }
+}
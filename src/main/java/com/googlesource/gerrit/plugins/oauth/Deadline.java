@@ -0,0 +1,107 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.IOException;
+
+/**
+ * Time budget of one login with a provider, from the token exchange to the last user info request.
+ *
+ * <p>While a step of the login runs, its deadline is the current deadline of the thread, and every
+ * wait on the way to the IdP, down to the timeout of the HTTP request, is capped at the time that
+ * is left. Code that hands work to another thread passes the deadline on with {@link #set}.
+ */
+final class Deadline {
+  private static final ThreadLocal<Deadline> current = new ThreadLocal<>();
+
+  /** Thrown when a step of a login would start after its deadline. */
+  static class ExceededException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    ExceededException(String message) {
+      super(message);
+    }
+  }
+
+  private final String provider;
+  private final long timeoutMs;
+  private final long expiresAt;
+
+  /**
+   * Create the deadline of a login that starts now.
+   *
+   * @param provider name of the provider
+   * @param timeoutMs time budget of the login
+   */
+  Deadline(String provider, long timeoutMs) {
+    this.provider = provider;
+    this.timeoutMs = timeoutMs;
+    this.expiresAt = System.nanoTime() + MILLISECONDS.toNanos(timeoutMs);
+  }
+
+  /** Get the deadline of the login the current thread works on, or null. */
+  static Deadline current() {
+    return current.get();
+  }
+
+  /**
+   * Set the deadline of the login the current thread works on.
+   *
+   * @param deadline deadline, or null when the thread is done with the login
+   */
+  static void set(Deadline deadline) {
+    if (deadline != null) {
+      current.set(deadline);
+    } else {
+      current.remove();
+    }
+  }
+
+  /**
+   * Cap a timeout at the time left to the current deadline.
+   *
+   * @param timeoutMs timeout of a step in milliseconds
+   * @return {@code timeoutMs} if there is no current deadline, otherwise the smaller of {@code
+   *     timeoutMs} and the time left, but at least 1
+   */
+  static long cap(long timeoutMs) {
+    Deadline deadline = current.get();
+    if (deadline == null) {
+      return timeoutMs;
+    }
+    return Math.max(1, Math.min(timeoutMs, deadline.remainingMs()));
+  }
+
+  /**
+   * Check that the current deadline, if any, hasn't passed.
+   *
+   * @throws ExceededException if it passed
+   */
+  static void check() throws ExceededException {
+    Deadline deadline = current.get();
+    if (deadline != null && deadline.remainingMs() <= 0) {
+      throw new ExceededException(
+          String.format(
+              "%s: login took longer than %d ms", deadline.provider, deadline.timeoutMs));
+    }
+  }
+
+  long remainingMs() {
+    return NANOSECONDS.toMillis(expiresAt - System.nanoTime());
+  }
+}
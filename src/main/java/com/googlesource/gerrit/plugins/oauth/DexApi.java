@@ -23,19 +23,36 @@ public class DexApi extends DefaultApi20 {
   private static final String AUTHORIZE_URL = "%s/dex/auth";
 
   private final String rootUrl;
+  private final OidcDiscovery.Issuer issuer;
 
   public DexApi(String rootUrl) {
+    this(rootUrl, null);
+  }
+
+  DexApi(String rootUrl, OidcDiscovery.Issuer issuer) {
     this.rootUrl = rootUrl;
+    this.issuer = issuer;
+  }
+
+  static String getIssuer(String rootUrl) {
+    return String.format("%s/dex", rootUrl);
   }
 
   @Override
   public String getAuthorizationBaseUrl() {
-    return String.format(AUTHORIZE_URL, rootUrl);
+    String url = String.format(AUTHORIZE_URL, rootUrl);
+    return issuer != null ? issuer.getAuthorizationEndpoint(url) : url;
   }
 
   @Override
   public String getAccessTokenEndpoint() {
-    return String.format("%s/dex/token", rootUrl);
+    String url = String.format("%s/dex/token", rootUrl);
+    return issuer != null ? issuer.getTokenEndpoint(url) : url;
+  }
+
+  String getJwksEndpoint() {
+    String url = String.format("%s/dex/keys", rootUrl);
+    return issuer != null ? issuer.getJwksUri(url) : url;
   }
 
   @Override
@@ -14,14 +14,13 @@
 
 package com.googlesource.gerrit.plugins.oauth;
 
-import static com.google.gerrit.json.OutputFormat.JSON;
-
 import com.github.scribejava.core.builder.ServiceBuilder;
 import com.github.scribejava.core.model.OAuth2AccessToken;
 import com.github.scribejava.core.oauth.OAuth20Service;
 import com.google.common.base.CharMatcher;
-import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.auth.oauth.OAuthLoginProvider;
 import com.google.gerrit.extensions.auth.oauth.OAuthServiceProvider;
 import com.google.gerrit.extensions.auth.oauth.OAuthToken;
 import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
@@ -34,23 +33,22 @@ import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
-import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.oauth.IdpMetrics.Failure;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.URI;
-import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ExecutionException;
-import org.apache.commons.codec.binary.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@Singleton
-public class DexOAuthService implements OAuthServiceProvider {
+public class DexOAuthService implements OAuthServiceProvider, OAuthLoginProvider {
   private static final Logger log = LoggerFactory.getLogger(DexOAuthService.class);
 
   static final String CONFIG_SUFFIX = "-dex-oauth";
   private static final String DEX_PROVIDER_PREFIX = "dex-oauth:";
   private final OAuth20Service service;
+  private final IdpClient idp;
+  private final DexApi api;
+  private final ImmutableSet<String> issuers;
   private final String rootUrl;
   private final String domain;
   private final String serviceName;
@@ -59,7 +57,10 @@ public class DexOAuthService implements OAuthServiceProvider {
   DexOAuthService(
       PluginConfigFactory cfgFactory,
       @PluginName String pluginName,
-      @CanonicalWebUrl Provider<String> urlProvider) {
+      @CanonicalWebUrl Provider<String> urlProvider,
+      OAuthHttpClient httpClient,
+      IdpClients idpClients,
+      OidcDiscovery discovery) {
     PluginConfig cfg = cfgFactory.getFromGerritConfig(pluginName + CONFIG_SUFFIX);
     String canonicalWebUrl = CharMatcher.is('/').trimTrailingFrom(urlProvider.get()) + "/";
 
@@ -70,50 +71,48 @@ public class DexOAuthService implements OAuthServiceProvider {
     domain = cfg.getString(InitOAuth.DOMAIN, null);
     serviceName = cfg.getString(InitOAuth.SERVICE_NAME, "Dex OAuth2");
 
+    String issuer = DexApi.getIssuer(rootUrl);
+    issuers = ImmutableSet.of(issuer);
+    api = new DexApi(rootUrl, discovery.forIssuer(cfg, issuer));
     service =
         new ServiceBuilder(cfg.getString(InitOAuth.CLIENT_ID))
             .apiSecret(cfg.getString(InitOAuth.CLIENT_SECRET))
+            .httpClient(httpClient)
             .defaultScope("openid profile email offline_access")
             .callback(canonicalWebUrl + "oauth")
-            .build(new DexApi(rootUrl));
+            .build(api);
+    idp = idpClients.create(CONFIG_SUFFIX, cfg, service);
+    idp.setEndpoints(null, api::getJwksEndpoint);
   }
 
-  private String parseJwt(String input) throws UnsupportedEncodingException {
-    String[] parts = input.split("\\.");
-    Preconditions.checkState(parts.length == 3);
-    Preconditions.checkNotNull(parts[1]);
-    return new String(Base64.decodeBase64(parts[1]), StandardCharsets.UTF_8.name());
+  @Override
+  public OAuthUserInfo getUserInfo(OAuthToken token) throws IOException {
+    return idp.getUserInfo(token, this::fetchUserInfo);
   }
 
   @Override
-  public OAuthUserInfo getUserInfo(OAuthToken token) throws IOException {
-    JsonElement tokenJson = JSON.newGson().fromJson(token.getRaw(), JsonElement.class);
-    JsonObject tokenObject = tokenJson.getAsJsonObject();
-    JsonElement id_token = tokenObject.get("id_token");
+  public OAuthUserInfo login(String username, String secret) throws IOException {
+    return idp.login(username, secret, this::fetchUserInfo);
+  }
 
-    String jwt;
-    try {
-      jwt = parseJwt(id_token.getAsString());
-    } catch (UnsupportedEncodingException e) {
-      throw new IOException(
-          String.format(
-              "%s support is required to interact with JWTs", StandardCharsets.UTF_8.name()),
-          e);
+  private OAuthUserInfo fetchUserInfo(OAuthToken token) throws IOException {
+    String idToken = IdpClient.getIdToken(token);
+    if (!idp.verifyIdToken(idToken, api.getJwksEndpoint(), issuers)) {
+      return idp.reject(token, Failure.INVALID_ID_TOKEN);
     }
 
-    JsonElement claimJson = JSON.newGson().fromJson(jwt, JsonElement.class);
+    JsonObject claimObject = JwtDecoder.decodeClaims(idToken, "email", "name");
 
     // Dex does not support basic profile currently (2017-09), extracting info
     // from access token claim
 
-    JsonObject claimObject = claimJson.getAsJsonObject();
     JsonElement emailElement = claimObject.get("email");
     JsonElement nameElement = claimObject.get("name");
     if (emailElement == null || emailElement.isJsonNull()) {
-      throw new IOException("Response doesn't contain email field");
+      throw new IdpResponseException(Failure.MISSING_FIELD, "Response doesn't contain email field");
     }
     if (nameElement == null || nameElement.isJsonNull()) {
-      throw new IOException("Response doesn't contain name field");
+      throw new IdpResponseException(Failure.MISSING_FIELD, "Response doesn't contain name field");
     }
     String email = emailElement.getAsString();
     String name = nameElement.getAsString();
@@ -133,7 +132,7 @@ public class DexOAuthService implements OAuthServiceProvider {
   @Override
   public OAuthToken getAccessToken(OAuthVerifier rv) {
     try {
-      OAuth2AccessToken accessToken = service.getAccessToken(rv.getValue());
+      OAuth2AccessToken accessToken = idp.getAccessToken(rv.getValue());
       return new OAuthToken(
           accessToken.getAccessToken(), accessToken.getTokenType(), accessToken.getRawResponse());
     } catch (InterruptedException | ExecutionException | IOException e) {
@@ -145,7 +144,7 @@ public class DexOAuthService implements OAuthServiceProvider {
 
   @Override
   public String getAuthorizationUrl() {
-    return service.getAuthorizationUrl();
+    return idp.getAuthorizationUrl(service.getAuthorizationUrl());
   }
 
   @Override
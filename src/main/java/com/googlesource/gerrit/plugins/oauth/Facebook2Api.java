@@ -19,14 +19,25 @@ import com.github.scribejava.core.oauth2.clientauthentication.ClientAuthenticati
 import com.github.scribejava.core.oauth2.clientauthentication.RequestBodyAuthenticationScheme;
 
 public class Facebook2Api extends DefaultApi20 {
+  private final String rootUrl;
+
+  public Facebook2Api() {
+    this(null);
+  }
+
+  /** @param rootUrl URL serving the endpoints instead of the Facebook hosts, or null */
+  public Facebook2Api(String rootUrl) {
+    this.rootUrl = rootUrl;
+  }
+
   @Override
   protected String getAuthorizationBaseUrl() {
-    return "https://www.facebook.com/dialog/oauth";
+    return OAuthConfigUtil.withRootUrl("https://www.facebook.com/dialog/oauth", rootUrl);
   }
 
   @Override
   public String getAccessTokenEndpoint() {
-    return "https://graph.facebook.com/oauth/access_token";
+    return OAuthConfigUtil.withRootUrl("https://graph.facebook.com/oauth/access_token", rootUrl);
   }
 
   @Override
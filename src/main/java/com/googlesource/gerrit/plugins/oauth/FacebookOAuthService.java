@@ -14,8 +14,6 @@
 
 package com.googlesource.gerrit.plugins.oauth;
 
-import static com.google.gerrit.json.OutputFormat.JSON;
-
 import com.github.scribejava.core.builder.ServiceBuilder;
 import com.github.scribejava.core.model.OAuth2AccessToken;
 import com.github.scribejava.core.model.OAuthRequest;
@@ -35,14 +33,15 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
-import com.google.inject.Singleton;
+import com.google.inject.ProvisionException;
+import com.googlesource.gerrit.plugins.oauth.IdpMetrics.Failure;
 import java.io.IOException;
+import java.net.URI;
 import java.util.concurrent.ExecutionException;
 import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@Singleton
 class FacebookOAuthService implements OAuthServiceProvider {
   private static final Logger log = LoggerFactory.getLogger(FacebookOAuthService.class);
   static final String CONFIG_SUFFIX = "-facebook-oauth";
@@ -53,75 +52,84 @@ class FacebookOAuthService implements OAuthServiceProvider {
   private static final String FIELDS_QUERY = "fields";
   private static final String FIELDS = "email,name";
   private final OAuth20Service service;
+  private final IdpClient idp;
+  private final String userInfoUrl;
 
   @Inject
   FacebookOAuthService(
       PluginConfigFactory cfgFactory,
       @PluginName String pluginName,
-      @CanonicalWebUrl Provider<String> urlProvider) {
+      @CanonicalWebUrl Provider<String> urlProvider,
+      OAuthHttpClient httpClient,
+      IdpClients idpClients) {
 
     PluginConfig cfg = cfgFactory.getFromGerritConfig(pluginName + CONFIG_SUFFIX);
     String canonicalWebUrl = CharMatcher.is('/').trimTrailingFrom(urlProvider.get()) + "/";
+    String rootUrl = cfg.getString(InitOAuth.ROOT_URL);
+    if (rootUrl != null && !URI.create(rootUrl).isAbsolute()) {
+      throw new ProvisionException("Root URL must be absolute URL");
+    }
 
     service =
         new ServiceBuilder(cfg.getString(InitOAuth.CLIENT_ID))
             .apiSecret(cfg.getString(InitOAuth.CLIENT_SECRET))
+            .httpClient(httpClient)
             .callback(canonicalWebUrl + "oauth")
             .defaultScope(SCOPE)
-            .build(new Facebook2Api());
+            .build(new Facebook2Api(rootUrl));
+    userInfoUrl = OAuthConfigUtil.withRootUrl(PROTECTED_RESOURCE_URL, rootUrl);
+    idp = idpClients.create(CONFIG_SUFFIX, cfg, service);
+    idp.setEndpoints(() -> userInfoUrl, null);
   }
 
   @Override
   public OAuthUserInfo getUserInfo(OAuthToken token) throws IOException {
-    OAuthRequest request = new OAuthRequest(Verb.GET, PROTECTED_RESOURCE_URL);
+    return idp.getUserInfo(token, this::fetchUserInfo);
+  }
+
+  private OAuthUserInfo fetchUserInfo(OAuthToken token) throws IOException {
+    OAuthRequest request = new OAuthRequest(Verb.GET, userInfoUrl);
     request.addQuerystringParameter(FIELDS_QUERY, FIELDS);
     OAuth2AccessToken t = new OAuth2AccessToken(token.getToken(), token.getRaw());
     service.signRequest(t, request);
 
-    JsonElement userJson = null;
-    try (Response response = service.execute(request)) {
+    try (Response response = idp.execute(request)) {
       if (response.getCode() != HttpServletResponse.SC_OK) {
         throw new IOException(
             String.format(
                 "Status %s (%s) for request %s",
                 response.getCode(), response.getBody(), request.getUrl()));
       }
-      userJson = JSON.newGson().fromJson(response.getBody(), JsonElement.class);
-
       if (log.isDebugEnabled()) {
         log.debug("User info response: {}", response.getBody());
       }
-      if (userJson.isJsonObject()) {
-        JsonObject jsonObject = userJson.getAsJsonObject();
-        JsonElement id = jsonObject.get("id");
-        if (id == null || id.isJsonNull()) {
-          throw new IOException("Response doesn't contain id field");
-        }
-        JsonElement email = jsonObject.get("email");
-        JsonElement name = jsonObject.get("name");
-        // Heads up!
-        // Lets keep `login` equal to `email`, since `username` field is
-        // deprecated for Facebook API versions v2.0 and higher
-        JsonElement login = jsonObject.get("email");
-
-        return new OAuthUserInfo(
-            FACEBOOK_PROVIDER_PREFIX + id.getAsString(),
-            login == null || login.isJsonNull() ? null : login.getAsString(),
-            email == null || email.isJsonNull() ? null : email.getAsString(),
-            name == null || name.isJsonNull() ? null : name.getAsString(),
-            null);
+      JsonObject jsonObject = JsonFields.parse(response.getBody(), "id", "email", "name");
+      JsonElement id = jsonObject.get("id");
+      if (id == null || id.isJsonNull()) {
+        throw new IdpResponseException(Failure.MISSING_ID, "Response doesn't contain id field");
       }
+      JsonElement email = jsonObject.get("email");
+      JsonElement name = jsonObject.get("name");
+      // Heads up!
+      // Lets keep `login` equal to `email`, since `username` field is
+      // deprecated for Facebook API versions v2.0 and higher
+      JsonElement login = jsonObject.get("email");
+
+      return new OAuthUserInfo(
+          FACEBOOK_PROVIDER_PREFIX + id.getAsString(),
+          login == null || login.isJsonNull() ? null : login.getAsString(),
+          email == null || email.isJsonNull() ? null : email.getAsString(),
+          name == null || name.isJsonNull() ? null : name.getAsString(),
+          null);
     } catch (ExecutionException | InterruptedException e) {
       throw new RuntimeException("Cannot retrieve user info resource", e);
     }
-
-    throw new IOException(String.format("Invalid JSON '%s': not a JSON Object", userJson));
   }
 
   @Override
   public OAuthToken getAccessToken(OAuthVerifier rv) {
     try {
-      OAuth2AccessToken accessToken = service.getAccessToken(rv.getValue());
+      OAuth2AccessToken accessToken = idp.getAccessToken(rv.getValue());
       return new OAuthToken(
           accessToken.getAccessToken(), accessToken.getTokenType(), accessToken.getRawResponse());
     } catch (InterruptedException | ExecutionException | IOException e) {
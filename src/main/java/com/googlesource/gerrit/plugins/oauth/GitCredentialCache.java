@@ -0,0 +1,134 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import com.google.common.cache.Cache;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cache of credentials of git clients that the IdP accepted, keyed by provider and a hash of user
+ * name and password.
+ *
+ * <p>The hash is keyed with a random secret of this process, so the cache never holds anything a
+ * password could be recovered from offline. Entries expire after the {@code maxAge} of the cache,
+ * 5 minutes by default, after which the next git request checks the credentials with the IdP
+ * again. Concurrent requests with the same credentials share a single call to the IdP.
+ */
+@Singleton
+class GitCredentialCache {
+  static final String CACHE_NAME = "git_credentials";
+
+  @FunctionalInterface
+  interface Loader {
+    OAuthUserInfo load() throws IOException;
+  }
+
+  static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, String.class, OAuthUserInfo.class)
+            .maximumWeight(4096)
+            .expireAfterWrite(Duration.ofMinutes(5));
+        bind(GitCredentialCache.class);
+      }
+    };
+  }
+
+  // Thrown by the cache loader when the IdP refused the credentials.
+  private static class NotAuthenticated extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    NotAuthenticated() {
+      super(null, null, false, false);
+    }
+  }
+
+  private final Cache<String, OAuthUserInfo> cache;
+  private final HashFunction hash;
+
+  @Inject
+  GitCredentialCache(@Named(CACHE_NAME) Cache<String, OAuthUserInfo> cache) {
+    this.cache = cache;
+    byte[] secret = new byte[32];
+    new SecureRandom().nextBytes(secret);
+    this.hash = Hashing.hmacSha256(secret);
+  }
+
+  /**
+   * Compute the key of a pair of credentials.
+   *
+   * @param provider name of the provider
+   * @param username user name
+   * @param password password or token
+   * @return key for {@link #get(String, Loader)} and {@link RejectedTokenCache}
+   */
+  String key(String provider, String username, String password) {
+    return provider
+        + ":"
+        + hash.newHasher()
+            .putString(username, StandardCharsets.UTF_8)
+            .putByte((byte) 0)
+            .putString(password, StandardCharsets.UTF_8)
+            .hash();
+  }
+
+  /**
+   * Get the user info for credentials, loading it from the IdP on a cache miss.
+   *
+   * @param key key of the credentials
+   * @param loader authenticates the credentials with the IdP
+   * @return user info, or null if the IdP refused the credentials
+   * @throws IOException if the credentials couldn't be checked
+   */
+  OAuthUserInfo get(String key, Loader loader) throws IOException {
+    try {
+      return cache.get(
+          key,
+          () -> {
+            OAuthUserInfo userInfo = loader.load();
+            if (userInfo == null) {
+              throw new NotAuthenticated();
+            }
+            return userInfo;
+          });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof NotAuthenticated) {
+        return null;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+}
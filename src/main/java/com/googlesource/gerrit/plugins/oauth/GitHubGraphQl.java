@@ -0,0 +1,147 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.googlesource.gerrit.plugins.oauth.IdpMetrics.Failure.INVALID_JSON;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The GraphQL query that reads the GitHub user info together with the memberships of the user in
+ * the configured organizations and teams.
+ *
+ * <p>Each organization is queried under an alias, with its login as variable, so that any number
+ * of memberships is checked in the single round trip of the user info request. Teams are listed
+ * only for organizations that have teams configured.
+ */
+final class GitHubGraphQl {
+  private static final int MAX_TEAMS = 100;
+
+  private final ImmutableList<String> organizations;
+  private final ImmutableSet<String> withTeams;
+
+  /**
+   * @param memberships configured organizations, like {@code acme}, and teams, like {@code
+   *     acme/developers}
+   */
+  GitHubGraphQl(List<String> memberships) {
+    Set<String> organizations = new LinkedHashSet<>();
+    ImmutableSet.Builder<String> withTeams = ImmutableSet.builder();
+    for (String membership : memberships) {
+      int slash = membership.indexOf('/');
+      if (slash < 0) {
+        organizations.add(membership);
+      } else {
+        organizations.add(membership.substring(0, slash));
+        withTeams.add(membership.substring(0, slash));
+      }
+    }
+    this.organizations = ImmutableList.copyOf(organizations);
+    this.withTeams = withTeams.build();
+  }
+
+  /** Body of the POST request to the GraphQL endpoint. */
+  String getRequestBody() {
+    StringBuilder query = new StringBuilder("query");
+    JsonObject variables = new JsonObject();
+    for (int i = 0; i < organizations.size(); i++) {
+      query.append(i > 0 ? ", " : "(").append("$o").append(i).append(": String!");
+      variables.addProperty("o" + i, organizations.get(i));
+    }
+    query.append(organizations.isEmpty() ? "" : ")");
+    query.append(" { viewer { login databaseId name email }");
+    for (int i = 0; i < organizations.size(); i++) {
+      query.append(" o").append(i).append(": organization(login: $o").append(i).append(") {");
+      query.append(" viewerIsAMember");
+      if (withTeams.contains(organizations.get(i))) {
+        query.append(" teams(first: ").append(MAX_TEAMS).append(", role: MEMBER)");
+        query.append(" { nodes { slug } }");
+      }
+      query.append(" }");
+    }
+    query.append(" }");
+    JsonObject body = new JsonObject();
+    body.addProperty("query", query.toString());
+    body.add("variables", variables);
+    return body.toString();
+  }
+
+  /**
+   * Read the response to the query.
+   *
+   * @param response body of the response
+   * @return the user and its memberships
+   * @throws IdpResponseException if the response doesn't contain the user
+   */
+  Result parse(String response) throws IOException {
+    JsonObject fields = JsonFields.parse(response, "data", "errors");
+    JsonElement data = fields.get("data");
+    JsonElement viewer =
+        data != null && data.isJsonObject() ? data.getAsJsonObject().get("viewer") : null;
+    if (viewer == null || !viewer.isJsonObject()) {
+      throw new IdpResponseException(
+          INVALID_JSON, String.format("GraphQL response without viewer: %s", fields.get("errors")));
+    }
+    Set<String> memberships = new LinkedHashSet<>();
+    for (int i = 0; i < organizations.size(); i++) {
+      // An organization that doesn't exist or isn't visible to the application is null.
+      JsonElement org = data.getAsJsonObject().get("o" + i);
+      if (org == null || !org.isJsonObject()) {
+        continue;
+      }
+      JsonElement member = org.getAsJsonObject().get("viewerIsAMember");
+      if (member == null || !member.isJsonPrimitive() || !member.getAsBoolean()) {
+        continue;
+      }
+      memberships.add(organizations.get(i));
+      JsonElement teams = org.getAsJsonObject().get("teams");
+      if (teams != null && teams.isJsonObject()) {
+        JsonElement nodes = teams.getAsJsonObject().get("nodes");
+        if (nodes != null && nodes.isJsonArray()) {
+          for (JsonElement team : (JsonArray) nodes) {
+            if (team.isJsonObject()) {
+              String slug = JsonFields.getString(team.getAsJsonObject(), "slug");
+              if (slug != null) {
+                memberships.add(organizations.get(i) + "/" + slug);
+              }
+            }
+          }
+        }
+      }
+    }
+    return new Result(viewer.getAsJsonObject(), ImmutableSet.copyOf(memberships));
+  }
+
+  static final class Result {
+    /** Fields {@code login}, {@code databaseId}, {@code name} and {@code email} of the user. */
+    final JsonObject viewer;
+
+    /** Organizations and {@code organization/team} slugs the user is a member of. */
+    final ImmutableSet<String> memberships;
+
+    private Result(JsonObject viewer, ImmutableSet<String> memberships) {
+      this.viewer = viewer;
+      this.memberships = memberships;
+    }
+  }
+}
@@ -14,8 +14,6 @@
 
 package com.googlesource.gerrit.plugins.oauth;
 
-import static com.google.gerrit.json.OutputFormat.JSON;
-
 import com.github.scribejava.core.builder.ServiceBuilder;
 import com.github.scribejava.core.model.OAuth2AccessToken;
 import com.github.scribejava.core.model.OAuthRequest;
@@ -23,7 +21,9 @@ import com.github.scribejava.core.model.Response;
 import com.github.scribejava.core.model.Verb;
 import com.github.scribejava.core.oauth.OAuth20Service;
 import com.google.common.base.CharMatcher;
+import com.google.common.base.Strings;
 import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.auth.oauth.OAuthLoginProvider;
 import com.google.gerrit.extensions.auth.oauth.OAuthServiceProvider;
 import com.google.gerrit.extensions.auth.oauth.OAuthToken;
 import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
@@ -35,45 +35,66 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
-import com.google.inject.Singleton;
+import com.google.inject.ProvisionException;
+import com.googlesource.gerrit.plugins.oauth.IdpMetrics.Failure;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@Singleton
-class GitHubOAuthService implements OAuthServiceProvider {
+class GitHubOAuthService implements OAuthServiceProvider, OAuthLoginProvider {
   private static final Logger log = LoggerFactory.getLogger(GitHubOAuthService.class);
   static final String CONFIG_SUFFIX = "-github-oauth";
   private static final String GITHUB_PROVIDER_PREFIX = "github-oauth:";
   private static final String GITHUB_API_ENDPOINT_URL = "https://api.github.com/";
   private static final String GHE_API_ENDPOINT_URL = "%sapi/v3/";
+  private static final String GITHUB_GRAPHQL_URL = "https://api.github.com/graphql";
+  private static final String GHE_GRAPHQL_URL = "%sapi/graphql";
+  static final String ORGANIZATION = "organization";
   static final String GITHUB_ROOT_URL = "https://github.com/";
   private final String rootUrl;
 
   static final String SCOPE = "user:email";
+  static final String ORGANIZATION_SCOPE = "read:org";
   private final boolean fixLegacyUserId;
+  private final List<String> organizations;
+  private final GitHubGraphQl graphQl;
   private final OAuth20Service service;
+  private final IdpClient idp;
 
   @Inject
   GitHubOAuthService(
       PluginConfigFactory cfgFactory,
       @PluginName String pluginName,
-      @CanonicalWebUrl Provider<String> urlProvider) {
+      @CanonicalWebUrl Provider<String> urlProvider,
+      OAuthHttpClient httpClient,
+      IdpClients idpClients) {
     PluginConfig cfg = cfgFactory.getFromGerritConfig(pluginName + CONFIG_SUFFIX);
     String canonicalWebUrl = CharMatcher.is('/').trimTrailingFrom(urlProvider.get()) + "/";
     fixLegacyUserId = cfg.getBoolean(InitOAuth.FIX_LEGACY_USER_ID, false);
     rootUrl =
         CharMatcher.is('/').trimTrailingFrom(cfg.getString(InitOAuth.ROOT_URL, GITHUB_ROOT_URL))
             + "/";
+    organizations = Arrays.asList(cfg.getStringList(ORGANIZATION));
+    graphQl = new GitHubGraphQl(organizations);
 
     service =
         new ServiceBuilder(cfg.getString(InitOAuth.CLIENT_ID))
             .apiSecret(cfg.getString(InitOAuth.CLIENT_SECRET))
+            .httpClient(httpClient)
             .callback(canonicalWebUrl + "oauth")
-            .defaultScope(SCOPE)
+            .defaultScope(organizations.isEmpty() ? SCOPE : SCOPE + " " + ORGANIZATION_SCOPE)
             .build(new GitHub2Api(rootUrl));
+    idp = idpClients.create(CONFIG_SUFFIX, cfg, service);
+    if (!organizations.isEmpty() && !idp.useGraphQlClaims()) {
+      throw new ProvisionException(
+          String.format("%s requires %s = graphql", ORGANIZATION, IdpClient.CLAIMS_SOURCE));
+    }
+    idp.setEndpoints(
+        () -> idp.useGraphQlClaims() ? getGraphQlUrl() : getProtectedResourceUrl(), null);
   }
 
   private String getApiUrl() {
@@ -86,51 +107,119 @@ class GitHubOAuthService implements OAuthServiceProvider {
     return getApiUrl() + "user";
   }
 
+  private String getGraphQlUrl() {
+    return GITHUB_ROOT_URL.equals(rootUrl)
+        ? GITHUB_GRAPHQL_URL
+        : String.format(GHE_GRAPHQL_URL, rootUrl);
+  }
+
   @Override
   public OAuthUserInfo getUserInfo(OAuthToken token) throws IOException {
+    return idp.getUserInfo(token, this::fetchUserInfo);
+  }
+
+  @Override
+  public OAuthUserInfo login(String username, String secret) throws IOException {
+    return idp.loginWithAccessToken(username, secret, this::fetchUserInfo);
+  }
+
+  private OAuthUserInfo fetchUserInfo(OAuthToken token) throws IOException {
+    if (idp.useGraphQlClaims()) {
+      return fetchUserInfoWithGraphQl(token);
+    }
     OAuthRequest request = new OAuthRequest(Verb.GET, getProtectedResourceUrl());
     OAuth2AccessToken t = new OAuth2AccessToken(token.getToken(), token.getRaw());
     service.signRequest(t, request);
 
-    JsonElement userJson = null;
-    try (Response response = service.execute(request)) {
+    try (Response response = idp.execute(request)) {
+      if (response.getCode() == HttpServletResponse.SC_UNAUTHORIZED) {
+        return idp.reject(token, Failure.INVALID_TOKEN);
+      }
       if (response.getCode() != HttpServletResponse.SC_OK) {
         throw new IOException(
             String.format(
                 "Status %s (%s) for request %s",
                 response.getCode(), response.getBody(), request.getUrl()));
       }
-      userJson = JSON.newGson().fromJson(response.getBody(), JsonElement.class);
       if (log.isDebugEnabled()) {
         log.debug("User info response: {}", response.getBody());
       }
-      if (userJson.isJsonObject()) {
-        JsonObject jsonObject = userJson.getAsJsonObject();
-        JsonElement id = jsonObject.get("id");
-        if (id == null || id.isJsonNull()) {
-          throw new IOException("Response doesn't contain id field");
-        }
-        JsonElement email = jsonObject.get("email");
-        JsonElement name = jsonObject.get("name");
-        JsonElement login = jsonObject.get("login");
-        return new OAuthUserInfo(
-            GITHUB_PROVIDER_PREFIX + id.getAsString(),
-            login == null || login.isJsonNull() ? null : login.getAsString(),
-            email == null || email.isJsonNull() ? null : email.getAsString(),
-            name == null || name.isJsonNull() ? null : name.getAsString(),
-            fixLegacyUserId ? id.getAsString() : null);
+      JsonObject jsonObject = JsonFields.parse(response.getBody(), "id", "email", "name", "login");
+      JsonElement id = jsonObject.get("id");
+      if (id == null || id.isJsonNull()) {
+        throw new IdpResponseException(Failure.MISSING_ID, "Response doesn't contain id field");
       }
+      return toUserInfo(
+          id.getAsString(),
+          JsonFields.getString(jsonObject, "login"),
+          JsonFields.getString(jsonObject, "email"),
+          JsonFields.getString(jsonObject, "name"));
     } catch (ExecutionException | InterruptedException e) {
       throw new RuntimeException("Cannot retrieve user info resource", e);
     }
+  }
+
+  /**
+   * Query the user, its primary email and its memberships in the configured organizations and
+   * teams in one GraphQL request. Unlike {@code /user}, the {@code email} of the viewer is the
+   * primary email also if the user keeps it private.
+   */
+  private OAuthUserInfo fetchUserInfoWithGraphQl(OAuthToken token) throws IOException {
+    OAuthRequest request = new OAuthRequest(Verb.POST, getGraphQlUrl());
+    request.addHeader("Content-Type", "application/json");
+    request.setPayload(graphQl.getRequestBody());
+    OAuth2AccessToken t = new OAuth2AccessToken(token.getToken(), token.getRaw());
+    service.signRequest(t, request);
+
+    // A query doesn't change anything, so it is retried and hedged like a GET request.
+    try (Response response = idp.execute(request, true)) {
+      if (response.getCode() == HttpServletResponse.SC_UNAUTHORIZED) {
+        return idp.reject(token, Failure.INVALID_TOKEN);
+      }
+      if (response.getCode() != HttpServletResponse.SC_OK) {
+        throw new IOException(
+            String.format(
+                "Status %s (%s) for request %s",
+                response.getCode(), response.getBody(), request.getUrl()));
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("User info response: {}", response.getBody());
+      }
+      GitHubGraphQl.Result result = graphQl.parse(response.getBody());
+      String id = JsonFields.getString(result.viewer, "databaseId");
+      if (id == null) {
+        throw new IdpResponseException(
+            Failure.MISSING_ID, "Response doesn't contain databaseId field");
+      }
+      if (!organizations.isEmpty()
+          && organizations.stream().noneMatch(result.memberships::contains)) {
+        log.warn(
+            "User {} is not a member of any of {}",
+            JsonFields.getString(result.viewer, "login"),
+            organizations);
+        return idp.reject(token, Failure.ORGANIZATION_MISMATCH);
+      }
+      // The viewer has an empty email if the token lacks the user:email scope.
+      return toUserInfo(
+          id,
+          JsonFields.getString(result.viewer, "login"),
+          Strings.emptyToNull(JsonFields.getString(result.viewer, "email")),
+          JsonFields.getString(result.viewer, "name"));
+    } catch (ExecutionException | InterruptedException e) {
+      throw new RuntimeException("Cannot retrieve user info resource", e);
+    }
+  }
 
-    throw new IOException(String.format("Invalid JSON '%s': not a JSON Object", userJson));
+  private OAuthUserInfo toUserInfo(String id, String login, String email, String name) {
+    // The databaseId of the GraphQL API is the id of the REST API.
+    return new OAuthUserInfo(
+        GITHUB_PROVIDER_PREFIX + id, login, email, name, fixLegacyUserId ? id : null);
   }
 
   @Override
   public OAuthToken getAccessToken(OAuthVerifier rv) {
     try {
-      OAuth2AccessToken accessToken = service.getAccessToken(rv.getValue());
+      OAuth2AccessToken accessToken = idp.getAccessToken(rv.getValue());
       return new OAuthToken(
           accessToken.getAccessToken(), accessToken.getTokenType(), accessToken.getRawResponse());
     } catch (InterruptedException | ExecutionException | IOException e) {
@@ -14,8 +14,8 @@
 
 package com.googlesource.gerrit.plugins.oauth;
 
-import static com.google.gerrit.json.OutputFormat.JSON;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static javax.servlet.http.HttpServletResponse.SC_UNAUTHORIZED;
 import static org.slf4j.LoggerFactory.getLogger;
 
 import com.github.scribejava.core.builder.ServiceBuilder;
@@ -26,6 +26,7 @@ import com.github.scribejava.core.model.Verb;
 import com.github.scribejava.core.oauth.OAuth20Service;
 import com.google.common.base.CharMatcher;
 import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.auth.oauth.OAuthLoginProvider;
 import com.google.gerrit.extensions.auth.oauth.OAuthServiceProvider;
 import com.google.gerrit.extensions.auth.oauth.OAuthToken;
 import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
@@ -38,26 +39,28 @@ import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
-import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.oauth.IdpMetrics.Failure;
 import java.io.IOException;
 import java.net.URI;
 import java.util.concurrent.ExecutionException;
 import org.slf4j.Logger;
 
-@Singleton
-public class GitLabOAuthService implements OAuthServiceProvider {
+public class GitLabOAuthService implements OAuthServiceProvider, OAuthLoginProvider {
   private static final Logger log = getLogger(GitLabOAuthService.class);
   static final String CONFIG_SUFFIX = "-gitlab-oauth";
   private static final String PROTECTED_RESOURCE_URL = "%s/api/v3/user";
   private static final String GITLAB_PROVIDER_PREFIX = "gitlab-oauth:";
   private final OAuth20Service service;
+  private final IdpClient idp;
   private final String rootUrl;
 
   @Inject
   GitLabOAuthService(
       PluginConfigFactory cfgFactory,
       @PluginName String pluginName,
-      @CanonicalWebUrl Provider<String> urlProvider) {
+      @CanonicalWebUrl Provider<String> urlProvider,
+      OAuthHttpClient httpClient,
+      IdpClients idpClients) {
     PluginConfig cfg = cfgFactory.getFromGerritConfig(pluginName + CONFIG_SUFFIX);
     String canonicalWebUrl = CharMatcher.is('/').trimTrailingFrom(urlProvider.get()) + "/";
     rootUrl = cfg.getString(InitOAuth.ROOT_URL);
@@ -67,32 +70,44 @@ public class GitLabOAuthService implements OAuthServiceProvider {
     service =
         new ServiceBuilder(cfg.getString(InitOAuth.CLIENT_ID))
             .apiSecret(cfg.getString(InitOAuth.CLIENT_SECRET))
+            .httpClient(httpClient)
             .callback(canonicalWebUrl + "oauth")
             .build(new GitLabApi(rootUrl));
+    idp = idpClients.create(CONFIG_SUFFIX, cfg, service);
+    idp.setEndpoints(() -> String.format(PROTECTED_RESOURCE_URL, rootUrl), null);
   }
 
   @Override
   public OAuthUserInfo getUserInfo(OAuthToken token) throws IOException {
+    return idp.getUserInfo(token, this::fetchUserInfo);
+  }
+
+  @Override
+  public OAuthUserInfo login(String username, String secret) throws IOException {
+    return idp.loginWithAccessToken(username, secret, this::fetchUserInfo);
+  }
+
+  private OAuthUserInfo fetchUserInfo(OAuthToken token) throws IOException {
     OAuthRequest request =
         new OAuthRequest(Verb.GET, String.format(PROTECTED_RESOURCE_URL, rootUrl));
     OAuth2AccessToken t = new OAuth2AccessToken(token.getToken(), token.getRaw());
     service.signRequest(t, request);
 
-    try (Response response = service.execute(request)) {
+    try (Response response = idp.execute(request)) {
+      if (response.getCode() == SC_UNAUTHORIZED) {
+        return idp.reject(token, Failure.INVALID_TOKEN);
+      }
       if (response.getCode() != SC_OK) {
         throw new IOException(
             String.format(
                 "Status %s (%s) for request %s",
                 response.getCode(), response.getBody(), request.getUrl()));
       }
-      JsonElement userJson = JSON.newGson().fromJson(response.getBody(), JsonElement.class);
       if (log.isDebugEnabled()) {
         log.debug("User info response: {}", response.getBody());
       }
-      JsonObject jsonObject = userJson.getAsJsonObject();
-      if (jsonObject == null || jsonObject.isJsonNull()) {
-        throw new IOException("Response doesn't contain 'user' field" + jsonObject);
-      }
+      JsonObject jsonObject =
+          JsonFields.parse(response.getBody(), "id", "username", "email", "name");
       JsonElement id = jsonObject.get("id");
       JsonElement username = jsonObject.get("username");
       JsonElement email = jsonObject.get("email");
@@ -111,7 +126,7 @@ public class GitLabOAuthService implements OAuthServiceProvider {
   @Override
   public OAuthToken getAccessToken(OAuthVerifier rv) {
     try {
-      OAuth2AccessToken accessToken = service.getAccessToken(rv.getValue());
+      OAuth2AccessToken accessToken = idp.getAccessToken(rv.getValue());
       return new OAuthToken(
           accessToken.getAccessToken(), accessToken.getTokenType(), accessToken.getRawResponse());
     } catch (InterruptedException | ExecutionException | IOException e) {
@@ -17,13 +17,24 @@ package com.googlesource.gerrit.plugins.oauth;
 import com.github.scribejava.core.builder.api.DefaultApi20;
 
 public class Google2Api extends DefaultApi20 {
+  private final String rootUrl;
+
+  public Google2Api() {
+    this(null);
+  }
+
+  /** @param rootUrl URL serving the endpoints instead of the Google hosts, or null */
+  public Google2Api(String rootUrl) {
+    this.rootUrl = rootUrl;
+  }
+
   @Override
   public String getAccessTokenEndpoint() {
-    return "https://www.googleapis.com/oauth2/v4/token";
+    return OAuthConfigUtil.withRootUrl("https://www.googleapis.com/oauth2/v4/token", rootUrl);
   }
 
   @Override
   public String getAuthorizationBaseUrl() {
-    return "https://accounts.google.com/o/oauth2/auth";
+    return OAuthConfigUtil.withRootUrl("https://accounts.google.com/o/oauth2/auth", rootUrl);
   }
 }
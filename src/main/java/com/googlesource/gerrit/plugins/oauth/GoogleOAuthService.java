@@ -14,8 +14,6 @@
 
 package com.googlesource.gerrit.plugins.oauth;
 
-import static com.google.gerrit.json.OutputFormat.JSON;
-
 import com.github.scribejava.core.builder.ServiceBuilder;
 import com.github.scribejava.core.model.OAuth2AccessToken;
 import com.github.scribejava.core.model.OAuthRequest;
@@ -23,8 +21,8 @@ import com.github.scribejava.core.model.Response;
 import com.github.scribejava.core.model.Verb;
 import com.github.scribejava.core.oauth.OAuth20Service;
 import com.google.common.base.CharMatcher;
-import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import com.google.gerrit.extensions.annotations.PluginName;
 import com.google.gerrit.extensions.auth.oauth.OAuthServiceProvider;
 import com.google.gerrit.extensions.auth.oauth.OAuthToken;
@@ -37,28 +35,35 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
-import com.google.inject.Singleton;
+import com.google.inject.ProvisionException;
+import com.googlesource.gerrit.plugins.oauth.IdpMetrics.Failure;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import javax.servlet.http.HttpServletResponse;
-import org.apache.commons.codec.binary.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@Singleton
 class GoogleOAuthService implements OAuthServiceProvider {
   private static final Logger log = LoggerFactory.getLogger(GoogleOAuthService.class);
   static final String CONFIG_SUFFIX = "-google-oauth";
   private static final String GOOGLE_PROVIDER_PREFIX = "google-oauth:";
   private static final String PROTECTED_RESOURCE_URL =
       "https://www.googleapis.com/oauth2/v2/userinfo";
+  private static final String JWKS_URL = "https://www.googleapis.com/oauth2/v3/certs";
+  private static final ImmutableSet<String> ISSUERS =
+      ImmutableSet.of("https://accounts.google.com", "accounts.google.com");
   private static final String SCOPE = "email profile";
   private final OAuth20Service service;
+  private final IdpClient idp;
+  private final String userInfoUrl;
+  private final String jwksUrl;
+  private final ImmutableSet<String> issuers;
   private final String canonicalWebUrl;
   private final List<String> domains;
   private final boolean useEmailAsUsername;
@@ -68,9 +73,15 @@ class GoogleOAuthService implements OAuthServiceProvider {
   GoogleOAuthService(
       PluginConfigFactory cfgFactory,
       @PluginName String pluginName,
-      @CanonicalWebUrl Provider<String> urlProvider) {
+      @CanonicalWebUrl Provider<String> urlProvider,
+      OAuthHttpClient httpClient,
+      IdpClients idpClients) {
     PluginConfig cfg = cfgFactory.getFromGerritConfig(pluginName + CONFIG_SUFFIX);
     this.canonicalWebUrl = CharMatcher.is('/').trimTrailingFrom(urlProvider.get()) + "/";
+    String rootUrl = cfg.getString(InitOAuth.ROOT_URL);
+    if (rootUrl != null && !URI.create(rootUrl).isAbsolute()) {
+      throw new ProvisionException("Root URL must be absolute URL");
+    }
     if (cfg.getBoolean(InitOAuth.LINK_TO_EXISTING_OPENID_ACCOUNT, false)) {
       log.warn(
           String.format(
@@ -82,9 +93,15 @@ class GoogleOAuthService implements OAuthServiceProvider {
     this.service =
         new ServiceBuilder(cfg.getString(InitOAuth.CLIENT_ID))
             .apiSecret(cfg.getString(InitOAuth.CLIENT_SECRET))
+            .httpClient(httpClient)
             .callback(canonicalWebUrl + "oauth")
             .defaultScope(SCOPE)
-            .build(new Google2Api());
+            .build(new Google2Api(rootUrl));
+    this.userInfoUrl = OAuthConfigUtil.withRootUrl(PROTECTED_RESOURCE_URL, rootUrl);
+    this.jwksUrl = OAuthConfigUtil.withRootUrl(JWKS_URL, rootUrl);
+    this.issuers = rootUrl != null ? ImmutableSet.of(rootUrl) : ISSUERS;
+    this.idp = idpClients.create(CONFIG_SUFFIX, cfg, service);
+    this.idp.setEndpoints(() -> userInfoUrl, () -> jwksUrl);
     if (log.isDebugEnabled()) {
       log.debug("OAuth2: canonicalWebUrl={}", canonicalWebUrl);
       log.debug("OAuth2: scope={}", SCOPE);
@@ -95,89 +112,101 @@ class GoogleOAuthService implements OAuthServiceProvider {
 
   @Override
   public OAuthUserInfo getUserInfo(OAuthToken token) throws IOException {
-    OAuthRequest request = new OAuthRequest(Verb.GET, PROTECTED_RESOURCE_URL);
+    return idp.getUserInfo(token, this::fetchUserInfo);
+  }
+
+  private OAuthUserInfo fetchUserInfo(OAuthToken token) throws IOException {
+    if (idp.useIdTokenClaims()) {
+      return userInfoFromIdToken(token);
+    }
+    OAuthRequest request = new OAuthRequest(Verb.GET, userInfoUrl);
     OAuth2AccessToken t = new OAuth2AccessToken(token.getToken(), token.getRaw());
     service.signRequest(t, request);
 
-    JsonElement userJson = null;
-    try (Response response = service.execute(request)) {
+    try (Response response = idp.execute(request)) {
       if (response.getCode() != HttpServletResponse.SC_OK) {
         throw new IOException(
             String.format(
                 "Status %s (%s) for request %s",
                 response.getCode(), response.getBody(), request.getUrl()));
       }
-      userJson = JSON.newGson().fromJson(response.getBody(), JsonElement.class);
       if (log.isDebugEnabled()) {
         log.debug("User info response: {}", response.getBody());
       }
-      if (userJson.isJsonObject()) {
-        JsonObject jsonObject = userJson.getAsJsonObject();
-        JsonElement id = jsonObject.get("id");
-        if (id == null || id.isJsonNull()) {
-          throw new IOException("Response doesn't contain id field");
-        }
-        JsonElement email = jsonObject.get("email");
-        JsonElement name = jsonObject.get("name");
-        String login = null;
-
-        if (domains.size() > 0) {
-          boolean domainMatched = false;
-          JsonObject jwtToken = retrieveJWTToken(token);
-          String hdClaim = retrieveHostedDomain(jwtToken);
-          for (String domain : domains) {
-            if (domain.equalsIgnoreCase(hdClaim)) {
-              domainMatched = true;
-              break;
-            }
-          }
-          if (!domainMatched) {
-            // TODO(davido): improve error reporting in OAuth extension point
-            log.error("Error: hosted domain validation failed: {}", Strings.nullToEmpty(hdClaim));
-            return null;
-          }
+      JsonObject jsonObject = JsonFields.parse(response.getBody(), "id", "email", "name");
+      JsonElement id = jsonObject.get("id");
+      if (id == null || id.isJsonNull()) {
+        throw new IdpResponseException(Failure.MISSING_ID, "Response doesn't contain id field");
+      }
+      JsonElement email = jsonObject.get("email");
+      JsonElement name = jsonObject.get("name");
+      if (domains.size() > 0) {
+        JsonObject jwtToken = retrieveJWTToken(token);
+        if (jwtToken == null) {
+          return idp.reject(token, Failure.INVALID_ID_TOKEN);
         }
-        if (useEmailAsUsername && !email.isJsonNull()) {
-          login = email.getAsString().split("@")[0];
+        if (!isHostedDomainAllowed(retrieveHostedDomain(jwtToken))) {
+          return idp.reject(token, Failure.HOSTED_DOMAIN_MISMATCH);
         }
-        return new OAuthUserInfo(
-            GOOGLE_PROVIDER_PREFIX + id.getAsString() /*externalId*/,
-            login /*username*/,
-            email == null || email.isJsonNull() ? null : email.getAsString() /*email*/,
-            name == null || name.isJsonNull() ? null : name.getAsString() /*displayName*/,
-            fixLegacyUserId ? id.getAsString() : null /*claimedIdentity*/);
       }
+      return toUserInfo(id.getAsString(), email, name);
     } catch (ExecutionException | InterruptedException e) {
       throw new RuntimeException("Cannot retrieve user info resource", e);
     }
+  }
 
-    throw new IOException(String.format("Invalid JSON '%s': not a JSON Object", userJson));
+  private OAuthUserInfo userInfoFromIdToken(OAuthToken token) throws IOException {
+    String idToken = IdpClient.getIdToken(token);
+    if (!idp.verifyIdToken(idToken, jwksUrl, issuers)) {
+      return idp.reject(token, Failure.INVALID_ID_TOKEN);
+    }
+    JsonObject claims = JwtDecoder.decodeClaims(idToken, "sub", "email", "name", "hd");
+    JsonElement sub = claims.get("sub");
+    if (sub == null || sub.isJsonNull()) {
+      throw new IdpResponseException(Failure.MISSING_ID, "id_token doesn't contain sub claim");
+    }
+    if (domains.size() > 0 && !isHostedDomainAllowed(retrieveHostedDomain(claims))) {
+      return idp.reject(token, Failure.HOSTED_DOMAIN_MISMATCH);
+    }
+    // The sub claim of the id token is the id returned by the user info endpoint.
+    return toUserInfo(sub.getAsString(), claims.get("email"), claims.get("name"));
   }
 
-  private JsonObject retrieveJWTToken(OAuthToken token) throws IOException {
-    JsonElement idToken = JSON.newGson().fromJson(token.getRaw(), JsonElement.class);
-    if (idToken != null && idToken.isJsonObject()) {
-      JsonObject idTokenObj = idToken.getAsJsonObject();
-      JsonElement idTokenElement = idTokenObj.get("id_token");
-      if (idTokenElement != null && !idTokenElement.isJsonNull()) {
-        String payload;
-        try {
-          payload = decodePayload(idTokenElement.getAsString());
-        } catch (UnsupportedEncodingException e) {
-          throw new IOException(
-              String.format(
-                  "%s support is required to interact with JWTs", StandardCharsets.UTF_8.name()),
-              e);
-        }
-        if (!Strings.isNullOrEmpty(payload)) {
-          JsonElement tokenJsonElement = JSON.newGson().fromJson(payload, JsonElement.class);
-          if (tokenJsonElement.isJsonObject()) {
-            return tokenJsonElement.getAsJsonObject();
-          }
-        }
+  private OAuthUserInfo toUserInfo(String id, JsonElement email, JsonElement name) {
+    String login = null;
+    if (useEmailAsUsername && email != null && !email.isJsonNull()) {
+      login = email.getAsString().split("@")[0];
+    }
+    return new OAuthUserInfo(
+        GOOGLE_PROVIDER_PREFIX + id /*externalId*/,
+        login /*username*/,
+        email == null || email.isJsonNull() ? null : email.getAsString() /*email*/,
+        name == null || name.isJsonNull() ? null : name.getAsString() /*displayName*/,
+        fixLegacyUserId ? id : null /*claimedIdentity*/);
+  }
+
+  private boolean isHostedDomainAllowed(String hdClaim) {
+    for (String domain : domains) {
+      if (domain.equalsIgnoreCase(hdClaim)) {
+        return true;
       }
     }
-    return null;
+    // TODO(davido): improve error reporting in OAuth extension point
+    log.error("Error: hosted domain validation failed: {}", Strings.nullToEmpty(hdClaim));
+    return false;
+  }
+
+  private JsonObject retrieveJWTToken(OAuthToken token) throws IOException {
+    String jwt;
+    try {
+      jwt = IdpClient.getIdToken(token);
+    } catch (IOException e) {
+      return null;
+    }
+    if (!idp.verifyIdToken(jwt, jwksUrl, issuers)) {
+      return null;
+    }
+    return JwtDecoder.decodeClaims(jwt, "hd");
   }
 
   private static String retrieveHostedDomain(JsonObject jwtToken) {
@@ -191,25 +220,10 @@ class GoogleOAuthService implements OAuthServiceProvider {
     return null;
   }
 
-  /**
-   * Decode payload from JWT according to spec: "header.payload.signature"
-   *
-   * @param idToken Base64 encoded tripple, separated with dot
-   * @return openid_id part of payload, when contained, null otherwise
-   */
-  private static String decodePayload(String idToken) throws UnsupportedEncodingException {
-    Preconditions.checkNotNull(idToken);
-    String[] jwtParts = idToken.split("\\.");
-    Preconditions.checkState(jwtParts.length == 3);
-    String payloadStr = jwtParts[1];
-    Preconditions.checkNotNull(payloadStr);
-    return new String(Base64.decodeBase64(payloadStr), StandardCharsets.UTF_8.name());
-  }
-
   @Override
   public OAuthToken getAccessToken(OAuthVerifier rv) {
     try {
-      OAuth2AccessToken accessToken = service.getAccessToken(rv.getValue());
+      OAuth2AccessToken accessToken = idp.getAccessToken(rv.getValue());
       return new OAuthToken(
           accessToken.getAccessToken(), accessToken.getTokenType(), accessToken.getRawResponse());
     } catch (InterruptedException | ExecutionException | IOException e) {
@@ -235,7 +249,7 @@ class GoogleOAuthService implements OAuthServiceProvider {
     if (log.isDebugEnabled()) {
       log.debug("OAuth2: authorization URL={}", urlBuilder);
     }
-    return urlBuilder.toString();
+    return idp.getAuthorizationUrl(urlBuilder.toString());
   }
 
   @Override
@@ -0,0 +1,112 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.gerrit.server.config.PluginConfig;
+import java.util.Arrays;
+
+/**
+ * When to hedge the user info requests of one provider: send a second request if the first one
+ * hasn't answered within the {@code hedge-percentile} of the latencies of recent requests.
+ *
+ * <p>Each request earns {@code hedge-max-rate} percent of a hedge, and a hedge can only be sent
+ * when a whole one was earned, so that at most that share of the requests is sent twice, also
+ * while the IdP is slow for everyone.
+ */
+class Hedging {
+
+  /** Outcome of a hedging decision, counted in {@code idp/hedges}. */
+  enum Outcome {
+    /** The hedge answered first. */
+    WON,
+    /** The first request answered first, although a hedge was sent. */
+    LOST,
+    /** No hedge was sent because the hedge rate was exceeded. */
+    RATE_LIMITED
+  }
+
+  static final String HEDGE = "hedge";
+  static final String PERCENTILE = "hedge-percentile";
+  static final String MIN_DELAY = "hedge-min-delay";
+  static final String MAX_RATE = "hedge-max-rate";
+
+  private static final int DEFAULT_PERCENTILE = 95;
+  private static final long DEFAULT_MIN_DELAY_MS = 50;
+  private static final int DEFAULT_MAX_RATE = 5;
+  private static final int WINDOW = 128;
+  private static final int MIN_SAMPLES = 20;
+  // Credit is counted in percent of a hedge.
+  private static final int MAX_CREDIT = 1000;
+
+  private final boolean enabled;
+  private final int percentile;
+  private final long minDelayMs;
+  private final int creditPerRequest;
+
+  // Guarded by this.
+  private final long[] latencies = new long[WINDOW];
+  private int samples;
+  private int next;
+  private int credit;
+
+  Hedging(PluginConfig cfg) {
+    this.enabled = cfg.getBoolean(HEDGE, false);
+    this.percentile = Math.min(100, Math.max(1, cfg.getInt(PERCENTILE, DEFAULT_PERCENTILE)));
+    this.minDelayMs =
+        OAuthConfigUtil.getTimeUnit(cfg, MIN_DELAY, DEFAULT_MIN_DELAY_MS, MILLISECONDS);
+    this.creditPerRequest = Math.min(100, Math.max(0, cfg.getInt(MAX_RATE, DEFAULT_MAX_RATE)));
+  }
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Get the delay after which a request should be hedged, and earn the hedge credit of the request.
+   *
+   * @return delay in milliseconds, or -1 if too few latencies were recorded yet
+   */
+  synchronized long delayMs() {
+    credit = Math.min(MAX_CREDIT, credit + creditPerRequest);
+    if (samples < MIN_SAMPLES) {
+      return -1;
+    }
+    long[] sorted = Arrays.copyOf(latencies, samples);
+    Arrays.sort(sorted);
+    int index = Math.min(samples - 1, (samples * percentile + 99) / 100 - 1);
+    return Math.max(minDelayMs, NANOSECONDS.toMillis(sorted[index]));
+  }
+
+  /** Whether a hedge may be sent now, spending its credit if so. */
+  synchronized boolean tryHedge() {
+    if (credit < 100) {
+      return false;
+    }
+    credit -= 100;
+    return true;
+  }
+
+  /** Record the latency of a request that answered. */
+  synchronized void record(long nanos) {
+    latencies[next] = nanos;
+    next = (next + 1) % WINDOW;
+    if (samples < WINDOW) {
+      samples++;
+    }
+  }
+}
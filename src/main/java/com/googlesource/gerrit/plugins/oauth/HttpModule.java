@@ -16,11 +16,17 @@ package com.googlesource.gerrit.plugins.oauth;
 
 import com.google.gerrit.extensions.annotations.Exports;
 import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.auth.oauth.OAuthLoginProvider;
 import com.google.gerrit.extensions.auth.oauth.OAuthServiceProvider;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.httpd.AllRequestFilter;
 import com.google.gerrit.server.config.PluginConfig;
 import com.google.gerrit.server.config.PluginConfigFactory;
 import com.google.inject.Inject;
 import com.google.inject.ProvisionException;
+import com.google.inject.internal.UniqueAnnotations;
+import com.google.inject.multibindings.Multibinder;
 import com.google.inject.servlet.ServletModule;
 
 class HttpModule extends ServletModule {
@@ -36,106 +42,52 @@ class HttpModule extends ServletModule {
 
   @Override
   protected void configureServlets() {
-    PluginConfig cfg =
-        cfgFactory.getFromGerritConfig(pluginName + GoogleOAuthService.CONFIG_SUFFIX);
-    if (cfg.getString(InitOAuth.CLIENT_ID) != null) {
-      bind(OAuthServiceProvider.class)
-          .annotatedWith(Exports.named(GoogleOAuthService.CONFIG_SUFFIX))
-          .to(GoogleOAuthService.class);
-    }
-
-    cfg = cfgFactory.getFromGerritConfig(pluginName + GitHubOAuthService.CONFIG_SUFFIX);
-    if (cfg.getString(InitOAuth.CLIENT_ID) != null) {
-      bind(OAuthServiceProvider.class)
-          .annotatedWith(Exports.named(GitHubOAuthService.CONFIG_SUFFIX))
-          .to(GitHubOAuthService.class);
-    }
-
-    cfg = cfgFactory.getFromGerritConfig(pluginName + BitbucketOAuthService.CONFIG_SUFFIX);
-    if (cfg.getString(InitOAuth.CLIENT_ID) != null) {
-      bind(OAuthServiceProvider.class)
-          .annotatedWith(Exports.named(BitbucketOAuthService.CONFIG_SUFFIX))
-          .to(BitbucketOAuthService.class);
-    }
-
-    cfg = cfgFactory.getFromGerritConfig(pluginName + CasOAuthService.CONFIG_SUFFIX);
-    if (cfg.getString(InitOAuth.CLIENT_ID) != null) {
-      bind(OAuthServiceProvider.class)
-          .annotatedWith(Exports.named(CasOAuthService.CONFIG_SUFFIX))
-          .to(CasOAuthService.class);
-    }
-
-    cfg = cfgFactory.getFromGerritConfig(pluginName + FacebookOAuthService.CONFIG_SUFFIX);
-    if (cfg.getString(InitOAuth.CLIENT_ID) != null) {
-      bind(OAuthServiceProvider.class)
-          .annotatedWith(Exports.named(FacebookOAuthService.CONFIG_SUFFIX))
-          .to(FacebookOAuthService.class);
-    }
-
-    cfg = cfgFactory.getFromGerritConfig(pluginName + GitLabOAuthService.CONFIG_SUFFIX);
-    if (cfg.getString(InitOAuth.CLIENT_ID) != null) {
-      bind(OAuthServiceProvider.class)
-          .annotatedWith(Exports.named(GitLabOAuthService.CONFIG_SUFFIX))
-          .to(GitLabOAuthService.class);
-    }
-
-    cfg = cfgFactory.getFromGerritConfig(pluginName + LemonLDAPOAuthService.CONFIG_SUFFIX);
-    if (cfg.getString(InitOAuth.CLIENT_ID) != null) {
-      bind(OAuthServiceProvider.class)
-          .annotatedWith(Exports.named(LemonLDAPOAuthService.CONFIG_SUFFIX))
-          .to(LemonLDAPOAuthService.class);
-    }
-
-    cfg = cfgFactory.getFromGerritConfig(pluginName + DexOAuthService.CONFIG_SUFFIX);
-    if (cfg.getString(InitOAuth.CLIENT_ID) != null) {
-      bind(OAuthServiceProvider.class)
-          .annotatedWith(Exports.named(DexOAuthService.CONFIG_SUFFIX))
-          .to(DexOAuthService.class);
-    }
-
-    cfg = cfgFactory.getFromGerritConfig(pluginName + KeycloakOAuthService.CONFIG_SUFFIX);
-    if (cfg.getString(InitOAuth.CLIENT_ID) != null) {
-      bind(OAuthServiceProvider.class)
-          .annotatedWith(Exports.named(KeycloakOAuthService.CONFIG_SUFFIX))
-          .to(KeycloakOAuthService.class);
-    }
-
-    boolean office365LegacyProviderBound = false;
-    cfg =
-        cfgFactory.getFromGerritConfig(
-            pluginName + AzureActiveDirectoryService.CONFIG_SUFFIX_LEGACY);
-    if (cfg.getString(InitOAuth.CLIENT_ID) != null) {
-      office365LegacyProviderBound = true;
-      bind(OAuthServiceProvider.class)
-          .annotatedWith(Exports.named(AzureActiveDirectoryService.CONFIG_SUFFIX))
-          .to(AzureActiveDirectoryService.class);
-    }
-    cfg = cfgFactory.getFromGerritConfig(pluginName + AzureActiveDirectoryService.CONFIG_SUFFIX);
-    if (cfg.getString(InitOAuth.CLIENT_ID) != null) {
-      // ?: Check if the legacy Office365 is already bound, we can only have one of these bound at
-      // one time
-      if (office365LegacyProviderBound) {
-        // -> Yes, the legacy Office365 is already bound and we are trying to bind the
-        // AzureActiveDirectoryService.CONFIG_SUFFIX at the same time.
-        throw new ProvisionException("Legacy Office365 OAuth provider is already bound!");
+    Multibinder<LazyOAuthProvider> providers =
+        Multibinder.newSetBinder(binder(), LazyOAuthProvider.class);
+    boolean silentLogin = false;
+    boolean refreshTokens = false;
+    for (ProviderType type : ProviderType.values()) {
+      PluginConfig cfg = cfgFactory.getFromGerritConfig(pluginName + type.getConfigSuffix());
+      boolean configured = cfg.getString(InitOAuth.CLIENT_ID) != null;
+      if (type == ProviderType.AZURE) {
+        PluginConfig legacyCfg =
+            cfgFactory.getFromGerritConfig(
+                pluginName + AzureActiveDirectoryService.CONFIG_SUFFIX_LEGACY);
+        if (legacyCfg.getString(InitOAuth.CLIENT_ID) != null) {
+          // ?: Check if the Azure provider is configured as well, we can only have one of these
+          // bound at one time
+          if (configured) {
+            throw new ProvisionException("Legacy Office365 OAuth provider is already bound!");
+          }
+          configured = true;
+          cfg = legacyCfg;
+        }
       }
+      if (!configured) {
+        continue;
+      }
+      LazyOAuthProvider provider =
+          new LazyOAuthProvider(type.getName(cfg), getProvider(type.getImplementation()));
       bind(OAuthServiceProvider.class)
-          .annotatedWith(Exports.named(AzureActiveDirectoryService.CONFIG_SUFFIX))
-          .to(AzureActiveDirectoryService.class);
+          .annotatedWith(Exports.named(type.getConfigSuffix()))
+          .toInstance(provider);
+      providers.addBinding().toInstance(provider);
+      silentLogin |= cfg.getBoolean(IdpClient.SILENT_LOGIN, false);
+      refreshTokens |= cfg.getBoolean(IdpClient.REFRESH_TOKENS, false);
+      if (type.hasGitLogin(cfg)) {
+        bind(OAuthLoginProvider.class)
+            .annotatedWith(Exports.named(type.getConfigSuffix()))
+            .toInstance(provider);
+      }
     }
-
-    cfg = cfgFactory.getFromGerritConfig(pluginName + AirVantageOAuthService.CONFIG_SUFFIX);
-    if (cfg.getString(InitOAuth.CLIENT_ID) != null) {
-      bind(OAuthServiceProvider.class)
-          .annotatedWith(Exports.named(AirVantageOAuthService.CONFIG_SUFFIX))
-          .to(AirVantageOAuthService.class);
+    bind(LifecycleListener.class)
+        .annotatedWith(UniqueAnnotations.create())
+        .to(ConnectionWarmer.class);
+    if (silentLogin) {
+      DynamicSet.bind(binder(), AllRequestFilter.class).to(SilentLoginFilter.class);
     }
-
-    cfg = cfgFactory.getFromGerritConfig(pluginName + PhabricatorOAuthService.CONFIG_SUFFIX);
-    if (cfg.getString(InitOAuth.CLIENT_ID) != null) {
-      bind(OAuthServiceProvider.class)
-          .annotatedWith(Exports.named(PhabricatorOAuthService.CONFIG_SUFFIX))
-          .to(PhabricatorOAuthService.class);
+    if (refreshTokens) {
+      DynamicSet.bind(binder(), AllRequestFilter.class).to(LogoutFilter.class);
     }
   }
 }
@@ -0,0 +1,995 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.github.scribejava.core.exceptions.OAuthException;
+import com.github.scribejava.core.model.OAuth2AccessToken;
+import com.github.scribejava.core.model.OAuth2AccessTokenErrorResponse;
+import com.github.scribejava.core.model.OAuthRequest;
+import com.github.scribejava.core.model.Response;
+import com.github.scribejava.core.model.Verb;
+import com.github.scribejava.core.oauth.OAuth20Service;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.extensions.auth.oauth.OAuthToken;
+import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.inject.OutOfScopeException;
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+import com.googlesource.gerrit.plugins.oauth.IdpMetrics.Failure;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Outbound calls of one provider to its IdP.
+ *
+ * <p>In {@code blocking} mode (the default) the token exchange and the protected resource calls
+ * use scribejava's synchronous API. In {@code async} mode they are issued through {@code
+ * getAccessTokenAsync} and {@code executeAsync}, complete on the bounded executor of {@link
+ * OAuthHttpClient}, and the calling servlet thread blocks for at most {@code async-timeout} until
+ * the result arrived. The servlet thread is not released, as {@code OAuthServiceProvider} is
+ * synchronous.
+ *
+ * <p>In {@code offload} mode the blocking calls run on the executor of {@link IdpClients}, which
+ * uses virtual threads when the JDK supports them.
+ *
+ * <p>In all modes the number of concurrent calls of a provider is limited by its {@link Bulkhead}.
+ * An offloaded call keeps its slot until the IdP answered, also if the caller stopped waiting.
+ *
+ * <p>A login, from the token exchange to the last user info request, has to finish within {@code
+ * login-timeout}. Each step gets only the time left, see {@link Deadline}.
+ *
+ * <p>All calls go through the {@link CircuitBreaker} of the provider, so that calls to an IdP that
+ * keeps failing or answering slowly fail right away instead of tying up threads.
+ */
+class IdpClient {
+  private static final Logger log = LoggerFactory.getLogger(IdpClient.class);
+
+  public enum CallMode {
+    BLOCKING,
+    ASYNC,
+    OFFLOAD
+  }
+
+  public enum ClaimsSource {
+    USERINFO,
+    ID_TOKEN,
+    GRAPHQL
+  }
+
+  @FunctionalInterface
+  private interface Call<T> {
+    T call() throws InterruptedException, ExecutionException, IOException;
+  }
+
+  static final String CALL_MODE = "call-mode";
+  static final String ASYNC_TIMEOUT = "async-timeout";
+  static final String VERIFY_ID_TOKEN = "verify-id-token";
+  static final String JWKS_URL = "jwks-url";
+  static final String CLAIMS_SOURCE = "claims-source";
+  static final String LOGIN_TIMEOUT = "login-timeout";
+  static final String REFRESH_TOKENS = "refresh-tokens";
+  static final String SILENT_LOGIN = "silent-login";
+  static final String PERSONAL_ACCESS_TOKENS = "personal-access-tokens";
+
+  private static final long DEFAULT_ASYNC_TIMEOUT_MS = 30_000;
+  private static final long DEFAULT_LOGIN_TIMEOUT_MS = 60_000;
+  private static final long CLOCK_SKEW_SECONDS = 60;
+  private static final long PENDING_GRANT_MS = 60_000;
+
+  private final String name;
+  private final OAuth20Service service;
+  private final CallMode mode;
+  private final long asyncTimeoutMs;
+  private final long loginTimeoutMs;
+  // Deadlines of logins that exchanged the code and will ask for the user info next.
+  private final Cache<String, Deadline> pendingLogins;
+  // Token responses with refresh token of logins that will ask for the user info next.
+  private final Cache<String, OAuth2AccessToken> pendingGrants;
+  private final Executor offloadExecutor;
+  private final Bulkhead bulkhead;
+  private final RetryPolicy retryPolicy;
+  private final Hedging hedging;
+  private final UserInfoCache userInfoCache;
+  private final RejectedTokenCache rejectedTokens;
+  private final GitCredentialCache gitCredentials;
+  private final RefreshTokenStore refreshTokens;
+  private final boolean keepRefreshTokens;
+  private final boolean silentLogin;
+  private final Provider<HttpServletRequest> requestProvider;
+  private final Provider<HttpServletResponse> responseProvider;
+  private final JwksCache jwks;
+  private final ClaimsSource claimsSource;
+  private final boolean verifyIdToken;
+  private final String jwksUrl;
+  private final IdpMetrics metrics;
+  private final LongAdder inFlight;
+  private final CircuitBreaker circuitBreaker;
+  private volatile Supplier<String> userInfoEndpoint;
+  private volatile Supplier<String> defaultJwksEndpoint;
+
+  IdpClient(
+      String configSuffix,
+      PluginConfig cfg,
+      OAuth20Service service,
+      Executor offloadExecutor,
+      UserInfoCache userInfoCache,
+      RejectedTokenCache rejectedTokens,
+      GitCredentialCache gitCredentials,
+      RefreshTokenStore refreshTokens,
+      JwksCache jwks,
+      IdpMetrics metrics,
+      Provider<HttpServletRequest> requestProvider,
+      Provider<HttpServletResponse> responseProvider) {
+    this.name = CharMatcher.is('-').trimLeadingFrom(configSuffix);
+    this.service = service;
+    this.mode = cfg.getEnum(CALL_MODE, CallMode.BLOCKING);
+    this.asyncTimeoutMs =
+        OAuthConfigUtil.getTimeUnit(cfg, ASYNC_TIMEOUT, DEFAULT_ASYNC_TIMEOUT_MS, MILLISECONDS);
+    this.loginTimeoutMs =
+        OAuthConfigUtil.getTimeUnit(cfg, LOGIN_TIMEOUT, DEFAULT_LOGIN_TIMEOUT_MS, MILLISECONDS);
+    this.pendingLogins =
+        CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Math.max(1, loginTimeoutMs), MILLISECONDS)
+            .build();
+    this.offloadExecutor = offloadExecutor;
+    this.bulkhead = new Bulkhead(name, cfg);
+    this.retryPolicy = new RetryPolicy(cfg);
+    this.hedging = new Hedging(cfg);
+    this.userInfoCache = userInfoCache;
+    this.rejectedTokens = rejectedTokens;
+    this.gitCredentials = gitCredentials;
+    this.refreshTokens = refreshTokens;
+    this.keepRefreshTokens = cfg.getBoolean(REFRESH_TOKENS, false);
+    this.silentLogin = cfg.getBoolean(SILENT_LOGIN, false);
+    this.requestProvider = requestProvider;
+    this.responseProvider = responseProvider;
+    this.pendingGrants =
+        CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(PENDING_GRANT_MS, MILLISECONDS)
+            .build();
+    this.jwks = jwks;
+    this.claimsSource = cfg.getEnum(CLAIMS_SOURCE, ClaimsSource.USERINFO);
+    // Claims that replace the user info call must be trusted.
+    this.verifyIdToken =
+        cfg.getBoolean(VERIFY_ID_TOKEN, claimsSource == ClaimsSource.ID_TOKEN);
+    this.jwksUrl = cfg.getString(JWKS_URL);
+    this.metrics = metrics;
+    this.inFlight = metrics.inFlight(name);
+    this.circuitBreaker = new CircuitBreaker(name, cfg, System::nanoTime);
+    metrics.circuitBreaker(name, circuitBreaker);
+  }
+
+  String getName() {
+    return name;
+  }
+
+  /**
+   * Set the endpoints, besides the token endpoint, that a login with the provider calls, for
+   * {@link ConnectionWarmer}. They are only looked up by the warm-up, so that discovered endpoints
+   * don't have to be known when the provider is built.
+   *
+   * @param userInfoEndpoint user info endpoint, or null if the provider doesn't call one
+   * @param defaultJwksEndpoint JWKS endpoint of the IdP, or null if it has none
+   */
+  void setEndpoints(Supplier<String> userInfoEndpoint, Supplier<String> defaultJwksEndpoint) {
+    this.userInfoEndpoint = userInfoEndpoint;
+    this.defaultJwksEndpoint = defaultJwksEndpoint;
+  }
+
+  String getTokenEndpoint() {
+    return service.getApi().getAccessTokenEndpoint();
+  }
+
+  /** Get the user info endpoint, or null if logins don't call it. */
+  String getUserInfoEndpoint() {
+    Supplier<String> endpoint = userInfoEndpoint;
+    return claimsSource != ClaimsSource.ID_TOKEN && endpoint != null ? endpoint.get() : null;
+  }
+
+  /** Get the JWKS endpoint, or null if logins don't verify id tokens. */
+  String getJwksEndpoint() {
+    return verifyIdToken ? getKeepAliveEndpoint() : null;
+  }
+
+  /**
+   * Get an endpoint that is safe to poll to keep the connections to the IdP open, or null if the
+   * provider knows none. This is the JWKS endpoint, which is public and meant to be fetched
+   * repeatedly, whether or not logins verify id tokens.
+   */
+  String getKeepAliveEndpoint() {
+    Supplier<String> endpoint = defaultJwksEndpoint;
+    return jwksUrl != null ? jwksUrl : endpoint != null ? endpoint.get() : null;
+  }
+
+  /**
+   * Get the URL to send the browser to for logging in. If the browser has a grant of an earlier
+   * login with {@code refresh-tokens}, its access token is renewed and the browser is sent
+   * straight back to Gerrit, see {@link #getAccessToken}. With {@code silent-login}, the IdP is
+   * asked to log the user in without any interaction ({@code prompt=none}), which takes one hidden
+   * redirect for users with a session at the IdP. After the IdP answered that the user has to
+   * interact, see {@link SilentLoginFilter}, the interactive URL is returned.
+   *
+   * @param url interactive authorization URL
+   * @return authorization URL for the current request
+   */
+  String getAuthorizationUrl(String url) {
+    HttpServletRequest request = current(requestProvider);
+    if (keepRefreshTokens && request != null) {
+      RefreshTokenStore.Grant grant = refreshTokens.get(name, request);
+      if (grant != null && renew(grant)) {
+        String callback = service.getCallback();
+        return callback + (callback.indexOf('?') < 0 ? "?" : "&") + "code=" + grant.getHandle();
+      }
+    }
+    if (!silentLogin || request == null || SilentLoginFilter.isInteractive(request)) {
+      return url;
+    }
+    return url + (url.indexOf('?') < 0 ? "?" : "&") + "prompt=none";
+  }
+
+  private static <T> T current(Provider<T> provider) {
+    try {
+      return provider.get();
+    } catch (OutOfScopeException | ProvisionException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Get the user info for a token from {@link UserInfoCache}, calling {@code loader} on a miss.
+   * Tokens the provider rejected recently are refused without calling {@code loader}.
+   *
+   * @param token access token
+   * @param loader retrieves the user info from the IdP
+   * @return user info, or null if the provider rejected the token
+   * @throws IOException if the user info couldn't be retrieved
+   */
+  OAuthUserInfo getUserInfo(OAuthToken token, UserInfoCache.Loader loader) throws IOException {
+    String rejection = rejectedTokens.getRejection(name, token.getToken());
+    if (rejection != null) {
+      log.debug("{}: token was rejected before: {}", name, rejection);
+      return null;
+    }
+    Deadline deadline = pendingLogins.asMap().remove(UserInfoCache.key(name, token.getToken()));
+    Deadline.set(deadline != null ? deadline : newDeadline());
+    try {
+      OAuthUserInfo userInfo = userInfoCache.get(name, token, t -> load(t, loader));
+      OAuth2AccessToken grant =
+          pendingGrants.asMap().remove(UserInfoCache.key(name, token.getToken()));
+      if (userInfo == null) {
+        rejectedTokens.reject(name, token.getToken(), "no user info");
+        forgetGrant();
+      } else if (grant != null) {
+        keepGrant(grant);
+      }
+      return userInfo;
+    } finally {
+      Deadline.set(null);
+    }
+  }
+
+  private void keepGrant(OAuth2AccessToken grant) {
+    HttpServletRequest request = current(requestProvider);
+    HttpServletResponse response = current(responseProvider);
+    if (request != null && response != null) {
+      refreshTokens.put(name, grant, request, response);
+    }
+  }
+
+  // A browser whose login failed logs in interactively next time.
+  private void forgetGrant() {
+    HttpServletRequest request = keepRefreshTokens ? current(requestProvider) : null;
+    HttpServletResponse response = current(responseProvider);
+    if (request != null && response != null) {
+      refreshTokens.remove(request, response);
+    }
+  }
+
+  private Deadline newDeadline() {
+    return loginTimeoutMs > 0 ? new Deadline(name, loginTimeoutMs) : null;
+  }
+
+  private OAuthUserInfo load(OAuthToken token, UserInfoCache.Loader loader) throws IOException {
+    long start = System.nanoTime();
+    try {
+      return loader.load(token);
+    } catch (IdpResponseException e) {
+      metrics.failure(name, e.getFailure());
+      throw e;
+    } finally {
+      metrics.userInfo(name, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Log in a git client with user name and password, using the password grant of the IdP. Accepted
+   * credentials are kept in {@link GitCredentialCache}, refused ones in {@link RejectedTokenCache},
+   * so that repeated git requests don't call the IdP each time.
+   *
+   * @param username user name
+   * @param password password
+   * @param loader retrieves the user info for the access token of the password grant
+   * @return user info, or null if the IdP refused the credentials
+   * @throws IOException if the credentials couldn't be checked
+   */
+  OAuthUserInfo login(String username, String password, UserInfoCache.Loader loader)
+      throws IOException {
+    return authenticate(
+        username,
+        password,
+        () -> {
+          OAuth2AccessToken accessToken;
+          try {
+            accessToken = getAccessTokenPasswordGrant(username, password);
+          } catch (OAuth2AccessTokenErrorResponse e) {
+            log.debug("{}: password grant for {} failed: {}", name, username, e.getMessage());
+            return null;
+          } catch (OAuthException e) {
+            // Not an answer about the credentials, e.g. the error page of a proxy.
+            throw new IOException("Cannot retrieve access token", e);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while retrieving access token", e);
+          } catch (ExecutionException e) {
+            throw new IOException("Cannot retrieve access token", e);
+          }
+          return load(
+              new OAuthToken(
+                  accessToken.getAccessToken(),
+                  Strings.nullToEmpty(accessToken.getTokenType()),
+                  accessToken.getRawResponse()),
+              loader);
+        });
+  }
+
+  /**
+   * Log in a git client with user name and a personal access token of the IdP sent as password.
+   * The token is accepted if {@code loader} returns user info for it and its user name matches
+   * {@code username}, ignoring case. Results are cached like for {@link #login}.
+   *
+   * @param username user name
+   * @param accessToken personal access token
+   * @param loader retrieves the user info for the access token
+   * @return user info, or null if the IdP refused the token or it belongs to another user
+   * @throws IOException if the token couldn't be checked
+   */
+  OAuthUserInfo loginWithAccessToken(
+      String username, String accessToken, UserInfoCache.Loader loader) throws IOException {
+    return authenticate(
+        username,
+        accessToken,
+        () -> {
+          OAuthUserInfo userInfo = load(new OAuthToken(accessToken, "", "{}"), loader);
+          if (userInfo != null && !username.equalsIgnoreCase(userInfo.getUserName())) {
+            log.warn(
+                "{}: access token of {} was sent for {}", name, userInfo.getUserName(), username);
+            metrics.failure(name, Failure.USERNAME_MISMATCH);
+            return null;
+          }
+          return userInfo;
+        });
+  }
+
+  private OAuthUserInfo authenticate(
+      String username, String secret, GitCredentialCache.Loader loader) throws IOException {
+    String key = gitCredentials.key(name, username, secret);
+    String rejection = rejectedTokens.getRejection(name, key);
+    if (rejection != null) {
+      log.debug("{}: credentials were rejected before: {}", name, rejection);
+      return null;
+    }
+    Deadline.set(newDeadline());
+    try {
+      OAuthUserInfo userInfo = gitCredentials.get(key, loader);
+      if (userInfo == null) {
+        rejectedTokens.reject(name, key, "invalid credentials");
+      }
+      return userInfo;
+    } finally {
+      Deadline.set(null);
+    }
+  }
+
+  /**
+   * Record that the provider rejected a token, so that further logins with it fail fast.
+   *
+   * @param token access token
+   * @param failure why the token was rejected
+   * @return null, for use as return value of a {@link UserInfoCache.Loader}
+   */
+  OAuthUserInfo reject(OAuthToken token, Failure failure) {
+    metrics.failure(name, failure);
+    rejectedTokens.reject(name, token.getToken(), failure.name());
+    return null;
+  }
+
+  /**
+   * Whether the provider should build the user info from the claims of the id token instead of
+   * calling the user info endpoint of the IdP.
+   */
+  boolean useIdTokenClaims() {
+    return claimsSource == ClaimsSource.ID_TOKEN;
+  }
+
+  /** Whether the provider should query the user info from the GraphQL API of the IdP. */
+  boolean useGraphQlClaims() {
+    return claimsSource == ClaimsSource.GRAPHQL;
+  }
+
+  /**
+   * Get the id token from the raw token response.
+   *
+   * @param token access token with the raw token response
+   * @return compact serialized id token
+   * @throws IdpResponseException if the token response doesn't contain an id token
+   */
+  static String getIdToken(OAuthToken token) throws IdpResponseException {
+    String idToken = null;
+    try {
+      idToken = JsonFields.getString(JsonFields.parse(token.getRaw(), "id_token"), "id_token");
+    } catch (IOException e) {
+      // Reported below.
+    }
+    if (idToken == null) {
+      throw new IdpResponseException(
+          Failure.INVALID_ID_TOKEN, "Token response doesn't contain id_token");
+    }
+    return idToken;
+  }
+
+  /**
+   * Check the signature of an id token against the keys of the IdP, its validity period, its
+   * issuer and that it was issued for the client id of the provider, if {@code verify-id-token}
+   * is enabled for the provider.
+   *
+   * @param idToken compact serialized id token
+   * @param defaultJwksUrl JWKS URL of the IdP, used unless {@code jwks-url} is configured
+   * @param issuers accepted values of the {@code iss} claim, compared without trailing slash
+   * @return false if the id token is not valid, true if it is valid or isn't checked
+   * @throws IOException if the id token is malformed or the keys couldn't be retrieved
+   */
+  boolean verifyIdToken(String idToken, String defaultJwksUrl, Collection<String> issuers)
+      throws IOException {
+    if (!verifyIdToken) {
+      return true;
+    }
+    String url = jwksUrl != null ? jwksUrl : defaultJwksUrl;
+    if (url == null) {
+      throw new IOException(String.format("%s: %s is not configured", name, JWKS_URL));
+    }
+    if (!jwks.verify(url, idToken, Deadline.cap(asyncTimeoutMs))) {
+      log.warn("{}: id_token signature is not valid", name);
+      return false;
+    }
+    JsonObject claims = JwtDecoder.decodeClaims(idToken, "exp", "nbf", "iss", "aud", "azp");
+    long now = MILLISECONDS.toSeconds(System.currentTimeMillis());
+    JsonElement exp = claims.get("exp");
+    JsonElement nbf = claims.get("nbf");
+    if (exp != null && exp.getAsLong() + CLOCK_SKEW_SECONDS < now) {
+      log.warn("{}: id_token expired", name);
+      return false;
+    }
+    if (nbf != null && nbf.getAsLong() - CLOCK_SKEW_SECONDS > now) {
+      log.warn("{}: id_token not yet valid", name);
+      return false;
+    }
+    String iss = JsonFields.getString(claims, "iss");
+    if (iss == null || !containsUrl(issuers, iss)) {
+      log.warn("{}: id_token was issued by {}", name, iss);
+      return false;
+    }
+    if (!isIssuedForClient(claims)) {
+      log.warn("{}: id_token was issued for another client", name);
+      return false;
+    }
+    return true;
+  }
+
+  private static boolean containsUrl(Collection<String> urls, String url) {
+    CharMatcher slash = CharMatcher.is('/');
+    for (String u : urls) {
+      if (slash.trimTrailingFrom(u).equals(slash.trimTrailingFrom(url))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // The audience has to contain the client id. With several audiences, the authorized party has to
+  // be the client.
+  private boolean isIssuedForClient(JsonObject claims) {
+    String clientId = service.getApiKey();
+    List<String> audiences = new ArrayList<>();
+    JsonElement aud = claims.get("aud");
+    if (aud != null && aud.isJsonArray()) {
+      for (JsonElement a : aud.getAsJsonArray()) {
+        audiences.add(a.isJsonPrimitive() ? a.getAsString() : null);
+      }
+    } else if (aud != null && aud.isJsonPrimitive()) {
+      audiences.add(aud.getAsString());
+    }
+    if (!audiences.contains(clientId)) {
+      return false;
+    }
+    String azp = JsonFields.getString(claims, "azp");
+    return azp != null ? azp.equals(clientId) : audiences.size() == 1;
+  }
+
+  /**
+   * Exchange an authorization code for an access token. This starts the deadline of the login,
+   * which a following {@link #getUserInfo} with the access token continues. The handle of a grant
+   * that {@link #getAuthorizationUrl} renewed is exchanged for the renewed access token, if the
+   * request comes from the browser of the grant.
+   */
+  OAuth2AccessToken getAccessToken(String code)
+      throws InterruptedException, ExecutionException, IOException {
+    Deadline deadline = newDeadline();
+    Deadline.set(deadline);
+    try {
+      OAuth2AccessToken token = takeRenewed(code);
+      if (token == null) {
+        token = exchange(() -> callGetAccessToken(code));
+        if (keepRefreshTokens && token.getRefreshToken() != null) {
+          pendingGrants.put(UserInfoCache.key(name, token.getAccessToken()), token);
+        }
+      }
+      if (deadline != null) {
+        pendingLogins.put(UserInfoCache.key(name, token.getAccessToken()), deadline);
+      }
+      return token;
+    } finally {
+      Deadline.set(null);
+    }
+  }
+
+  private OAuth2AccessToken takeRenewed(String code) {
+    HttpServletRequest request = keepRefreshTokens ? current(requestProvider) : null;
+    RefreshTokenStore.Grant grant = request != null ? refreshTokens.get(name, request) : null;
+    return grant != null && grant.getHandle().equals(code) ? grant.takeRenewed() : null;
+  }
+
+  /**
+   * Renew the access token of a grant with its refresh token. A grant the IdP refuses to renew is
+   * removed.
+   *
+   * @param grant grant of a web login
+   * @return whether the grant has a renewed access token for the login
+   */
+  private boolean renew(RefreshTokenStore.Grant grant) {
+    OAuth2AccessToken token;
+    Deadline.set(newDeadline());
+    try {
+      token = exchange(() -> limit(() -> service.refreshAccessToken(grant.getRefreshToken())));
+    } catch (OAuth2AccessTokenErrorResponse e) {
+      log.debug("{}: refresh token was refused: {}", name, e.getMessage());
+      refreshTokens.remove(grant);
+      metrics.tokenRenewal(name, RefreshTokenStore.Outcome.REFUSED);
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      metrics.tokenRenewal(name, RefreshTokenStore.Outcome.FAILED);
+      return false;
+    } catch (OAuthException | ExecutionException | IOException e) {
+      log.warn("{}: cannot renew access token: {}", name, e.getMessage());
+      metrics.tokenRenewal(name, RefreshTokenStore.Outcome.FAILED);
+      return false;
+    } finally {
+      Deadline.set(null);
+    }
+    if (useIdTokenClaims() && !hasIdToken(token)) {
+      // The login would have no claims to read.
+      log.debug("{}: renewed access token comes without id_token, dropping refresh token", name);
+      refreshTokens.remove(grant);
+      metrics.tokenRenewal(name, RefreshTokenStore.Outcome.REFUSED);
+      return false;
+    }
+    grant.renewed(token);
+    metrics.tokenRenewal(name, RefreshTokenStore.Outcome.RENEWED);
+    return true;
+  }
+
+  private static boolean hasIdToken(OAuth2AccessToken token) {
+    try {
+      getIdToken(new OAuthToken(token.getAccessToken(), "", token.getRawResponse()));
+      return true;
+    } catch (IdpResponseException e) {
+      return false;
+    }
+  }
+
+  OAuth2AccessToken getAccessTokenPasswordGrant(String username, String password)
+      throws InterruptedException, ExecutionException, IOException {
+    return exchange(() -> callGetAccessTokenPasswordGrant(username, password));
+  }
+
+  private OAuth2AccessToken exchange(Call<OAuth2AccessToken> call)
+      throws InterruptedException, ExecutionException, IOException {
+    acquire();
+    inFlight.increment();
+    long start = System.nanoTime();
+    boolean failed = true;
+    boolean refused = false;
+    try {
+      OAuth2AccessToken token = call.call();
+      failed = false;
+      return token;
+    } catch (OAuthException e) {
+      // Error response of the token endpoint. Only a well-formed OAuth error shows that the IdP
+      // is up, anything else is e.g. the error page of a proxy.
+      failed = !(e instanceof OAuth2AccessTokenErrorResponse);
+      metrics.failure(name, Failure.TOKEN_ERROR);
+      throw e;
+    } catch (Bulkhead.FullException e) {
+      // Counted by acquireSlot. The IdP wasn't called, so there is no outcome to record.
+      refused = true;
+      throw e;
+    } catch (IOException e) {
+      metrics.failure(name, failureOf(e));
+      throw e;
+    } finally {
+      inFlight.decrement();
+      long nanos = System.nanoTime() - start;
+      if (refused) {
+        circuitBreaker.release();
+      } else {
+        circuitBreaker.record(nanos, failed);
+      }
+      metrics.tokenExchange(name, nanos);
+    }
+  }
+
+  /**
+   * Send a protected resource request to the IdP. GET requests are retried on transient failures
+   * according to the {@link RetryPolicy} of the provider, and hedged if {@link Hedging} is enabled.
+   */
+  Response execute(OAuthRequest request)
+      throws InterruptedException, ExecutionException, IOException {
+    return execute(request, request.getVerb() == Verb.GET);
+  }
+
+  /**
+   * Send a protected resource request to the IdP, like {@link #execute(OAuthRequest)}.
+   *
+   * @param request the request
+   * @param idempotent whether the request can be retried and hedged, like a GraphQL query that is
+   *     sent with POST
+   */
+  Response execute(OAuthRequest request, boolean idempotent)
+      throws InterruptedException, ExecutionException, IOException {
+    if (!idempotent) {
+      return executeOnce(request, false);
+    }
+    if (hedging.isEnabled()) {
+      return retryPolicy.execute(() -> executeHedged(request));
+    }
+    return retryPolicy.execute(() -> executeOnce(request, false));
+  }
+
+  /**
+   * Send a request, and a second one if the first hasn't answered within the hedge delay. The
+   * first response is returned, the other one is closed when it arrives. Both run on the offload
+   * executor. The hedge delay is capped by the time left to the {@link Deadline} of the login.
+   */
+  private Response executeHedged(OAuthRequest request)
+      throws InterruptedException, ExecutionException, IOException {
+    long delayMs = hedging.delayMs();
+    if (delayMs < 0) {
+      return timedExecuteOnce(request, false);
+    }
+    delayMs = Deadline.cap(delayMs);
+    CompletableFuture<Response> primary = executeAsyncOnce(request);
+    try {
+      primary.get(delayMs, MILLISECONDS);
+      return await(primary);
+    } catch (ExecutionException e) {
+      return await(primary);
+    } catch (TimeoutException e) {
+      // Hedge below.
+    }
+    Deadline deadline = Deadline.current();
+    if (deadline != null && deadline.remainingMs() <= 0) {
+      // A hedge couldn't answer in time either.
+      return await(primary);
+    }
+    if (!hedging.tryHedge()) {
+      metrics.hedge(name, Hedging.Outcome.RATE_LIMITED);
+      return await(primary);
+    }
+    log.debug("{}: no response within {} ms, hedging request", name, delayMs);
+    CompletableFuture<Response> hedge = executeAsyncOnce(request);
+    CompletableFuture<Response> first = new CompletableFuture<>();
+    AtomicInteger failed = new AtomicInteger();
+    primary.whenComplete((r, t) -> completeHedged(first, r, t, failed, Hedging.Outcome.LOST));
+    hedge.whenComplete((r, t) -> completeHedged(first, r, t, failed, Hedging.Outcome.WON));
+    return await(first);
+  }
+
+  private void completeHedged(
+      CompletableFuture<Response> first,
+      Response response,
+      Throwable t,
+      AtomicInteger failed,
+      Hedging.Outcome outcome) {
+    if (t != null) {
+      // Fail only if neither request answered.
+      if (failed.incrementAndGet() == 2) {
+        first.completeExceptionally(t);
+      }
+    } else if (first.complete(response)) {
+      metrics.hedge(name, outcome);
+    } else {
+      try {
+        response.close();
+      } catch (IOException e) {
+        log.debug("{}: cannot close response of hedged request", name, e);
+      }
+    }
+  }
+
+  private CompletableFuture<Response> executeAsyncOnce(OAuthRequest request) {
+    Deadline deadline = Deadline.current();
+    try {
+      return CompletableFuture.supplyAsync(
+          () -> {
+            Deadline.set(deadline);
+            try {
+              return timedExecuteOnce(request, true);
+            } catch (InterruptedException | ExecutionException | IOException e) {
+              throw new CompletionException(e);
+            } finally {
+              Deadline.set(null);
+            }
+          },
+          offloadExecutor);
+    } catch (RejectedExecutionException e) {
+      return CompletableFuture.failedFuture(
+          new IOException(String.format("%s: cannot offload call to IdP", name), e));
+    }
+  }
+
+  private Response timedExecuteOnce(OAuthRequest request, boolean offloaded)
+      throws InterruptedException, ExecutionException, IOException {
+    long start = System.nanoTime();
+    Response response = executeOnce(request, offloaded);
+    hedging.record(System.nanoTime() - start);
+    return response;
+  }
+
+  /**
+   * Send a request once.
+   *
+   * @param request the request
+   * @param offloaded whether the current thread already runs on the offload executor, so that the
+   *     blocking call is made right here also in {@code offload} mode
+   */
+  private Response executeOnce(OAuthRequest request, boolean offloaded)
+      throws InterruptedException, ExecutionException, IOException {
+    acquire();
+    inFlight.increment();
+    long start = System.nanoTime();
+    boolean failed = true;
+    boolean refused = false;
+    try {
+      Response response = callExecute(request, offloaded);
+      metrics.response(name, response.getCode());
+      failed = response.getCode() >= 500;
+      return response;
+    } catch (Bulkhead.FullException e) {
+      // Counted by acquireSlot. The IdP wasn't called, so there is no outcome to record.
+      refused = true;
+      throw e;
+    } catch (IOException e) {
+      metrics.failure(name, failureOf(e));
+      throw e;
+    } finally {
+      inFlight.decrement();
+      if (refused) {
+        circuitBreaker.release();
+      } else {
+        circuitBreaker.record(System.nanoTime() - start, failed);
+      }
+    }
+  }
+
+  private void acquire() throws IOException {
+    try {
+      Deadline.check();
+    } catch (Deadline.ExceededException e) {
+      metrics.failure(name, Failure.DEADLINE_EXCEEDED);
+      throw e;
+    }
+    try {
+      circuitBreaker.acquire();
+    } catch (CircuitBreaker.OpenException e) {
+      metrics.failure(name, Failure.CIRCUIT_OPEN);
+      throw e;
+    }
+  }
+
+  private void acquireSlot() throws InterruptedException, Bulkhead.FullException {
+    long start = System.nanoTime();
+    try {
+      bulkhead.acquire();
+    } catch (Bulkhead.FullException e) {
+      metrics.failure(name, Failure.BULKHEAD_FULL);
+      throw e;
+    } finally {
+      metrics.queueTime(name, System.nanoTime() - start);
+    }
+  }
+
+  private static Failure failureOf(IOException e) {
+    return e instanceof SocketTimeoutException
+            || e instanceof HttpTimeoutException
+            || e.getCause() instanceof TimeoutException
+        ? Failure.TIMEOUT
+        : Failure.IO_ERROR;
+  }
+
+  private OAuth2AccessToken callGetAccessToken(String code)
+      throws InterruptedException, ExecutionException, IOException {
+    switch (mode) {
+      case ASYNC:
+        return limit(() -> await(getAccessTokenAsync(code)));
+      case OFFLOAD:
+        return offload(() -> service.getAccessToken(code));
+      case BLOCKING:
+      default:
+        return limit(() -> service.getAccessToken(code));
+    }
+  }
+
+  private OAuth2AccessToken callGetAccessTokenPasswordGrant(String username, String password)
+      throws InterruptedException, ExecutionException, IOException {
+    switch (mode) {
+      case ASYNC:
+        return limit(
+            () ->
+                await(
+                    toCompletableFuture(
+                        service.getAccessTokenPasswordGrantAsync(username, password))));
+      case OFFLOAD:
+        return offload(() -> service.getAccessTokenPasswordGrant(username, password));
+      case BLOCKING:
+      default:
+        return limit(() -> service.getAccessTokenPasswordGrant(username, password));
+    }
+  }
+
+  private Response callExecute(OAuthRequest request, boolean offloaded)
+      throws InterruptedException, ExecutionException, IOException {
+    switch (mode) {
+      case ASYNC:
+        return limit(() -> await(executeAsync(request)));
+      case OFFLOAD:
+        if (offloaded) {
+          return limit(() -> service.execute(request));
+        }
+        return offload(() -> service.execute(request));
+      case BLOCKING:
+      default:
+        return limit(() -> service.execute(request));
+    }
+  }
+
+  CompletableFuture<OAuth2AccessToken> getAccessTokenAsync(String code) {
+    return toCompletableFuture(service.getAccessTokenAsync(code));
+  }
+
+  CompletableFuture<Response> executeAsync(OAuthRequest request) {
+    return toCompletableFuture(service.executeAsync(request));
+  }
+
+  private <T> T limit(Call<T> call) throws InterruptedException, ExecutionException, IOException {
+    acquireSlot();
+    try {
+      return call.call();
+    } finally {
+      bulkhead.release();
+    }
+  }
+
+  private <T> T offload(Call<T> call)
+      throws InterruptedException, ExecutionException, IOException {
+    acquireSlot();
+    Deadline deadline = Deadline.current();
+    CompletableFuture<T> future;
+    try {
+      future =
+          CompletableFuture.supplyAsync(
+              () -> {
+                Deadline.set(deadline);
+                try {
+                  return call.call();
+                } catch (InterruptedException | ExecutionException | IOException e) {
+                  throw new CompletionException(e);
+                } finally {
+                  Deadline.set(null);
+                  bulkhead.release();
+                }
+              },
+              offloadExecutor);
+    } catch (RejectedExecutionException e) {
+      bulkhead.release();
+      throw new IOException(String.format("%s: cannot offload call to IdP", name), e);
+    }
+    return await(future);
+  }
+
+  private <T> T await(CompletableFuture<T> future)
+      throws InterruptedException, ExecutionException, IOException {
+    long timeoutMs = Deadline.cap(asyncTimeoutMs);
+    try {
+      return future.get(timeoutMs, MILLISECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      throw new IOException(
+          String.format("%s: no response from IdP within %d ms", name, timeoutMs), e);
+    } catch (ExecutionException e) {
+      // Surface the same exceptions as the blocking API does.
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private static <T> CompletableFuture<T> toCompletableFuture(Future<T> future) {
+    if (future instanceof CompletableFuture) {
+      return (CompletableFuture<T>) future;
+    }
+    // Only OAuthHttpClient hands out CompletableFutures, other clients complete eagerly.
+    CompletableFuture<T> result = new CompletableFuture<>();
+    try {
+      result.complete(future.get());
+    } catch (ExecutionException e) {
+      result.completeExceptionally(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+}
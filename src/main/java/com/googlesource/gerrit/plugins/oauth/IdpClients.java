@@ -0,0 +1,118 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.googlesource.gerrit.plugins.oauth;
+
+import com.github.scribejava.core.oauth.OAuth20Service;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Creates the {@link IdpClient} through which a provider talks to its IdP. */
+@Singleton
+class IdpClients {
+  private static final Logger log = LoggerFactory.getLogger(IdpClients.class);
+
+  private final ExecutorService offloadExecutor = newOffloadExecutor();
+  private final UserInfoCache userInfoCache;
+  private final RejectedTokenCache rejectedTokens;
+  private final GitCredentialCache gitCredentials;
+  private final RefreshTokenStore refreshTokens;
+  private final JwksCache jwks;
+  private final IdpMetrics metrics;
+  private final Provider<HttpServletRequest> requestProvider;
+  private final Provider<HttpServletResponse> responseProvider;
+  private final Map<String, IdpClient> clients = new ConcurrentHashMap<>();
+
+  @Inject
+  IdpClients(
+      UserInfoCache userInfoCache,
+      RejectedTokenCache rejectedTokens,
+      GitCredentialCache gitCredentials,
+      RefreshTokenStore refreshTokens,
+      JwksCache jwks,
+      IdpMetrics metrics,
+      Provider<HttpServletRequest> requestProvider,
+      Provider<HttpServletResponse> responseProvider) {
+    this.userInfoCache = userInfoCache;
+    this.rejectedTokens = rejectedTokens;
+    this.gitCredentials = gitCredentials;
+    this.refreshTokens = refreshTokens;
+    this.jwks = jwks;
+    this.metrics = metrics;
+    this.requestProvider = requestProvider;
+    this.responseProvider = responseProvider;
+  }
+
+  /**
+   * Create the client for one provider.
+   *
+   * @param configSuffix config suffix of the provider, e.g. {@code -google-oauth}
+   * @param cfg provider config section
+   * @param service scribejava service of the provider
+   * @return client wrapping {@code service}
+   */
+  IdpClient create(String configSuffix, PluginConfig cfg, OAuth20Service service) {
+    IdpClient client =
+        new IdpClient(
+            configSuffix,
+            cfg,
+            service,
+            offloadExecutor,
+            userInfoCache,
+            rejectedTokens,
+            gitCredentials,
+            refreshTokens,
+            jwks,
+            metrics,
+            requestProvider,
+            responseProvider);
+    clients.put(client.getName(), client);
+    return client;
+  }
+
+  /** Get the clients of the providers built so far. */
+  Collection<IdpClient> getClients() {
+    return clients.values();
+  }
+
+  /**
+   * Executor for blocking IdP calls of providers in {@code offload} mode: one virtual thread per
+   * task when the JDK supports it, a cached pool of platform threads otherwise. The number of tasks
+   * is bounded per provider by {@link IdpClient}.
+   */
+  private static ExecutorService newOffloadExecutor() {
+    try {
+      ExecutorService executor =
+          (ExecutorService)
+              Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      log.info("OAuth2: offloading blocking IdP calls to virtual threads");
+      return executor;
+    } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+      log.info("OAuth2: virtual threads not available, offloading IdP calls to platform threads");
+      return Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setNameFormat("OAuth-IdP-%d").setDaemon(true).build());
+    }
+  }
+}
@@ -0,0 +1,255 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.gerrit.metrics.CallbackMetric1;
+import com.google.gerrit.metrics.Counter2;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Metrics of the calls of the providers to their IdPs, with the provider, e.g. {@code
+ * google-oauth}, as field.
+ *
+ * <p>The in-flight counts are kept in {@link LongAdder}s, which threads update without contending
+ * on a shared value, and are only summed when the metrics are read.
+ */
+@Singleton
+class IdpMetrics {
+
+  /** Reasons why a login failed, counted in {@code idp/failures}. */
+  enum Failure {
+    /** The response of the IdP is not a JSON object. */
+    INVALID_JSON,
+    /** The user info doesn't contain the id of the user. */
+    MISSING_ID,
+    /** The user info doesn't contain another required field. */
+    MISSING_FIELD,
+    /** The id token is missing, expired or its signature doesn't match. */
+    INVALID_ID_TOKEN,
+    /** Google: the {@code hd} claim doesn't match a configured domain. */
+    HOSTED_DOMAIN_MISMATCH,
+    /** GitHub: the user isn't a member of a configured organization or team. */
+    ORGANIZATION_MISMATCH,
+    /** Azure: the token was issued by another tenant. */
+    TENANT_MISMATCH,
+    /** Azure: the id token was issued for another client. */
+    AUDIENCE_MISMATCH,
+    /** The IdP refused the access token. */
+    INVALID_TOKEN,
+    /** Git over HTTP: the access token belongs to another user. */
+    USERNAME_MISMATCH,
+    /** The IdP refused to exchange the authorization code. */
+    TOKEN_ERROR,
+    /** The IdP didn't answer in time. */
+    TIMEOUT,
+    /** The IdP couldn't be reached. */
+    IO_ERROR,
+    /** The IdP wasn't called because its circuit breaker is open. */
+    CIRCUIT_OPEN,
+    /** The IdP wasn't called because too many calls to it were in progress or waiting. */
+    BULKHEAD_FULL,
+    /** The login took longer than its {@code login-timeout}. */
+    DEADLINE_EXCEEDED
+  }
+
+  private final Timer1<String> tokenLatency;
+  private final Timer1<String> userInfoLatency;
+  private final Timer1<String> queueTime;
+  private final Counter2<String, Integer> responses;
+  private final Counter2<String, Failure> failures;
+  private final Counter2<String, Hedging.Outcome> hedges;
+  private final Counter2<String, RefreshTokenStore.Outcome> tokenRenewals;
+  private final Counter2<String, Integer> keepAlives;
+  private final CallbackMetric1<String, Long> inFlightMetric;
+  private final ConcurrentMap<String, LongAdder> inFlight = new ConcurrentHashMap<>();
+  private final CallbackMetric1<String, Integer> circuitBreakerStateMetric;
+  private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+  private final CallbackMetric1<String, Boolean> warmMetric;
+  private final ConcurrentMap<String, BooleanSupplier> warm = new ConcurrentHashMap<>();
+
+  @Inject
+  IdpMetrics(MetricMaker metricMaker) {
+    Field<String> provider =
+        Field.ofString("provider", (metadataBuilder, fieldValue) -> {})
+            .description("Provider, e.g. google-oauth")
+            .build();
+    tokenLatency =
+        metricMaker.newTimer(
+            "idp/token_latency",
+            new Description("Time to exchange the authorization code for an access token")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            provider);
+    userInfoLatency =
+        metricMaker.newTimer(
+            "idp/userinfo_latency",
+            new Description("Time to retrieve the user info of a login that is not cached")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            provider);
+    queueTime =
+        metricMaker.newTimer(
+            "idp/queue_time",
+            new Description("Time a call waited for a free slot of the provider")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            provider);
+    responses =
+        metricMaker.newCounter(
+            "idp/responses",
+            new Description("Responses of the IdP to protected resource requests by HTTP status")
+                .setRate(),
+            provider,
+            Field.ofInteger("status", Metadata.Builder::httpStatus)
+                .description("HTTP status code")
+                .build());
+    failures =
+        metricMaker.newCounter(
+            "idp/failures",
+            new Description("Failed logins by failure class").setRate(),
+            provider,
+            Field.ofEnum(Failure.class, "failure", (metadataBuilder, fieldValue) -> {})
+                .description("Failure class")
+                .build());
+    hedges =
+        metricMaker.newCounter(
+            "idp/hedges",
+            new Description("Hedged user info requests by outcome").setRate(),
+            provider,
+            Field.ofEnum(Hedging.Outcome.class, "outcome", (metadataBuilder, fieldValue) -> {})
+                .description("Whether the hedge won, lost or was not sent")
+                .build());
+    tokenRenewals =
+        metricMaker.newCounter(
+            "idp/token_renewals",
+            new Description("Renewals of access tokens by outcome").setRate(),
+            provider,
+            Field.ofEnum(
+                    RefreshTokenStore.Outcome.class, "outcome", (metadataBuilder, fieldValue) -> {})
+                .description("Whether the token was renewed, refused or couldn't be renewed")
+                .build());
+    keepAlives =
+        metricMaker.newCounter(
+            "idp/keep_alives",
+            new Description("Keep-alive requests to the IdP by HTTP status, 0 if it didn't answer")
+                .setRate(),
+            provider,
+            Field.ofInteger("status", Metadata.Builder::httpStatus)
+                .description("HTTP status code")
+                .build());
+    inFlightMetric =
+        metricMaker.newCallbackMetric(
+            "idp/in_flight",
+            Long.class,
+            new Description("Calls to the IdP that are in progress").setGauge(),
+            provider);
+    metricMaker.newTrigger(
+        inFlightMetric,
+        () -> {
+          inFlight.forEach((name, count) -> inFlightMetric.set(name, count.sum()));
+          inFlightMetric.prune();
+        });
+    circuitBreakerStateMetric =
+        metricMaker.newCallbackMetric(
+            "idp/circuit_breaker_state",
+            Integer.class,
+            new Description("State of the circuit breaker: 0 closed, 1 open, 2 half-open")
+                .setGauge(),
+            provider);
+    metricMaker.newTrigger(
+        circuitBreakerStateMetric,
+        () -> {
+          circuitBreakers.forEach(
+              (name, breaker) -> circuitBreakerStateMetric.set(name, breaker.getState().ordinal()));
+          circuitBreakerStateMetric.prune();
+        });
+    warmMetric =
+        metricMaker.newCallbackMetric(
+            "idp/warm",
+            Boolean.class,
+            new Description("Whether the last warm-up reached all endpoints of the provider")
+                .setGauge(),
+            provider);
+    metricMaker.newTrigger(
+        warmMetric,
+        () -> {
+          warm.forEach((name, isWarm) -> warmMetric.set(name, isWarm.getAsBoolean()));
+          warmMetric.prune();
+        });
+  }
+
+  /**
+   * Get the counter of calls in progress of a provider, to be incremented when a call starts and
+   * decremented when it ends.
+   */
+  LongAdder inFlight(String provider) {
+    return inFlight.computeIfAbsent(provider, p -> new LongAdder());
+  }
+
+  /** Report the state of the circuit breaker of a provider. */
+  void circuitBreaker(String provider, CircuitBreaker breaker) {
+    circuitBreakers.put(provider, breaker);
+  }
+
+  /** Report whether the connections of a provider are warmed up. */
+  void warm(String provider, BooleanSupplier isWarm) {
+    warm.put(provider, isWarm);
+  }
+
+  void tokenExchange(String provider, long nanos) {
+    tokenLatency.record(provider, nanos, NANOSECONDS);
+  }
+
+  void userInfo(String provider, long nanos) {
+    userInfoLatency.record(provider, nanos, NANOSECONDS);
+  }
+
+  void queueTime(String provider, long nanos) {
+    queueTime.record(provider, nanos, NANOSECONDS);
+  }
+
+  void response(String provider, int status) {
+    responses.increment(provider, status);
+  }
+
+  void failure(String provider, Failure failure) {
+    failures.increment(provider, failure);
+  }
+
+  void hedge(String provider, Hedging.Outcome outcome) {
+    hedges.increment(provider, outcome);
+  }
+
+  void tokenRenewal(String provider, RefreshTokenStore.Outcome outcome) {
+    tokenRenewals.increment(provider, outcome);
+  }
+
+  void keepAlive(String provider, int status) {
+    keepAlives.increment(provider, status);
+  }
+}
@@ -0,0 +1,38 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import java.io.IOException;
+
+/** A response of the IdP from which no user info can be built. */
+class IdpResponseException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  private final IdpMetrics.Failure failure;
+
+  IdpResponseException(IdpMetrics.Failure failure, String message) {
+    super(message);
+    this.failure = failure;
+  }
+
+  IdpResponseException(IdpMetrics.Failure failure, String message, Throwable cause) {
+    super(message, cause);
+    this.failure = failure;
+  }
+
+  IdpMetrics.Failure getFailure() {
+    return failure;
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.googlesource.gerrit.plugins.oauth.IdpMetrics.Failure.INVALID_JSON;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.internal.Streams;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * Reads selected fields of a JSON object, like the few fields of a user info response that are
+ * mapped to {@code OAuthUserInfo}.
+ *
+ * <p>The input is read with a streaming reader. Only the values of the requested top-level fields
+ * are turned into {@link com.google.gson.JsonElement}s, all other values are skipped. This avoids
+ * building a tree of the whole response and, unlike {@code OutputFormat.JSON.newGson()}, doesn't
+ * set up a new {@code Gson} instance per call. The methods keep no state and can be used from any
+ * thread.
+ */
+final class JsonFields {
+
+  /**
+   * Read fields from a JSON object.
+   *
+   * @param json JSON object
+   * @param names names of the top-level fields to extract
+   * @return object with those of the requested fields that are present
+   * @throws IdpResponseException if {@code json} is not a JSON object
+   */
+  static JsonObject parse(String json, String... names) throws IOException {
+    if (json == null) {
+      throw new IdpResponseException(INVALID_JSON, "Invalid JSON 'null': not a JSON Object");
+    }
+    try {
+      return parse(new StringReader(json), names);
+    } catch (IOException e) {
+      throw new IdpResponseException(
+          INVALID_JSON, String.format("Invalid JSON '%s': %s", json, e.getMessage()), e);
+    }
+  }
+
+  /**
+   * Read fields from a JSON object.
+   *
+   * @param json reader positioned at the start of a JSON object, closed when done
+   * @param names names of the top-level fields to extract
+   * @return object with those of the requested fields that are present
+   * @throws IdpResponseException if the input is not a JSON object
+   * @throws IOException if the input can't be read
+   */
+  static JsonObject parse(Reader json, String... names) throws IOException {
+    JsonObject result = new JsonObject();
+    try (JsonReader reader = new JsonReader(json)) {
+      if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+        throw new IdpResponseException(INVALID_JSON, "not a JSON Object");
+      }
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (contains(names, name)) {
+          result.add(name, Streams.parse(reader));
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+    } catch (MalformedJsonException | EOFException | JsonParseException | IllegalStateException e) {
+      throw new IdpResponseException(INVALID_JSON, "malformed JSON", e);
+    }
+    return result;
+  }
+
+  /**
+   * Get a field of a JSON object as string.
+   *
+   * @param object JSON object
+   * @param name name of the field
+   * @return value of the field, or null if it is absent, null or not a primitive
+   */
+  static String getString(JsonObject object, String name) {
+    JsonElement e = object.get(name);
+    return e != null && e.isJsonPrimitive() ? e.getAsString() : null;
+  }
+
+  private static boolean contains(String[] names, String name) {
+    for (String n : names) {
+      if (n.equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private JsonFields() {}
+}
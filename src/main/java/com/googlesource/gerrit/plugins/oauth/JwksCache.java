@@ -0,0 +1,310 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.github.scribejava.core.model.Response;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Public keys of the IdPs, fetched from their JSON Web Key Set (JWKS) endpoints, for checking
+ * the signature of id tokens locally.
+ *
+ * <p>A key set is fetched once per JWKS URL and kept by key id. Once it is older than {@code
+ * jwks-refresh-interval} it is refetched in the background while lookups keep using the current
+ * keys. A token signed with an unknown key id, e.g. after the IdP rotated its keys, triggers an
+ * immediate refetch, but not more often than {@code jwks-min-refetch-interval}, so that tokens
+ * with bogus key ids can't flood the IdP. Concurrent refetches of the same key set share one
+ * request.
+ */
+@Singleton
+class JwksCache {
+  private static final Logger log = LoggerFactory.getLogger(JwksCache.class);
+
+  static final String REFRESH_INTERVAL = "jwks-refresh-interval";
+  static final String MIN_REFETCH_INTERVAL = "jwks-min-refetch-interval";
+
+  private static final long DEFAULT_REFRESH_INTERVAL_MS = 3_600_000;
+  private static final long DEFAULT_MIN_REFETCH_INTERVAL_MS = 60_000;
+
+  private static final ImmutableMap<String, String> ACCEPT_JSON =
+      ImmutableMap.of("Accept", "application/json");
+
+  /** JWS algorithms and the matching JCA signature algorithms. */
+  private static final ImmutableMap<String, String> ALGORITHMS =
+      ImmutableMap.<String, String>builder()
+          .put("RS256", "SHA256withRSA")
+          .put("RS384", "SHA384withRSA")
+          .put("RS512", "SHA512withRSA")
+          .put("ES256", "SHA256withECDSAinP1363Format")
+          .put("ES384", "SHA384withECDSAinP1363Format")
+          .put("ES512", "SHA512withECDSAinP1363Format")
+          .build();
+
+  private static final ImmutableMap<String, String> CURVES =
+      ImmutableMap.of("P-256", "secp256r1", "P-384", "secp384r1", "P-521", "secp521r1");
+
+  @FunctionalInterface
+  interface Fetcher {
+    CompletableFuture<Response> fetch(String url);
+  }
+
+  private static class KeySet {
+    final ImmutableMap<String, PublicKey> keys;
+    final long fetchedAt;
+
+    KeySet(ImmutableMap<String, PublicKey> keys, long fetchedAt) {
+      this.keys = keys;
+      this.fetchedAt = fetchedAt;
+    }
+  }
+
+  private final Fetcher fetcher;
+  private final long refreshIntervalMs;
+  private final long minRefetchIntervalMs;
+  private final ConcurrentMap<String, KeySet> keySets = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, CompletableFuture<KeySet>> fetches =
+      new ConcurrentHashMap<>();
+
+  @Inject
+  JwksCache(
+      OAuthHttpClient httpClient, PluginConfigFactory cfgFactory, @PluginName String pluginName) {
+    this(httpClient, cfgFactory.getFromGerritConfig(pluginName));
+  }
+
+  private JwksCache(OAuthHttpClient httpClient, PluginConfig cfg) {
+    this(fetcher(httpClient, new RetryPolicy(cfg)), cfg);
+  }
+
+  private static Fetcher fetcher(OAuthHttpClient httpClient, RetryPolicy retryPolicy) {
+    return url -> retryPolicy.executeAsync(() -> httpClient.getAsync(url, ACCEPT_JSON));
+  }
+
+  @VisibleForTesting
+  JwksCache(Fetcher fetcher, PluginConfig cfg) {
+    this.fetcher = fetcher;
+    this.refreshIntervalMs =
+        OAuthConfigUtil.getTimeUnit(
+            cfg, REFRESH_INTERVAL, DEFAULT_REFRESH_INTERVAL_MS, MILLISECONDS);
+    this.minRefetchIntervalMs =
+        OAuthConfigUtil.getTimeUnit(
+            cfg, MIN_REFETCH_INTERVAL, DEFAULT_MIN_REFETCH_INTERVAL_MS, MILLISECONDS);
+  }
+
+  /**
+   * Check the signature of a JWT against the keys published at a JWKS URL.
+   *
+   * @param jwksUrl URL of the key set of the issuer
+   * @param jwt compact serialized JWT
+   * @param timeoutMs how long to wait for the key set if it needs to be fetched
+   * @return true if the signature is valid
+   * @throws IOException if the JWT is malformed or the key set couldn't be retrieved
+   */
+  boolean verify(String jwksUrl, String jwt, long timeoutMs) throws IOException {
+    JsonObject header = JwtDecoder.decodeHeader(jwt, "alg", "kid");
+    String alg = JsonFields.getString(header, "alg");
+    String algorithm = alg != null ? ALGORITHMS.get(alg) : null;
+    if (algorithm == null) {
+      log.warn("OAuth2: unsupported JWS algorithm {}", alg);
+      return false;
+    }
+    PublicKey key = getKey(jwksUrl, JsonFields.getString(header, "kid"), timeoutMs);
+    if (key == null) {
+      log.warn("OAuth2: no key {} in {}", JsonFields.getString(header, "kid"), jwksUrl);
+      return false;
+    }
+    try {
+      Signature signature = Signature.getInstance(algorithm);
+      signature.initVerify(key);
+      signature.update(jwt.substring(0, JwtDecoder.signingInputLength(jwt)).getBytes(US_ASCII));
+      return signature.verify(JwtDecoder.decodeSignature(jwt));
+    } catch (GeneralSecurityException e) {
+      log.warn("OAuth2: cannot check {} signature with key from {}", alg, jwksUrl, e);
+      return false;
+    }
+  }
+
+  /**
+   * Fetch the key set of a JWKS URL ahead of the first id token to check, unless it is known.
+   *
+   * @param jwksUrl URL of the key set of the issuer
+   * @return future completed once the key set is known
+   */
+  CompletableFuture<?> prefetch(String jwksUrl) {
+    return keySets.containsKey(jwksUrl)
+        ? CompletableFuture.completedFuture(null)
+        : fetch(jwksUrl);
+  }
+
+  private PublicKey getKey(String jwksUrl, String kid, long timeoutMs) throws IOException {
+    KeySet keySet = keySets.get(jwksUrl);
+    if (keySet != null) {
+      PublicKey key = find(keySet, kid);
+      long age = System.currentTimeMillis() - keySet.fetchedAt;
+      if (key != null) {
+        if (age > refreshIntervalMs) {
+          fetch(jwksUrl);
+        }
+        return key;
+      }
+      if (age < minRefetchIntervalMs) {
+        return null;
+      }
+    }
+    return find(await(fetch(jwksUrl), jwksUrl, timeoutMs), kid);
+  }
+
+  private static PublicKey find(KeySet keySet, String kid) {
+    if (kid == null) {
+      // Without key id, only a key set with a single key is unambiguous.
+      return keySet.keys.size() == 1 ? keySet.keys.values().iterator().next() : null;
+    }
+    return keySet.keys.get(kid);
+  }
+
+  private CompletableFuture<KeySet> fetch(String jwksUrl) {
+    CompletableFuture<KeySet> result = new CompletableFuture<>();
+    CompletableFuture<KeySet> running = fetches.putIfAbsent(jwksUrl, result);
+    if (running != null) {
+      return running;
+    }
+    log.debug("OAuth2: fetching key set from {}", jwksUrl);
+    fetcher
+        .fetch(jwksUrl)
+        .thenApply(response -> parse(jwksUrl, response))
+        .whenComplete(
+            (keySet, t) -> {
+              if (keySet != null) {
+                keySets.put(jwksUrl, keySet);
+              } else {
+                log.warn("OAuth2: cannot fetch key set from {}", jwksUrl, t);
+              }
+              fetches.remove(jwksUrl, result);
+              if (t != null) {
+                result.completeExceptionally(t);
+              } else {
+                result.complete(keySet);
+              }
+            });
+    return result;
+  }
+
+  private static KeySet await(CompletableFuture<KeySet> future, String jwksUrl, long timeoutMs)
+      throws IOException {
+    try {
+      return future.get(timeoutMs, MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while fetching key set from " + jwksUrl, e);
+    } catch (TimeoutException | ExecutionException e) {
+      throw new IOException("Cannot fetch key set from " + jwksUrl, e);
+    }
+  }
+
+  private static KeySet parse(String jwksUrl, Response response) {
+    JsonArray keys;
+    try (Response r = response) {
+      if (r.getCode() != 200) {
+        throw new IllegalStateException(
+            String.format("Status %d for request %s", r.getCode(), jwksUrl));
+      }
+      keys = JsonFields.parse(r.getBody(), "keys").getAsJsonArray("keys");
+    } catch (IOException | ClassCastException e) {
+      throw new IllegalStateException("Invalid key set at " + jwksUrl, e);
+    }
+    Map<String, PublicKey> result = new HashMap<>();
+    if (keys != null) {
+      for (JsonElement e : keys) {
+        JsonObject jwk = e.getAsJsonObject();
+        String kid = JsonFields.getString(jwk, "kid");
+        String use = JsonFields.getString(jwk, "use");
+        if (use != null && !use.equals("sig")) {
+          continue;
+        }
+        try {
+          PublicKey key = toPublicKey(jwk);
+          if (key != null) {
+            result.put(kid != null ? kid : "", key);
+          }
+        } catch (GeneralSecurityException | IOException | RuntimeException ex) {
+          log.warn("OAuth2: ignoring invalid key {} at {}", kid, jwksUrl, ex);
+        }
+      }
+    }
+    return new KeySet(ImmutableMap.copyOf(result), System.currentTimeMillis());
+  }
+
+  private static PublicKey toPublicKey(JsonObject jwk)
+      throws GeneralSecurityException, IOException {
+    String kty = JsonFields.getString(jwk, "kty");
+    if ("RSA".equals(kty)) {
+      return KeyFactory.getInstance("RSA")
+          .generatePublic(new RSAPublicKeySpec(integer(jwk, "n"), integer(jwk, "e")));
+    }
+    if ("EC".equals(kty)) {
+      String curve = CURVES.get(JsonFields.getString(jwk, "crv"));
+      if (curve == null) {
+        return null;
+      }
+      AlgorithmParameters params = AlgorithmParameters.getInstance("EC");
+      params.init(new ECGenParameterSpec(curve));
+      ECPoint point = new ECPoint(integer(jwk, "x"), integer(jwk, "y"));
+      return KeyFactory.getInstance("EC")
+          .generatePublic(
+              new ECPublicKeySpec(point, params.getParameterSpec(ECParameterSpec.class)));
+    }
+    return null;
+  }
+
+  private static BigInteger integer(JsonObject jwk, String name) throws IOException {
+    String value = JsonFields.getString(jwk, name);
+    if (value == null) {
+      throw new IOException("Missing key parameter " + name);
+    }
+    return new BigInteger(1, JwtDecoder.decodeBase64(value));
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.JsonObject;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * Decodes the segments of a JWT ("header.payload.signature"). Signatures are checked by {@link
+ * JwksCache}.
+ *
+ * <p>Segments are located by index and Base64URL decoded straight into a byte buffer, which is
+ * read by {@link JsonFields} without copying it into a String, keeping only the requested claims.
+ */
+final class JwtDecoder {
+  private static final byte[] BASE64 = new byte[128];
+
+  static {
+    Arrays.fill(BASE64, (byte) -1);
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    for (int i = 0; i < alphabet.length(); i++) {
+      BASE64[alphabet.charAt(i)] = (byte) i;
+    }
+    // Accept both the URL safe and the standard alphabet, like commons-codec did.
+    BASE64['-'] = BASE64['+'] = 62;
+    BASE64['_'] = BASE64['/'] = 63;
+  }
+
+  /**
+   * Decode claims from the payload of a JWT.
+   *
+   * @param jwt compact serialized JWT
+   * @param names names of the claims to extract
+   * @return object with those of the requested claims that are present in the payload
+   * @throws IOException if the JWT is malformed
+   */
+  static JsonObject decodeClaims(String jwt, String... names) throws IOException {
+    return parse(decodePayload(jwt), names);
+  }
+
+  /**
+   * Decode parameters like {@code alg} and {@code kid} from the header of a JWT.
+   *
+   * @param jwt compact serialized JWT
+   * @param names names of the header parameters to extract
+   * @return object with those of the requested parameters that are present in the header
+   * @throws IOException if the JWT is malformed
+   */
+  static JsonObject decodeHeader(String jwt, String... names) throws IOException {
+    return parse(decode(jwt, 0, firstDot(jwt)), names);
+  }
+
+  /**
+   * Base64URL decode the payload segment of a JWT.
+   *
+   * @param jwt compact serialized JWT
+   * @return decoded payload
+   * @throws IOException if the JWT doesn't consist of three segments or the payload is not valid
+   *     Base64
+   */
+  static byte[] decodePayload(String jwt) throws IOException {
+    return decode(jwt, firstDot(jwt) + 1, signingInputLength(jwt));
+  }
+
+  /**
+   * Base64URL decode the signature segment of a JWT.
+   *
+   * @param jwt compact serialized JWT
+   * @return decoded signature
+   * @throws IOException if the JWT is malformed
+   */
+  static byte[] decodeSignature(String jwt) throws IOException {
+    return decode(jwt, signingInputLength(jwt) + 1, jwt.length());
+  }
+
+  /**
+   * Base64URL decode a value, e.g. a parameter of a JSON Web Key.
+   *
+   * @param value Base64URL encoded value
+   * @return decoded value
+   * @throws IOException if the value is not valid Base64
+   */
+  static byte[] decodeBase64(String value) throws IOException {
+    return decode(value, 0, value.length());
+  }
+
+  /**
+   * Get the length of the signing input, "header.payload", of a JWT.
+   *
+   * @param jwt compact serialized JWT
+   * @return index of the dot in front of the signature
+   * @throws IOException if the JWT doesn't consist of three segments
+   */
+  static int signingInputLength(String jwt) throws IOException {
+    int second = jwt.indexOf('.', firstDot(jwt) + 1);
+    if (second < 0 || jwt.indexOf('.', second + 1) >= 0) {
+      throw new IOException("JWT does not consist of header, payload and signature");
+    }
+    return second;
+  }
+
+  private static int firstDot(String jwt) throws IOException {
+    int first = jwt.indexOf('.');
+    if (first < 0) {
+      throw new IOException("JWT does not consist of header, payload and signature");
+    }
+    return first;
+  }
+
+  private static JsonObject parse(byte[] json, String[] names) throws IOException {
+    try {
+      return JsonFields.parse(new InputStreamReader(new ByteArrayInputStream(json), UTF_8), names);
+    } catch (IOException e) {
+      throw new IOException("Malformed JWT: " + e.getMessage(), e);
+    }
+  }
+
+  private static byte[] decode(String jwt, int start, int end) throws IOException {
+    while (end > start && jwt.charAt(end - 1) == '=') {
+      end--;
+    }
+    int len = end - start;
+    if (len % 4 == 1) {
+      throw new IOException("Invalid Base64 length");
+    }
+    byte[] out = new byte[len * 3 / 4];
+    int o = 0;
+    int bits = 0;
+    int n = 0;
+    for (int i = start; i < end; i++) {
+      char c = jwt.charAt(i);
+      int v = c < 128 ? BASE64[c] : -1;
+      if (v < 0) {
+        throw new IOException("Invalid Base64 character");
+      }
+      bits = (bits << 6) | v;
+      if (++n == 4) {
+        out[o++] = (byte) (bits >> 16);
+        out[o++] = (byte) (bits >> 8);
+        out[o++] = (byte) bits;
+        bits = 0;
+        n = 0;
+      }
+    }
+    if (n == 3) {
+      out[o++] = (byte) (bits >> 10);
+      out[o++] = (byte) (bits >> 2);
+    } else if (n == 2) {
+      out[o++] = (byte) (bits >> 4);
+    }
+    return out;
+  }
+
+  private JwtDecoder() {}
+}
@@ -26,20 +26,39 @@ public class KeycloakApi extends DefaultApi20 {
 
   private final String rootUrl;
   private final String realm;
+  private final OidcDiscovery.Issuer issuer;
 
   public KeycloakApi(String rootUrl, String realm) {
+    this(rootUrl, realm, null);
+  }
+
+  KeycloakApi(String rootUrl, String realm, OidcDiscovery.Issuer issuer) {
     this.rootUrl = rootUrl;
     this.realm = realm;
+    this.issuer = issuer;
+  }
+
+  static String getIssuer(String rootUrl, String realm) {
+    return String.format("%s/auth/realms/%s", rootUrl, realm);
   }
 
   @Override
   public String getAuthorizationBaseUrl() {
-    return String.format(AUTHORIZE_URL, rootUrl, realm);
+    String url = String.format(AUTHORIZE_URL, rootUrl, realm);
+    return issuer != null ? issuer.getAuthorizationEndpoint(url) : url;
   }
 
   @Override
   public String getAccessTokenEndpoint() {
-    return String.format("%s/auth/realms/%s/protocol/openid-connect/token", rootUrl, realm);
+    String url =
+        String.format("%s/auth/realms/%s/protocol/openid-connect/token", rootUrl, realm);
+    return issuer != null ? issuer.getTokenEndpoint(url) : url;
+  }
+
+  String getJwksEndpoint() {
+    String url =
+        String.format("%s/auth/realms/%s/protocol/openid-connect/certs", rootUrl, realm);
+    return issuer != null ? issuer.getJwksUri(url) : url;
   }
 
   @Override
@@ -14,14 +14,13 @@
 
 package com.googlesource.gerrit.plugins.oauth;
 
-import static com.google.gerrit.json.OutputFormat.JSON;
-
 import com.github.scribejava.core.builder.ServiceBuilder;
 import com.github.scribejava.core.model.OAuth2AccessToken;
 import com.github.scribejava.core.oauth.OAuth20Service;
 import com.google.common.base.CharMatcher;
-import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.auth.oauth.OAuthLoginProvider;
 import com.google.gerrit.extensions.auth.oauth.OAuthServiceProvider;
 import com.google.gerrit.extensions.auth.oauth.OAuthToken;
 import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
@@ -34,22 +33,23 @@ import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
+import com.googlesource.gerrit.plugins.oauth.IdpMetrics.Failure;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.URI;
-import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ExecutionException;
-import org.apache.commons.codec.binary.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class KeycloakOAuthService implements OAuthServiceProvider {
+public class KeycloakOAuthService implements OAuthServiceProvider, OAuthLoginProvider {
 
   private static final Logger log = LoggerFactory.getLogger(KeycloakOAuthService.class);
 
   static final String CONFIG_SUFFIX = "-keycloak-oauth";
   private static final String KEYCLOAK_PROVIDER_PREFIX = "keycloak-oauth:";
   private final OAuth20Service service;
+  private final IdpClient idp;
+  private final KeycloakApi api;
+  private final ImmutableSet<String> issuers;
   private final String serviceName;
   private final boolean usePreferredUsername;
 
@@ -57,7 +57,10 @@ public class KeycloakOAuthService implements OAuthServiceProvider {
   KeycloakOAuthService(
       PluginConfigFactory cfgFactory,
       @PluginName String pluginName,
-      @CanonicalWebUrl Provider<String> urlProvider) {
+      @CanonicalWebUrl Provider<String> urlProvider,
+      OAuthHttpClient httpClient,
+      IdpClients idpClients,
+      OidcDiscovery discovery) {
     PluginConfig cfg = cfgFactory.getFromGerritConfig(pluginName + CONFIG_SUFFIX);
     String canonicalWebUrl = CharMatcher.is('/').trimTrailingFrom(urlProvider.get()) + "/";
 
@@ -69,39 +72,38 @@ public class KeycloakOAuthService implements OAuthServiceProvider {
     serviceName = cfg.getString(InitOAuth.SERVICE_NAME, "Keycloak OAuth2");
     usePreferredUsername = cfg.getBoolean(InitOAuth.USE_PREFERRED_USERNAME, true);
 
+    String issuer = KeycloakApi.getIssuer(rootUrl, realm);
+    issuers = ImmutableSet.of(issuer);
+    api = new KeycloakApi(rootUrl, realm, discovery.forIssuer(cfg, issuer));
     service =
         new ServiceBuilder(cfg.getString(InitOAuth.CLIENT_ID))
             .apiSecret(cfg.getString(InitOAuth.CLIENT_SECRET))
+            .httpClient(httpClient)
             .callback(canonicalWebUrl + "oauth")
             .defaultScope("openid")
-            .build(new KeycloakApi(rootUrl, realm));
+            .build(api);
+    idp = idpClients.create(CONFIG_SUFFIX, cfg, service);
+    idp.setEndpoints(null, api::getJwksEndpoint);
   }
 
-  private String parseJwt(String input) throws UnsupportedEncodingException {
-    String[] parts = input.split("\\.");
-    Preconditions.checkState(parts.length == 3);
-    Preconditions.checkNotNull(parts[1]);
-    return new String(Base64.decodeBase64(parts[1]), StandardCharsets.UTF_8.name());
+  @Override
+  public OAuthUserInfo getUserInfo(OAuthToken token) throws IOException {
+    return idp.getUserInfo(token, this::fetchUserInfo);
   }
 
   @Override
-  public OAuthUserInfo getUserInfo(OAuthToken token) throws IOException {
-    JsonElement tokenJson = JSON.newGson().fromJson(token.getRaw(), JsonElement.class);
-    JsonObject tokenObject = tokenJson.getAsJsonObject();
-    JsonElement id_token = tokenObject.get("id_token");
-    String jwt;
-    try {
-      jwt = parseJwt(id_token.getAsString());
-    } catch (UnsupportedEncodingException e) {
-      throw new IOException(
-          String.format(
-              "%s support is required to interact with JWTs", StandardCharsets.UTF_8.name()),
-          e);
-    }
+  public OAuthUserInfo login(String username, String secret) throws IOException {
+    return idp.login(username, secret, this::fetchUserInfo);
+  }
 
-    JsonElement claimJson = JSON.newGson().fromJson(jwt, JsonElement.class);
+  private OAuthUserInfo fetchUserInfo(OAuthToken token) throws IOException {
+    String idToken = IdpClient.getIdToken(token);
+    if (!idp.verifyIdToken(idToken, api.getJwksEndpoint(), issuers)) {
+      return idp.reject(token, Failure.INVALID_ID_TOKEN);
+    }
+    JsonObject claimObject =
+        JwtDecoder.decodeClaims(idToken, "preferred_username", "email", "name");
 
-    JsonObject claimObject = claimJson.getAsJsonObject();
     if (log.isDebugEnabled()) {
       log.debug("Claim object: {}", claimObject);
     }
@@ -109,13 +111,14 @@ public class KeycloakOAuthService implements OAuthServiceProvider {
     JsonElement emailElement = claimObject.get("email");
     JsonElement nameElement = claimObject.get("name");
     if (usernameElement == null || usernameElement.isJsonNull()) {
-      throw new IOException("Response doesn't contain preferred_username field");
+      throw new IdpResponseException(
+          Failure.MISSING_FIELD, "Response doesn't contain preferred_username field");
     }
     if (emailElement == null || emailElement.isJsonNull()) {
-      throw new IOException("Response doesn't contain email field");
+      throw new IdpResponseException(Failure.MISSING_FIELD, "Response doesn't contain email field");
     }
     if (nameElement == null || nameElement.isJsonNull()) {
-      throw new IOException("Response doesn't contain name field");
+      throw new IdpResponseException(Failure.MISSING_FIELD, "Response doesn't contain name field");
     }
     String usernameAsString = usernameElement.getAsString();
     String username = null;
@@ -137,7 +140,7 @@ public class KeycloakOAuthService implements OAuthServiceProvider {
   @Override
   public OAuthToken getAccessToken(OAuthVerifier rv) {
     try {
-      OAuth2AccessToken accessToken = service.getAccessToken(rv.getValue());
+      OAuth2AccessToken accessToken = idp.getAccessToken(rv.getValue());
       return new OAuthToken(
           accessToken.getAccessToken(), accessToken.getTokenType(), accessToken.getRawResponse());
     } catch (InterruptedException | ExecutionException | IOException e) {
@@ -149,7 +152,7 @@ public class KeycloakOAuthService implements OAuthServiceProvider {
 
   @Override
   public String getAuthorizationUrl() {
-    return service.getAuthorizationUrl();
+    return idp.getAuthorizationUrl(service.getAuthorizationUrl());
   }
 
   @Override
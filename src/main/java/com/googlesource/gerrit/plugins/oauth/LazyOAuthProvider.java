@@ -0,0 +1,77 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.gerrit.extensions.auth.oauth.OAuthLoginProvider;
+import com.google.gerrit.extensions.auth.oauth.OAuthServiceProvider;
+import com.google.gerrit.extensions.auth.oauth.OAuthToken;
+import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
+import com.google.gerrit.extensions.auth.oauth.OAuthVerifier;
+import com.google.inject.Provider;
+import java.io.IOException;
+
+/**
+ * Provider that builds its service, with its scribejava service and IdP client, on first use, so
+ * that configured providers nobody logs in with on a node cost nothing at plugin load.
+ *
+ * <p>The services are not singletons themselves, as Guice builds singletons eagerly in production
+ * stage. The one instance of a service is the one memoized here.
+ */
+class LazyOAuthProvider implements OAuthServiceProvider, OAuthLoginProvider {
+  private final String name;
+  private final Supplier<OAuthServiceProvider> service;
+
+  LazyOAuthProvider(String name, Provider<? extends OAuthServiceProvider> provider) {
+    this.name = name;
+    this.service = Suppliers.memoize(provider::get);
+  }
+
+  /** Build the service now instead of on first use. */
+  void build() {
+    service.get();
+  }
+
+  @Override
+  public String getAuthorizationUrl() {
+    return service.get().getAuthorizationUrl();
+  }
+
+  @Override
+  public OAuthToken getAccessToken(OAuthVerifier rv) {
+    return service.get().getAccessToken(rv);
+  }
+
+  @Override
+  public OAuthUserInfo getUserInfo(OAuthToken token) throws IOException {
+    return service.get().getUserInfo(token);
+  }
+
+  @Override
+  public OAuthUserInfo login(String username, String secret) throws IOException {
+    return ((OAuthLoginProvider) service.get()).login(username, secret);
+  }
+
+  @Override
+  public String getVersion() {
+    return service.get().getVersion();
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+}
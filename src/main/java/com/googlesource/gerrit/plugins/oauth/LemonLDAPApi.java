@@ -22,19 +22,37 @@ public class LemonLDAPApi extends DefaultApi20 {
   private static final String AUTHORIZE_URL = "%s/oauth2/authorize";
 
   private final String rootUrl;
+  private final OidcDiscovery.Issuer issuer;
 
   public LemonLDAPApi(String rootUrl) {
+    this(rootUrl, null);
+  }
+
+  LemonLDAPApi(String rootUrl, OidcDiscovery.Issuer issuer) {
     this.rootUrl = rootUrl;
+    this.issuer = issuer;
   }
 
   @Override
   public String getAuthorizationBaseUrl() {
-    return String.format(AUTHORIZE_URL, rootUrl);
+    String url = String.format(AUTHORIZE_URL, rootUrl);
+    return issuer != null ? issuer.getAuthorizationEndpoint(url) : url;
   }
 
   @Override
   public String getAccessTokenEndpoint() {
-    return String.format("%s/oauth2/token", rootUrl);
+    String url = String.format("%s/oauth2/token", rootUrl);
+    return issuer != null ? issuer.getTokenEndpoint(url) : url;
+  }
+
+  String getUserInfoEndpoint() {
+    String url = String.format("%s/oauth2/userinfo", rootUrl);
+    return issuer != null ? issuer.getUserInfoEndpoint(url) : url;
+  }
+
+  String getJwksEndpoint() {
+    String url = String.format("%s/oauth2/jwks", rootUrl);
+    return issuer != null ? issuer.getJwksUri(url) : url;
   }
 
   // TODO(davido): Remove this override, if HttpBasicAuthentication
@@ -14,7 +14,6 @@
 
 package com.googlesource.gerrit.plugins.oauth;
 
-import static com.google.gerrit.json.OutputFormat.JSON;
 import static org.slf4j.LoggerFactory.getLogger;
 
 import com.github.scribejava.core.builder.ServiceBuilder;
@@ -24,7 +23,9 @@ import com.github.scribejava.core.model.Response;
 import com.github.scribejava.core.model.Verb;
 import com.github.scribejava.core.oauth.OAuth20Service;
 import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableSet;
 import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.auth.oauth.OAuthLoginProvider;
 import com.google.gerrit.extensions.auth.oauth.OAuthServiceProvider;
 import com.google.gerrit.extensions.auth.oauth.OAuthToken;
 import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
@@ -36,78 +37,105 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
-import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.oauth.IdpMetrics.Failure;
 import java.io.IOException;
 import java.util.concurrent.ExecutionException;
 import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 
-@Singleton
-public class LemonLDAPOAuthService implements OAuthServiceProvider {
+public class LemonLDAPOAuthService implements OAuthServiceProvider, OAuthLoginProvider {
   private static final Logger log = getLogger(LemonLDAPOAuthService.class);
   static final String CONFIG_SUFFIX = "-lemonldap-oauth";
-  private static final String PROTECTED_RESOURCE_URL = "%s/oauth2/userinfo";
   private static final String LEMONLDAP_PROVIDER_PREFIX = "llng-oauth:";
   private final OAuth20Service service;
-  private final String rootUrl;
+  private final IdpClient idp;
+  private final LemonLDAPApi api;
+  private final ImmutableSet<String> issuers;
 
   @Inject
   LemonLDAPOAuthService(
       PluginConfigFactory cfgFactory,
       @PluginName String pluginName,
-      @CanonicalWebUrl Provider<String> urlProvider) {
+      @CanonicalWebUrl Provider<String> urlProvider,
+      OAuthHttpClient httpClient,
+      IdpClients idpClients,
+      OidcDiscovery discovery) {
     PluginConfig cfg = cfgFactory.getFromGerritConfig(pluginName + CONFIG_SUFFIX);
     String canonicalWebUrl = CharMatcher.is('/').trimTrailingFrom(urlProvider.get()) + "/";
-    rootUrl = cfg.getString(InitOAuth.ROOT_URL);
+    String rootUrl = cfg.getString(InitOAuth.ROOT_URL);
+    issuers = ImmutableSet.of(rootUrl);
+    api = new LemonLDAPApi(rootUrl, discovery.forIssuer(cfg, rootUrl));
     service =
         new ServiceBuilder(cfg.getString(InitOAuth.CLIENT_ID))
             .apiSecret(cfg.getString(InitOAuth.CLIENT_SECRET))
+            .httpClient(httpClient)
             .defaultScope("openid profile email")
             .callback(canonicalWebUrl + "oauth")
-            .build(new LemonLDAPApi(rootUrl));
+            .build(api);
+    idp = idpClients.create(CONFIG_SUFFIX, cfg, service);
+    idp.setEndpoints(api::getUserInfoEndpoint, api::getJwksEndpoint);
   }
 
   @Override
   public OAuthUserInfo getUserInfo(OAuthToken token) throws IOException {
-    OAuthRequest request =
-        new OAuthRequest(Verb.GET, String.format(PROTECTED_RESOURCE_URL, rootUrl));
+    return idp.getUserInfo(token, this::fetchUserInfo);
+  }
+
+  @Override
+  public OAuthUserInfo login(String username, String secret) throws IOException {
+    return idp.login(username, secret, this::fetchUserInfo);
+  }
+
+  private OAuthUserInfo fetchUserInfo(OAuthToken token) throws IOException {
+    if (idp.useIdTokenClaims()) {
+      String idToken = IdpClient.getIdToken(token);
+      if (!idp.verifyIdToken(idToken, api.getJwksEndpoint(), issuers)) {
+        return idp.reject(token, Failure.INVALID_ID_TOKEN);
+      }
+      return toUserInfo(
+          JwtDecoder.decodeClaims(idToken, "sub", "preferred_username", "email", "name"));
+    }
+    OAuthRequest request = new OAuthRequest(Verb.GET, api.getUserInfoEndpoint());
     OAuth2AccessToken t = new OAuth2AccessToken(token.getToken(), token.getRaw());
     service.signRequest(t, request);
 
-    try (Response response = service.execute(request)) {
+    try (Response response = idp.execute(request)) {
       if (response.getCode() != HttpServletResponse.SC_OK) {
         throw new IOException(
             String.format(
                 "Status %s (%s) for request %s",
                 response.getCode(), response.getBody(), request.getUrl()));
       }
-      JsonElement userJson = JSON.newGson().fromJson(response.getBody(), JsonElement.class);
       if (log.isDebugEnabled()) {
         log.debug("User info response: {}", response.getBody());
       }
-      JsonObject jsonObject = userJson.getAsJsonObject();
-      if (jsonObject == null || jsonObject.isJsonNull()) {
-        throw new IOException("Response doesn't contain 'user' field" + jsonObject);
-      }
-      JsonElement id = jsonObject.get("sub");
-      JsonElement username = jsonObject.get("preferred_username");
-      JsonElement email = jsonObject.get("email");
-      JsonElement name = jsonObject.get("name");
-      return new OAuthUserInfo(
-          LEMONLDAP_PROVIDER_PREFIX + id.getAsString(),
-          username == null || username.isJsonNull() ? null : username.getAsString(),
-          email == null || email.isJsonNull() ? null : email.getAsString(),
-          name == null || name.isJsonNull() ? null : name.getAsString(),
-          null);
+      return toUserInfo(
+          JsonFields.parse(response.getBody(), "sub", "preferred_username", "email", "name"));
     } catch (ExecutionException | InterruptedException e) {
       throw new RuntimeException("Cannot retrieve user info resource", e);
     }
   }
 
+  private static OAuthUserInfo toUserInfo(JsonObject claims) throws IOException {
+    JsonElement id = claims.get("sub");
+    if (id == null || id.isJsonNull()) {
+      throw new IdpResponseException(Failure.MISSING_ID, "Response doesn't contain sub field");
+    }
+    JsonElement username = claims.get("preferred_username");
+    JsonElement email = claims.get("email");
+    JsonElement name = claims.get("name");
+    return new OAuthUserInfo(
+        LEMONLDAP_PROVIDER_PREFIX + id.getAsString(),
+        username == null || username.isJsonNull() ? null : username.getAsString(),
+        email == null || email.isJsonNull() ? null : email.getAsString(),
+        name == null || name.isJsonNull() ? null : name.getAsString(),
+        null);
+  }
+
   @Override
   public OAuthToken getAccessToken(OAuthVerifier rv) {
     try {
-      OAuth2AccessToken accessToken = service.getAccessToken(rv.getValue());
+      OAuth2AccessToken accessToken = idp.getAccessToken(rv.getValue());
       return new OAuthToken(
           accessToken.getAccessToken(), accessToken.getTokenType(), accessToken.getRawResponse());
     } catch (InterruptedException | ExecutionException | IOException e) {
@@ -119,7 +147,7 @@ public class LemonLDAPOAuthService implements OAuthServiceProvider {
 
   @Override
   public String getAuthorizationUrl() {
-    return service.getAuthorizationUrl();
+    return idp.getAuthorizationUrl(service.getAuthorizationUrl());
   }
 
   @Override
@@ -0,0 +1,52 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import com.google.gerrit.httpd.AllRequestFilter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Removes the grant of a browser that logs out of Gerrit from {@link RefreshTokenStore}, so that
+ * its next login goes to the IdP again instead of renewing the grant.
+ */
+@Singleton
+class LogoutFilter extends AllRequestFilter {
+  private final RefreshTokenStore refreshTokens;
+
+  @Inject
+  LogoutFilter(RefreshTokenStore refreshTokens) {
+    this.refreshTokens = refreshTokens;
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    if (request instanceof HttpServletRequest && response instanceof HttpServletResponse) {
+      HttpServletRequest req = (HttpServletRequest) request;
+      if (req.getRequestURI().equals(req.getContextPath() + "/logout")) {
+        refreshTokens.remove(req, (HttpServletResponse) response);
+      }
+    }
+    chain.doFilter(request, response);
+  }
+}
@@ -14,24 +14,19 @@
 
 package com.googlesource.gerrit.plugins.oauth;
 
-import com.google.gerrit.extensions.annotations.Exports;
-import com.google.gerrit.extensions.annotations.PluginName;
-import com.google.gerrit.extensions.auth.oauth.OAuthLoginProvider;
+import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.inject.AbstractModule;
-import com.google.inject.Inject;
+import com.google.inject.internal.UniqueAnnotations;
 
 public class Module extends AbstractModule {
-  private final String pluginName;
-
-  @Inject
-  Module(@PluginName String pluginName) {
-    this.pluginName = pluginName;
-  }
-
   @Override
   protected void configure() {
-    bind(OAuthLoginProvider.class)
-        .annotatedWith(Exports.named(pluginName))
-        .to(DisabledOAuthLoginProvider.class);
+    install(UserInfoCache.module());
+    install(RejectedTokenCache.module());
+    install(GitCredentialCache.module());
+    install(RefreshTokenStore.module());
+    bind(LifecycleListener.class)
+        .annotatedWith(UniqueAnnotations.create())
+        .to(OAuthHttpClient.class);
   }
 }
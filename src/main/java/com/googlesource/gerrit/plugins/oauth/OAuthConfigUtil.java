@@ -0,0 +1,61 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import com.google.common.base.CharMatcher;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.PluginConfig;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+final class OAuthConfigUtil {
+
+  /**
+   * Parse a time unit value like "10 s" or "500 ms" from a plugin config section.
+   *
+   * @param cfg plugin config section
+   * @param name name of the key
+   * @param defaultValue value to return when the key is not set or can't be parsed
+   * @param wantUnit unit of the returned value
+   * @return parsed value in {@code wantUnit}
+   */
+  static long getTimeUnit(PluginConfig cfg, String name, long defaultValue, TimeUnit wantUnit) {
+    String value = cfg.getString(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    return ConfigUtil.getTimeUnit(value, defaultValue, wantUnit);
+  }
+
+  /**
+   * Move an endpoint of a provider with fixed hosts to {@code rootUrl}, keeping path and query.
+   *
+   * @param url URL of the endpoint at the provider
+   * @param rootUrl scheme, host, port and optional path prefix to use instead, or null
+   * @return URL of the endpoint under {@code rootUrl}, or {@code url} if {@code rootUrl} is null
+   */
+  static String withRootUrl(String url, String rootUrl) {
+    if (rootUrl == null) {
+      return url;
+    }
+    URI uri = URI.create(url);
+    String query = uri.getRawQuery();
+    return CharMatcher.is('/').trimTrailingFrom(rootUrl)
+        + uri.getRawPath()
+        + (query != null ? "?" + query : "");
+  }
+
+  private OAuthConfigUtil() {}
+}
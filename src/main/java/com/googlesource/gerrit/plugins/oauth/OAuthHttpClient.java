@@ -0,0 +1,390 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.github.scribejava.core.httpclient.jdk.JDKHttpClient;
+import com.github.scribejava.core.model.OAuthAsyncRequestCallback;
+import com.github.scribejava.core.model.OAuthRequest;
+import com.github.scribejava.core.model.Response;
+import com.github.scribejava.core.model.Verb;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plugin wide HTTP transport shared by all OAuth providers.
+ *
+ * <p>Scribejava's default client opens a new {@code HttpURLConnection} for every request. This
+ * client is backed by a single {@link HttpClient}, which keeps a keep-alive connection pool per
+ * IdP host, so the token exchange and the user info call of a login reuse warm connections.
+ * {@link HttpClient} neither limits nor evicts the pooled connections per client: idle ones are
+ * closed by the JDK after {@code jdk.httpclient.keepalive.timeout} seconds, and {@code
+ * http-max-requests-per-host} limits the concurrent requests per host, which bounds the number of
+ * connections the pool opens to it.
+ *
+ * <p>Asynchronous requests complete on a bounded pool of {@code http-threads} threads instead of
+ * the unbounded default executor of {@link HttpClient}. The pool is shut down when the plugin
+ * stops.
+ */
+@Singleton
+class OAuthHttpClient extends JDKHttpClient implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(OAuthHttpClient.class);
+
+  static final String CONNECT_TIMEOUT = "http-connect-timeout";
+  static final String READ_TIMEOUT = "http-read-timeout";
+  static final String MAX_REQUESTS_PER_HOST = "http-max-requests-per-host";
+  static final String THREADS = "http-threads";
+
+  private static final long DEFAULT_CONNECT_TIMEOUT_MS = 10_000;
+  private static final long DEFAULT_READ_TIMEOUT_MS = 30_000;
+  private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 20;
+  private static final int DEFAULT_THREADS = 4;
+
+  private static final String CONTENT_TYPE = "Content-Type";
+  private static final String DEFAULT_CONTENT_TYPE = "application/x-www-form-urlencoded";
+  private static final String USER_AGENT = "User-Agent";
+
+  // Headers managed by java.net.http itself, setting them fails the request.
+  private static final ImmutableSet<String> RESTRICTED_HEADERS =
+      ImmutableSet.of("connection", "content-length", "expect", "host", "upgrade");
+
+  private final HttpClient client;
+  private final Duration connectTimeout;
+  private final Duration readTimeout;
+  private final int maxRequestsPerHost;
+  private final ThreadPoolExecutor executor;
+  private final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+  @Inject
+  OAuthHttpClient(PluginConfigFactory cfgFactory, @PluginName String pluginName) {
+    this(cfgFactory.getFromGerritConfig(pluginName));
+  }
+
+  OAuthHttpClient(PluginConfig cfg) {
+    connectTimeout =
+        Duration.ofMillis(
+            OAuthConfigUtil.getTimeUnit(
+                cfg, CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT_MS, MILLISECONDS));
+    readTimeout =
+        Duration.ofMillis(
+            OAuthConfigUtil.getTimeUnit(cfg, READ_TIMEOUT, DEFAULT_READ_TIMEOUT_MS, MILLISECONDS));
+    maxRequestsPerHost =
+        Math.max(1, cfg.getInt(MAX_REQUESTS_PER_HOST, DEFAULT_MAX_REQUESTS_PER_HOST));
+    int threads = Math.max(1, cfg.getInt(THREADS, DEFAULT_THREADS));
+    executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("OAuth-HTTP-%d").setDaemon(true).build());
+    executor.allowCoreThreadTimeOut(true);
+    client =
+        HttpClient.newBuilder()
+            .executor(executor)
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(connectTimeout)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+    if (log.isDebugEnabled()) {
+      log.debug("OAuth2: connectTimeout={}", connectTimeout);
+      log.debug("OAuth2: readTimeout={}", readTimeout);
+      log.debug("OAuth2: maxRequestsPerHost={}", maxRequestsPerHost);
+      log.debug("OAuth2: threads={}", threads);
+    }
+  }
+
+  @Override
+  public Response execute(
+      String userAgent, Map<String, String> headers, Verb httpVerb, String completeUrl, byte[] body)
+      throws InterruptedException, ExecutionException, IOException {
+    return send(newRequest(userAgent, headers, httpVerb, completeUrl, publisher(body)));
+  }
+
+  @Override
+  public Response execute(
+      String userAgent, Map<String, String> headers, Verb httpVerb, String completeUrl, String body)
+      throws InterruptedException, ExecutionException, IOException {
+    return send(newRequest(userAgent, headers, httpVerb, completeUrl, publisher(body)));
+  }
+
+  @Override
+  public Response execute(
+      String userAgent, Map<String, String> headers, Verb httpVerb, String completeUrl, File body)
+      throws InterruptedException, ExecutionException, IOException {
+    return send(newRequest(userAgent, headers, httpVerb, completeUrl, publisher(body)));
+  }
+
+  @Override
+  public <T> Future<T> executeAsync(
+      String userAgent,
+      Map<String, String> headers,
+      Verb httpVerb,
+      String completeUrl,
+      byte[] body,
+      OAuthAsyncRequestCallback<T> callback,
+      OAuthRequest.ResponseConverter<T> converter) {
+    return sendAsync(
+        newRequest(userAgent, headers, httpVerb, completeUrl, publisher(body)),
+        callback,
+        converter);
+  }
+
+  @Override
+  public <T> Future<T> executeAsync(
+      String userAgent,
+      Map<String, String> headers,
+      Verb httpVerb,
+      String completeUrl,
+      String body,
+      OAuthAsyncRequestCallback<T> callback,
+      OAuthRequest.ResponseConverter<T> converter) {
+    return sendAsync(
+        newRequest(userAgent, headers, httpVerb, completeUrl, publisher(body)),
+        callback,
+        converter);
+  }
+
+  @Override
+  public <T> Future<T> executeAsync(
+      String userAgent,
+      Map<String, String> headers,
+      Verb httpVerb,
+      String completeUrl,
+      File body,
+      OAuthAsyncRequestCallback<T> callback,
+      OAuthRequest.ResponseConverter<T> converter) {
+    BodyPublisher publisher;
+    try {
+      publisher = publisher(body);
+    } catch (FileNotFoundException e) {
+      return failed(e, callback);
+    }
+    return sendAsync(
+        newRequest(userAgent, headers, httpVerb, completeUrl, publisher), callback, converter);
+  }
+
+  /**
+   * Send a GET request for a document the plugin fetches itself, e.g. a JWKS.
+   *
+   * @param url URL of the document
+   * @param headers request headers
+   * @return future completed with the response
+   */
+  CompletableFuture<Response> getAsync(String url, Map<String, String> headers) {
+    return sendAsync(
+        newRequest(null, headers, Verb.GET, url, BodyPublishers.noBody()), null, null);
+  }
+
+  /**
+   * Open pooled connections to the host of a URL, or keep open the ones the pool has, by sending
+   * concurrent HEAD requests to the URL.
+   *
+   * @param url URL on the host, e.g. the token endpoint of an IdP
+   * @param connections number of concurrent requests
+   * @return future completed with true if all requests got a response, whatever its status
+   */
+  CompletableFuture<Boolean> connect(String url, int connections) {
+    CompletableFuture<?>[] requests = new CompletableFuture<?>[connections];
+    for (int i = 0; i < connections; i++) {
+      requests[i] =
+          sendAsync(
+              newRequest(null, ImmutableMap.of(), Verb.HEAD, url, BodyPublishers.noBody()),
+              null,
+              null);
+    }
+    return CompletableFuture.allOf(requests).handle((v, t) -> t == null);
+  }
+
+  @Override
+  public void close() {
+    // Shared by all providers: closing one OAuth20Service must not tear down the pool.
+  }
+
+  @Override
+  public void start() {}
+
+  @Override
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  private Response send(HttpRequest request) throws InterruptedException, IOException {
+    Semaphore permit = acquire(request.uri());
+    try {
+      return toResponse(client.send(request, BodyHandlers.ofByteArray()));
+    } finally {
+      permit.release();
+    }
+  }
+
+  private <T> CompletableFuture<T> sendAsync(
+      HttpRequest request,
+      OAuthAsyncRequestCallback<T> callback,
+      OAuthRequest.ResponseConverter<T> converter) {
+    Semaphore permit;
+    try {
+      permit = acquire(request.uri());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return failed(e, callback);
+    } catch (IOException e) {
+      return failed(e, callback);
+    }
+    CompletableFuture<T> result =
+        client
+            .sendAsync(request, BodyHandlers.ofByteArray())
+            .whenComplete((r, t) -> permit.release())
+            .thenApply(r -> convert(toResponse(r), converter));
+    if (callback != null) {
+      result.whenComplete(
+          (value, t) -> {
+            if (t != null) {
+              callback.onThrowable(t instanceof CompletionException ? t.getCause() : t);
+            } else {
+              callback.onCompleted(value);
+            }
+          });
+    }
+    return result;
+  }
+
+  private Semaphore acquire(URI uri) throws InterruptedException, IOException {
+    String host = uri.getHost() + ":" + uri.getPort();
+    Semaphore permit =
+        hostPermits.computeIfAbsent(host, h -> new Semaphore(maxRequestsPerHost, true));
+    if (!permit.tryAcquire(Deadline.cap(connectTimeout.toMillis()), MILLISECONDS)) {
+      throw new IOException(
+          String.format(
+              "Timed out waiting for one of %d concurrent requests to %s",
+              maxRequestsPerHost, uri.getHost()));
+    }
+    return permit;
+  }
+
+  private HttpRequest newRequest(
+      String userAgent,
+      Map<String, String> headers,
+      Verb verb,
+      String completeUrl,
+      BodyPublisher body) {
+    HttpRequest.Builder builder =
+        HttpRequest.newBuilder(URI.create(completeUrl))
+            .timeout(Duration.ofMillis(Deadline.cap(readTimeout.toMillis())))
+            .method(verb.name(), body);
+    boolean hasContentType = false;
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      String name = header.getKey().toLowerCase(Locale.US);
+      if (RESTRICTED_HEADERS.contains(name)) {
+        continue;
+      }
+      hasContentType |= name.equals(CONTENT_TYPE.toLowerCase(Locale.US));
+      builder.header(header.getKey(), header.getValue());
+    }
+    if (!hasContentType && body.contentLength() > 0) {
+      builder.header(CONTENT_TYPE, DEFAULT_CONTENT_TYPE);
+    }
+    if (userAgent != null) {
+      builder.header(USER_AGENT, userAgent);
+    }
+    return builder.build();
+  }
+
+  private static BodyPublisher publisher(byte[] body) {
+    return body == null || body.length == 0
+        ? BodyPublishers.noBody()
+        : BodyPublishers.ofByteArray(body);
+  }
+
+  private static BodyPublisher publisher(String body) {
+    return body == null || body.isEmpty()
+        ? BodyPublishers.noBody()
+        : BodyPublishers.ofString(body, StandardCharsets.UTF_8);
+  }
+
+  private static BodyPublisher publisher(File body) throws FileNotFoundException {
+    return body == null ? BodyPublishers.noBody() : BodyPublishers.ofFile(body.toPath());
+  }
+
+  private static Response toResponse(HttpResponse<byte[]> r) {
+    Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    for (Map.Entry<String, List<String>> header : r.headers().map().entrySet()) {
+      if (!header.getValue().isEmpty()) {
+        headers.put(header.getKey(), header.getValue().get(0));
+      }
+    }
+    return new Response(r.statusCode(), null, headers, new ByteArrayInputStream(r.body()));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T convert(Response response, OAuthRequest.ResponseConverter<T> converter) {
+    if (converter == null) {
+      return (T) response;
+    }
+    try {
+      return converter.convert(response);
+    } catch (IOException e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  private static <T> CompletableFuture<T> failed(
+      Exception e, OAuthAsyncRequestCallback<T> callback) {
+    if (callback != null) {
+      callback.onThrowable(e);
+    }
+    CompletableFuture<T> f = new CompletableFuture<>();
+    f.completeExceptionally(e);
+    return f;
+  }
+}
@@ -0,0 +1,351 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.github.scribejava.core.model.Response;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gson.JsonObject;
+import com.google.gson.internal.Streams;
+import com.google.gson.stream.JsonReader;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * OpenID Connect discovery of the endpoints of an issuer from its {@code
+ * .well-known/openid-configuration} document.
+ *
+ * <p>Documents are kept in memory and in the plugin data directory, so that after a restart, or on
+ * a new node that got a copy of the data directory, logins start from the stored document instead
+ * of waiting for the IdP. Once a document is older than the {@code max-age} announced by the IdP
+ * (1 day if none), it is revalidated in the background with its {@code ETag} while the stored
+ * document stays in use. Only the very first lookup of an issuer waits for the IdP, at most {@code
+ * discovery-timeout}. If no document can be retrieved, the fixed endpoints of the provider are
+ * used. A document that announces another issuer than the one it was retrieved for is rejected
+ * like a failed retrieval, the previous document or the fixed endpoints stay in use.
+ */
+@Singleton
+class OidcDiscovery {
+  private static final Logger log = LoggerFactory.getLogger(OidcDiscovery.class);
+
+  static final String DISCOVERY = "discovery";
+  static final String TIMEOUT = "discovery-timeout";
+  static final String WELL_KNOWN_PATH = "/.well-known/openid-configuration";
+
+  private static final long DEFAULT_TIMEOUT_MS = 5_000;
+  private static final long DEFAULT_MAX_AGE_MS = 86_400_000;
+  private static final long RETRY_AFTER_FAILURE_MS = 60_000;
+  private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+  private static final String[] ENDPOINTS = {
+    "authorization_endpoint", "token_endpoint", "userinfo_endpoint", "jwks_uri"
+  };
+  private static final String[] FIELDS = {
+    "issuer", "authorization_endpoint", "token_endpoint", "userinfo_endpoint", "jwks_uri"
+  };
+
+  @FunctionalInterface
+  interface Fetcher {
+    CompletableFuture<Response> fetch(String url, Map<String, String> headers);
+  }
+
+  /** Endpoints of one issuer, falling back to the given URL if they are not discovered. */
+  class Issuer {
+    private final String url;
+
+    private Issuer(String url) {
+      this.url = url;
+    }
+
+    String getAuthorizationEndpoint(String fallback) {
+      return get("authorization_endpoint", fallback);
+    }
+
+    String getTokenEndpoint(String fallback) {
+      return get("token_endpoint", fallback);
+    }
+
+    String getUserInfoEndpoint(String fallback) {
+      return get("userinfo_endpoint", fallback);
+    }
+
+    String getJwksUri(String fallback) {
+      return get("jwks_uri", fallback);
+    }
+
+    private String get(String name, String fallback) {
+      Document document = getDocument(url);
+      String endpoint = document != null ? document.endpoints.get(name) : null;
+      return endpoint != null ? endpoint : fallback;
+    }
+  }
+
+  private static class Document {
+    final String body;
+    final ImmutableMap<String, String> endpoints;
+    final String etag;
+    final long expiresAt;
+
+    Document(String body, ImmutableMap<String, String> endpoints, String etag, long expiresAt) {
+      this.body = body;
+      this.endpoints = endpoints;
+      this.etag = etag;
+      this.expiresAt = expiresAt;
+    }
+
+    Document withExpiry(long expiresAt) {
+      return new Document(body, endpoints, etag, expiresAt);
+    }
+
+    boolean isExpired() {
+      return System.currentTimeMillis() >= expiresAt;
+    }
+  }
+
+  private static final Document EMPTY = new Document(null, ImmutableMap.of(), null, 0);
+
+  private final Fetcher fetcher;
+  private final Path dir;
+  private final long timeoutMs;
+  private final ConcurrentMap<String, Document> documents = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, CompletableFuture<Document>> fetches =
+      new ConcurrentHashMap<>();
+
+  @Inject
+  OidcDiscovery(
+      OAuthHttpClient httpClient,
+      @PluginData Path pluginData,
+      PluginConfigFactory cfgFactory,
+      @PluginName String pluginName) {
+    this(httpClient, pluginData, cfgFactory.getFromGerritConfig(pluginName));
+  }
+
+  private OidcDiscovery(OAuthHttpClient httpClient, Path pluginData, PluginConfig cfg) {
+    this(fetcher(httpClient, new RetryPolicy(cfg)), pluginData, cfg);
+  }
+
+  private static Fetcher fetcher(OAuthHttpClient httpClient, RetryPolicy retryPolicy) {
+    return (url, headers) -> retryPolicy.executeAsync(() -> httpClient.getAsync(url, headers));
+  }
+
+  @VisibleForTesting
+  OidcDiscovery(Fetcher fetcher, Path pluginData, PluginConfig cfg) {
+    this.fetcher = fetcher;
+    this.dir = pluginData.resolve("oidc-discovery");
+    this.timeoutMs = OAuthConfigUtil.getTimeUnit(cfg, TIMEOUT, DEFAULT_TIMEOUT_MS, MILLISECONDS);
+  }
+
+  /**
+   * Get the endpoints of an issuer, if discovery is enabled for the provider.
+   *
+   * @param cfg provider config section
+   * @param issuerUrl issuer URL, to which {@value #WELL_KNOWN_PATH} is appended
+   * @return issuer, or null if {@code discovery} is not enabled
+   */
+  Issuer forIssuer(PluginConfig cfg, String issuerUrl) {
+    if (!cfg.getBoolean(DISCOVERY, false)) {
+      return null;
+    }
+    return new Issuer(CharMatcher.is('/').trimTrailingFrom(issuerUrl));
+  }
+
+  private Document getDocument(String issuer) {
+    Document document = documents.computeIfAbsent(issuer, this::read);
+    if (document == null) {
+      try {
+        return fetch(issuer, null).get(timeoutMs, MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      } catch (TimeoutException | ExecutionException e) {
+        log.warn("OAuth2: no discovery document for {} yet, using fixed endpoints", issuer);
+        return null;
+      }
+    }
+    if (document.isExpired()) {
+      fetch(issuer, document);
+    }
+    return document;
+  }
+
+  private CompletableFuture<Document> fetch(String issuer, Document current) {
+    CompletableFuture<Document> result = new CompletableFuture<>();
+    CompletableFuture<Document> running = fetches.putIfAbsent(issuer, result);
+    if (running != null) {
+      return running;
+    }
+    Map<String, String> headers =
+        current != null && current.etag != null
+            ? ImmutableMap.of("Accept", "application/json", "If-None-Match", current.etag)
+            : ImmutableMap.of("Accept", "application/json");
+    log.debug("OAuth2: fetching discovery document of {}", issuer);
+    fetcher
+        .fetch(issuer + WELL_KNOWN_PATH, headers)
+        .thenApply(response -> parse(issuer, current, response))
+        .whenComplete(
+            (document, t) -> {
+              if (t != null) {
+                log.warn("OAuth2: cannot fetch discovery document of {}", issuer, t);
+                // Keep using what we have, or the fixed endpoints, and retry later.
+                document =
+                    (current != null ? current : EMPTY)
+                        .withExpiry(System.currentTimeMillis() + RETRY_AFTER_FAILURE_MS);
+              } else {
+                write(issuer, document);
+              }
+              documents.put(issuer, document);
+              fetches.remove(issuer, result);
+              result.complete(document);
+            });
+    return result;
+  }
+
+  private static Document parse(String issuer, Document current, Response response) {
+    try (Response r = response) {
+      long expiresAt = System.currentTimeMillis() + maxAge(r.getHeader("Cache-Control"));
+      if (r.getCode() == 304 && current != null) {
+        return current.withExpiry(expiresAt);
+      }
+      if (r.getCode() != 200) {
+        throw new IllegalStateException(
+            String.format("Status %d for discovery document of %s", r.getCode(), issuer));
+      }
+      String body = r.getBody();
+      return new Document(body, endpoints(issuer, body), r.getHeader("ETag"), expiresAt);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot read discovery document of " + issuer, e);
+    }
+  }
+
+  private static ImmutableMap<String, String> endpoints(String issuer, String body) {
+    JsonObject json;
+    try {
+      json = JsonFields.parse(new StringReader(body), FIELDS);
+    } catch (IOException e) {
+      throw new IllegalStateException("Invalid discovery document of " + issuer, e);
+    }
+    // OpenID Connect Discovery 1.0, section 4.3: the issuer must be the one the document was
+    // retrieved for, otherwise the document must not be used.
+    String announced = JsonFields.getString(json, "issuer");
+    if (announced == null || !CharMatcher.is('/').trimTrailingFrom(announced).equals(issuer)) {
+      throw new IllegalStateException(
+          String.format("Discovery document of %s announces issuer %s", issuer, announced));
+    }
+    ImmutableMap.Builder<String, String> endpoints = ImmutableMap.builder();
+    for (String name : ENDPOINTS) {
+      String value = JsonFields.getString(json, name);
+      if (value != null) {
+        endpoints.put(name, value);
+      }
+    }
+    return endpoints.build();
+  }
+
+  private static long maxAge(String cacheControl) {
+    if (cacheControl != null) {
+      Matcher m = MAX_AGE.matcher(cacheControl);
+      if (m.find()) {
+        try {
+          return SECONDS.toMillis(Long.parseLong(m.group(1)));
+        } catch (NumberFormatException e) {
+          // Use the default.
+        }
+      }
+    }
+    return DEFAULT_MAX_AGE_MS;
+  }
+
+  private Path file(String issuer) {
+    return dir.resolve(Hashing.sha256().hashString(issuer, UTF_8) + ".json");
+  }
+
+  private Document read(String issuer) {
+    try {
+      JsonObject stored =
+          JsonFields.parse(
+              Files.newBufferedReader(file(issuer), UTF_8),
+              "issuer_url",
+              "etag",
+              "expires_at",
+              "document");
+      if (!issuer.equals(JsonFields.getString(stored, "issuer_url"))) {
+        return null;
+      }
+      String body = stored.get("document").toString();
+      return new Document(
+          body,
+          endpoints(issuer, body),
+          JsonFields.getString(stored, "etag"),
+          stored.get("expires_at").getAsLong());
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException | RuntimeException e) {
+      log.warn("OAuth2: ignoring stored discovery document of {}", issuer, e);
+      return null;
+    }
+  }
+
+  private void write(String issuer, Document document) {
+    JsonObject stored = new JsonObject();
+    stored.addProperty("issuer_url", issuer);
+    stored.addProperty("etag", document.etag);
+    stored.addProperty("expires_at", document.expiresAt);
+    stored.add("document", Streams.parse(new JsonReader(new StringReader(document.body))));
+    Path tmp = null;
+    try {
+      Files.createDirectories(dir);
+      tmp = Files.createTempFile(dir, "discovery", ".tmp");
+      Files.write(tmp, stored.toString().getBytes(UTF_8));
+      Files.move(tmp, file(issuer), REPLACE_EXISTING, ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("OAuth2: cannot store discovery document of {}", issuer, e);
+    } finally {
+      if (tmp != null) {
+        try {
+          // Only left over if the move failed.
+          Files.deleteIfExists(tmp);
+        } catch (IOException e) {
+          log.warn("OAuth2: cannot delete {}", tmp, e);
+        }
+      }
+    }
+  }
+}
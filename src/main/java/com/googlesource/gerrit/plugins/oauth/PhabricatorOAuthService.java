@@ -14,8 +14,6 @@
 
 package com.googlesource.gerrit.plugins.oauth;
 
-import static com.google.gerrit.json.OutputFormat.JSON;
-
 import com.github.scribejava.core.builder.ServiceBuilder;
 import com.github.scribejava.core.model.OAuth2AccessToken;
 import com.github.scribejava.core.model.OAuthRequest;
@@ -36,7 +34,7 @@ import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
-import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.oauth.IdpMetrics.Failure;
 import java.io.IOException;
 import java.net.URI;
 import java.util.concurrent.ExecutionException;
@@ -44,7 +42,6 @@ import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@Singleton
 class PhabricatorOAuthService implements OAuthServiceProvider {
   private static final Logger log = LoggerFactory.getLogger(PhabricatorOAuthService.class);
   static final String CONFIG_SUFFIX = "-phabricator-oauth";
@@ -52,12 +49,15 @@ class PhabricatorOAuthService implements OAuthServiceProvider {
   private static final String PROTECTED_RESOURCE_URL = "%s/api/user.whoami";
   private final String rootUrl;
   private final OAuth20Service service;
+  private final IdpClient idp;
 
   @Inject
   PhabricatorOAuthService(
       PluginConfigFactory cfgFactory,
       @PluginName String pluginName,
-      @CanonicalWebUrl Provider<String> urlProvider) {
+      @CanonicalWebUrl Provider<String> urlProvider,
+      OAuthHttpClient httpClient,
+      IdpClients idpClients) {
     PluginConfig cfg = cfgFactory.getFromGerritConfig(pluginName + CONFIG_SUFFIX);
     String canonicalWebUrl = CharMatcher.is('/').trimTrailingFrom(urlProvider.get()) + "/";
     rootUrl = cfg.getString(InitOAuth.ROOT_URL);
@@ -67,8 +67,11 @@ class PhabricatorOAuthService implements OAuthServiceProvider {
     this.service =
         new ServiceBuilder(cfg.getString(InitOAuth.CLIENT_ID))
             .apiSecret(cfg.getString(InitOAuth.CLIENT_SECRET))
+            .httpClient(httpClient)
             .callback(canonicalWebUrl + "oauth")
             .build(new PhabricatorApi(rootUrl));
+    this.idp = idpClients.create(CONFIG_SUFFIX, cfg, service);
+    this.idp.setEndpoints(() -> String.format(PROTECTED_RESOURCE_URL, rootUrl), null);
     if (log.isDebugEnabled()) {
       log.debug("OAuth2: canonicalWebUrl={}", canonicalWebUrl);
     }
@@ -76,60 +79,58 @@ class PhabricatorOAuthService implements OAuthServiceProvider {
 
   @Override
   public OAuthUserInfo getUserInfo(OAuthToken token) throws IOException {
+    return idp.getUserInfo(token, this::fetchUserInfo);
+  }
+
+  private OAuthUserInfo fetchUserInfo(OAuthToken token) throws IOException {
     OAuthRequest request =
         new OAuthRequest(Verb.GET, String.format(PROTECTED_RESOURCE_URL, rootUrl));
     OAuth2AccessToken t = new OAuth2AccessToken(token.getToken(), token.getRaw());
     service.signRequest(t, request);
 
-    JsonElement userJson = null;
-    try (Response response = service.execute(request)) {
+    try (Response response = idp.execute(request)) {
       if (response.getCode() != HttpServletResponse.SC_OK) {
         throw new IOException(
             String.format(
                 "Status %s (%s) for request %s",
                 response.getCode(), response.getBody(), request.getUrl()));
       }
-      userJson = JSON.newGson().fromJson(response.getBody(), JsonElement.class);
       if (log.isDebugEnabled()) {
         log.debug("User info response: {}", response.getBody());
       }
-      if (userJson.isJsonObject()) {
-        JsonObject jsonObject = userJson.getAsJsonObject();
-        JsonElement jsonResult = jsonObject.get("result");
-        if (jsonResult == null) {
-          throw new IOException("Response doesn't contain result field");
-        }
-        JsonObject resultObject = jsonResult.getAsJsonObject();
-        JsonElement id = resultObject.get("phid");
-        if (id == null || id.isJsonNull()) {
-          throw new IOException("Response doesn't contain id field");
-        }
-        JsonElement email = resultObject.get("primaryEmail");
-        JsonElement name = resultObject.get("realName");
-        JsonElement username = resultObject.get("userName");
-        String login = null;
+      JsonObject jsonObject = JsonFields.parse(response.getBody(), "result");
+      JsonElement jsonResult = jsonObject.get("result");
+      if (jsonResult == null) {
+        throw new IdpResponseException(Failure.MISSING_ID, "Response doesn't contain result field");
+      }
+      JsonObject resultObject = jsonResult.getAsJsonObject();
+      JsonElement id = resultObject.get("phid");
+      if (id == null || id.isJsonNull()) {
+        throw new IdpResponseException(Failure.MISSING_ID, "Response doesn't contain id field");
+      }
+      JsonElement email = resultObject.get("primaryEmail");
+      JsonElement name = resultObject.get("realName");
+      JsonElement username = resultObject.get("userName");
+      String login = null;
 
-        if (!username.isJsonNull()) {
-          login = username.getAsString();
-        }
-        return new OAuthUserInfo(
-            PHABRICATOR_PROVIDER_PREFIX + id.getAsString() /*externalId*/,
-            login /*username*/,
-            email == null || email.isJsonNull() ? null : email.getAsString() /*email*/,
-            name == null || name.isJsonNull() ? null : name.getAsString() /*displayName*/,
-            null);
+      if (!username.isJsonNull()) {
+        login = username.getAsString();
       }
+      return new OAuthUserInfo(
+          PHABRICATOR_PROVIDER_PREFIX + id.getAsString() /*externalId*/,
+          login /*username*/,
+          email == null || email.isJsonNull() ? null : email.getAsString() /*email*/,
+          name == null || name.isJsonNull() ? null : name.getAsString() /*displayName*/,
+          null);
     } catch (ExecutionException | InterruptedException e) {
       throw new RuntimeException("Cannot retrieve user info resource", e);
     }
-
-    throw new IOException(String.format("Invalid JSON '%s': not a JSON Object", userJson));
   }
 
   @Override
   public OAuthToken getAccessToken(OAuthVerifier rv) {
     try {
-      OAuth2AccessToken accessToken = service.getAccessToken(rv.getValue());
+      OAuth2AccessToken accessToken = idp.getAccessToken(rv.getValue());
       return new OAuthToken(
           accessToken.getAccessToken(), accessToken.getTokenType(), accessToken.getRawResponse());
     } catch (InterruptedException | ExecutionException | IOException e) {
@@ -0,0 +1,129 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import com.google.gerrit.extensions.auth.oauth.OAuthServiceProvider;
+import com.google.gerrit.server.config.PluginConfig;
+
+/**
+ * The providers of the plugin. {@link HttpModule} binds each provider that has a client id in its
+ * config section.
+ */
+enum ProviderType {
+  GOOGLE(GoogleOAuthService.CONFIG_SUFFIX, GoogleOAuthService.class, "Google OAuth2"),
+  GITHUB(
+      GitHubOAuthService.CONFIG_SUFFIX,
+      GitHubOAuthService.class,
+      "GitHub OAuth2",
+      GitLogin.ACCESS_TOKEN),
+  BITBUCKET(BitbucketOAuthService.CONFIG_SUFFIX, BitbucketOAuthService.class, "Bitbucket OAuth2"),
+  CAS(CasOAuthService.CONFIG_SUFFIX, CasOAuthService.class, "Generic CAS OAuth2"),
+  FACEBOOK(FacebookOAuthService.CONFIG_SUFFIX, FacebookOAuthService.class, "Facebook OAuth2"),
+  GITLAB(
+      GitLabOAuthService.CONFIG_SUFFIX,
+      GitLabOAuthService.class,
+      "GitLab OAuth2",
+      GitLogin.ACCESS_TOKEN),
+  LEMONLDAP(
+      LemonLDAPOAuthService.CONFIG_SUFFIX,
+      LemonLDAPOAuthService.class,
+      "LemonLDAP::NG OAuth2 provider",
+      GitLogin.PASSWORD),
+  DEX(DexOAuthService.CONFIG_SUFFIX, DexOAuthService.class, "Dex OAuth2", GitLogin.PASSWORD),
+  KEYCLOAK(
+      KeycloakOAuthService.CONFIG_SUFFIX,
+      KeycloakOAuthService.class,
+      "Keycloak OAuth2",
+      GitLogin.PASSWORD),
+  AZURE(
+      AzureActiveDirectoryService.CONFIG_SUFFIX,
+      AzureActiveDirectoryService.class,
+      "Office365 OAuth2",
+      GitLogin.PASSWORD),
+  AIRVANTAGE(
+      AirVantageOAuthService.CONFIG_SUFFIX, AirVantageOAuthService.class, "AirVantage OAuth2"),
+  PHABRICATOR(
+      PhabricatorOAuthService.CONFIG_SUFFIX, PhabricatorOAuthService.class, "Phabricator OAuth2");
+
+  /** How a provider logs in git clients over HTTP. */
+  enum GitLogin {
+    NONE,
+    /** With user name and password, through the password grant of the IdP. */
+    PASSWORD,
+    /** With user name and a personal access token, if {@code personal-access-tokens} is set. */
+    ACCESS_TOKEN
+  }
+
+  private final String configSuffix;
+  private final Class<? extends OAuthServiceProvider> implementation;
+  private final String defaultName;
+  private final GitLogin gitLogin;
+
+  ProviderType(
+      String configSuffix,
+      Class<? extends OAuthServiceProvider> implementation,
+      String defaultName) {
+    this(configSuffix, implementation, defaultName, GitLogin.NONE);
+  }
+
+  ProviderType(
+      String configSuffix,
+      Class<? extends OAuthServiceProvider> implementation,
+      String defaultName,
+      GitLogin gitLogin) {
+    this.configSuffix = configSuffix;
+    this.implementation = implementation;
+    this.defaultName = defaultName;
+    this.gitLogin = gitLogin;
+  }
+
+  /** Config suffix of the provider, also the name under which it is exported. */
+  String getConfigSuffix() {
+    return configSuffix;
+  }
+
+  Class<? extends OAuthServiceProvider> getImplementation() {
+    return implementation;
+  }
+
+  /**
+   * Whether the provider also logs in git clients over HTTP.
+   *
+   * @param cfg config section of the provider
+   */
+  boolean hasGitLogin(PluginConfig cfg) {
+    switch (gitLogin) {
+      case PASSWORD:
+        return true;
+      case ACCESS_TOKEN:
+        return cfg.getBoolean(IdpClient.PERSONAL_ACCESS_TOKENS, false);
+      case NONE:
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Get the name of the provider shown on the login page, without building the provider.
+   *
+   * @param cfg config section of the provider
+   * @return configured {@code service-name} for Dex and Keycloak, the fixed name otherwise
+   */
+  String getName(PluginConfig cfg) {
+    return this == DEX || this == KEYCLOAK
+        ? cfg.getString(InitOAuth.SERVICE_NAME, defaultName)
+        : defaultName;
+  }
+}
@@ -0,0 +1,202 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import com.github.scribejava.core.model.OAuth2AccessToken;
+import com.google.common.cache.Cache;
+import com.google.common.io.BaseEncoding;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.security.SecureRandom;
+import java.time.Duration;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Refresh tokens of web logins, with which {@link IdpClient} logs the browser in again once its
+ * Gerrit session expired, by one back-channel call instead of the interactive redirect.
+ *
+ * <p>A grant is kept under a random handle, which is sent to the browser of the login in an
+ * HttpOnly cookie. Only a request with that cookie can use the grant. When the browser has to log
+ * in again, the access token is renewed with the refresh token and handed to Gerrit as if the IdP
+ * had issued it for a code, so that the login checks the user info with the renewed token. A grant
+ * the IdP refuses to renew, e.g. because the user was logged out or disabled there, is removed,
+ * and so is the grant of a browser that logs out of Gerrit.
+ *
+ * <p>Grants are only kept in memory, for at most {@link #MAX_AGE} after the interactive login.
+ */
+@Singleton
+class RefreshTokenStore {
+  static final String CACHE_NAME = "refresh_tokens";
+  static final String COOKIE = "GerritOAuthGrant";
+  static final Duration MAX_AGE = Duration.ofDays(7);
+
+  private static final BaseEncoding HANDLE = BaseEncoding.base64Url().omitPadding();
+
+  /** Outcome of a renewal, counted in {@code idp/token_renewals}. */
+  enum Outcome {
+    /** The IdP issued a new access token. */
+    RENEWED,
+    /** The IdP refused the refresh token, the grant was removed. */
+    REFUSED,
+    /** The IdP couldn't be reached, the browser logs in interactively. */
+    FAILED
+  }
+
+  static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, String.class, Grant.class)
+            .maximumWeight(10_000)
+            .expireAfterWrite(MAX_AGE);
+        bind(RefreshTokenStore.class);
+      }
+    };
+  }
+
+  /** Refresh token of a login, with the access token last renewed for it. */
+  static class Grant {
+    private final String provider;
+    private final String handle;
+    private volatile String refreshToken;
+    private OAuth2AccessToken renewed;
+
+    private Grant(String provider, String handle, String refreshToken) {
+      this.provider = provider;
+      this.handle = handle;
+      this.refreshToken = refreshToken;
+    }
+
+    String getProvider() {
+      return provider;
+    }
+
+    String getHandle() {
+      return handle;
+    }
+
+    String getRefreshToken() {
+      return refreshToken;
+    }
+
+    /**
+     * Keep a renewed access token until the login it was renewed for asks for it, and the new
+     * refresh token if the IdP rotated it.
+     */
+    synchronized void renewed(OAuth2AccessToken token) {
+      if (token.getRefreshToken() != null) {
+        refreshToken = token.getRefreshToken();
+      }
+      renewed = token;
+    }
+
+    /** Get the renewed access token, once. */
+    synchronized OAuth2AccessToken takeRenewed() {
+      OAuth2AccessToken token = renewed;
+      renewed = null;
+      return token;
+    }
+  }
+
+  private final Cache<String, Grant> cache;
+  private final SecureRandom random = new SecureRandom();
+
+  @Inject
+  RefreshTokenStore(@Named(CACHE_NAME) Cache<String, Grant> cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Keep the refresh token of a login, if the token response has one, and send its handle to the
+   * browser. A grant the browser had before is removed.
+   *
+   * @param provider name of the provider
+   * @param token response of the token exchange of the login
+   * @param req request of the browser
+   * @param res response to the request
+   */
+  void put(
+      String provider, OAuth2AccessToken token, HttpServletRequest req, HttpServletResponse res) {
+    if (token.getRefreshToken() == null) {
+      return;
+    }
+    String previous = getHandle(req);
+    if (previous != null) {
+      cache.invalidate(previous);
+    }
+    byte[] handle = new byte[32];
+    random.nextBytes(handle);
+    Grant grant = new Grant(provider, HANDLE.encode(handle), token.getRefreshToken());
+    cache.put(grant.handle, grant);
+    res.addCookie(newCookie(req, grant.handle, (int) MAX_AGE.getSeconds()));
+  }
+
+  /**
+   * Get the grant of the browser sending a request.
+   *
+   * @param provider name of the provider
+   * @param req request of the browser
+   * @return grant, or null if the browser has none for the provider
+   */
+  Grant get(String provider, HttpServletRequest req) {
+    String handle = getHandle(req);
+    Grant grant = handle != null ? cache.getIfPresent(handle) : null;
+    return grant != null && grant.provider.equals(provider) ? grant : null;
+  }
+
+  void remove(Grant grant) {
+    cache.asMap().remove(grant.handle, grant);
+  }
+
+  /**
+   * Remove the grant of the browser sending a request, and the cookie that refers to it.
+   *
+   * @param req request of the browser
+   * @param res response to the request
+   */
+  void remove(HttpServletRequest req, HttpServletResponse res) {
+    String handle = getHandle(req);
+    if (handle != null) {
+      cache.invalidate(handle);
+      res.addCookie(newCookie(req, "", 0));
+    }
+  }
+
+  private static Cookie newCookie(HttpServletRequest req, String value, int maxAge) {
+    Cookie cookie = new Cookie(COOKIE, value);
+    cookie.setPath(req.getContextPath() + "/");
+    cookie.setMaxAge(maxAge);
+    cookie.setHttpOnly(true);
+    cookie.setSecure(req.isSecure());
+    return cookie;
+  }
+
+  private static String getHandle(HttpServletRequest req) {
+    Cookie[] cookies = req.getCookies();
+    if (cookies != null) {
+      for (Cookie cookie : cookies) {
+        if (COOKIE.equals(cookie.getName()) && !cookie.getValue().isEmpty()) {
+          return cookie.getValue();
+        }
+      }
+    }
+    return null;
+  }
+}
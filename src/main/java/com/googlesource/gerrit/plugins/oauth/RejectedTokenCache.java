@@ -0,0 +1,100 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import com.google.common.cache.Cache;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.time.Duration;
+
+/**
+ * Negative cache of access tokens for which a provider refused to return user info, e.g. because
+ * the hosted domain or tenant didn't match. Keyed like {@link UserInfoCache}, the value is the
+ * reason of the rejection.
+ *
+ * <p>Repeated logins with a rejected token fail without decoding the token again or calling the
+ * IdP, until the entry expires after a few minutes.
+ */
+@Singleton
+class RejectedTokenCache {
+  static final String CACHE_NAME = "rejected_tokens";
+
+  static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, String.class, String.class)
+            .maximumWeight(1024)
+            .expireAfterWrite(Duration.ofMinutes(5));
+        bind(RejectedTokenCache.class);
+      }
+    };
+  }
+
+  private final Cache<String, String> cache;
+  private final Counter0 rejected;
+  private final Counter0 shortCircuited;
+
+  @Inject
+  RejectedTokenCache(@Named(CACHE_NAME) Cache<String, String> cache, MetricMaker metricMaker) {
+    this.cache = cache;
+    this.rejected =
+        metricMaker.newCounter(
+            "rejected_tokens/rejected",
+            new Description("Access tokens for which a provider refused to return user info")
+                .setRate()
+                .setUnit("tokens"));
+    this.shortCircuited =
+        metricMaker.newCounter(
+            "rejected_tokens/short_circuited",
+            new Description("Logins refused from the rejected token cache without calling the IdP")
+                .setRate()
+                .setUnit("logins"));
+  }
+
+  /**
+   * Get the reason why a token was rejected before.
+   *
+   * @param provider name of the provider
+   * @param accessToken access token
+   * @return reason of the rejection, or null if the token wasn't rejected recently
+   */
+  String getRejection(String provider, String accessToken) {
+    String reason = cache.getIfPresent(UserInfoCache.key(provider, accessToken));
+    if (reason != null) {
+      shortCircuited.increment();
+    }
+    return reason;
+  }
+
+  /**
+   * Remember that a provider rejected a token. The first reason recorded for a token is kept.
+   *
+   * @param provider name of the provider
+   * @param accessToken access token
+   * @param reason short description of why the token was rejected
+   */
+  void reject(String provider, String accessToken, String reason) {
+    if (cache.asMap().putIfAbsent(UserInfoCache.key(provider, accessToken), reason) == null) {
+      rejected.increment();
+    }
+  }
+}
@@ -0,0 +1,218 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.github.scribejava.core.model.Response;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.gerrit.server.config.PluginConfig;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retries of idempotent requests to an IdP that failed for a transient reason: a 5xx or 429
+ * response, or a connection that was refused or reset.
+ *
+ * <p>The delay before retry {@code n} is drawn from the upper half of {@code retry-initial-backoff
+ * * 2^n}, capped at {@code retry-max-backoff}, or is the {@code Retry-After} of the response if
+ * that is longer. No retry is started that would end after {@code retry-budget} from the first
+ * attempt, or after the {@link Deadline} of the login; the last response or exception is returned
+ * instead.
+ */
+class RetryPolicy {
+  private static final Logger log = LoggerFactory.getLogger(RetryPolicy.class);
+
+  @FunctionalInterface
+  interface Attempt {
+    Response call() throws InterruptedException, ExecutionException, IOException;
+  }
+
+  static final String RETRIES = "retries";
+  static final String INITIAL_BACKOFF = "retry-initial-backoff";
+  static final String MAX_BACKOFF = "retry-max-backoff";
+  static final String BUDGET = "retry-budget";
+
+  private static final int DEFAULT_RETRIES = 0;
+  private static final long DEFAULT_INITIAL_BACKOFF_MS = 200;
+  private static final long DEFAULT_MAX_BACKOFF_MS = 2_000;
+  private static final long DEFAULT_BUDGET_MS = 5_000;
+
+  private final int retries;
+  private final long initialBackoffMs;
+  private final long maxBackoffMs;
+  private final long budgetMs;
+
+  RetryPolicy(PluginConfig cfg) {
+    this.retries = Math.max(0, cfg.getInt(RETRIES, DEFAULT_RETRIES));
+    this.initialBackoffMs =
+        OAuthConfigUtil.getTimeUnit(cfg, INITIAL_BACKOFF, DEFAULT_INITIAL_BACKOFF_MS, MILLISECONDS);
+    this.maxBackoffMs =
+        OAuthConfigUtil.getTimeUnit(cfg, MAX_BACKOFF, DEFAULT_MAX_BACKOFF_MS, MILLISECONDS);
+    this.budgetMs = OAuthConfigUtil.getTimeUnit(cfg, BUDGET, DEFAULT_BUDGET_MS, MILLISECONDS);
+  }
+
+  /**
+   * Run an idempotent request, retrying it on transient failures. The calling thread sleeps
+   * between the attempts.
+   *
+   * @param attempt sends the request once
+   * @return the first response that is not retried
+   * @throws IOException if the last attempt failed
+   */
+  Response execute(Attempt attempt) throws InterruptedException, ExecutionException, IOException {
+    long start = System.nanoTime();
+    long budgetMs = Deadline.cap(this.budgetMs);
+    for (int n = 0; ; n++) {
+      Response response;
+      try {
+        response = attempt.call();
+      } catch (IOException e) {
+        long delay = n < retries && isTransient(e) ? delayMs(n, null, start, budgetMs) : -1;
+        if (delay < 0) {
+          throw e;
+        }
+        log.debug("OAuth2: retrying request in {} ms after {}", delay, e.toString());
+        MILLISECONDS.sleep(delay);
+        continue;
+      }
+      long delay =
+          n < retries && isTransient(response) ? delayMs(n, response, start, budgetMs) : -1;
+      if (delay < 0) {
+        return response;
+      }
+      log.debug("OAuth2: retrying request in {} ms after status {}", delay, response.getCode());
+      response.close();
+      MILLISECONDS.sleep(delay);
+    }
+  }
+
+  /**
+   * Run an idempotent asynchronous request, retrying it on transient failures without blocking a
+   * thread between the attempts.
+   *
+   * @param attempt sends the request once
+   * @return future of the first response that is not retried
+   */
+  CompletableFuture<Response> executeAsync(Supplier<CompletableFuture<Response>> attempt) {
+    CompletableFuture<Response> result = new CompletableFuture<>();
+    attemptAsync(attempt, 0, System.nanoTime(), result);
+    return result;
+  }
+
+  private void attemptAsync(
+      Supplier<CompletableFuture<Response>> attempt,
+      int n,
+      long start,
+      CompletableFuture<Response> result) {
+    attempt
+        .get()
+        .whenComplete(
+            (response, t) -> {
+              Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+              long delay = -1;
+              if (n < retries) {
+                if (response != null && isTransient(response)) {
+                  delay = delayMs(n, response, start, budgetMs);
+                } else if (cause instanceof IOException && isTransient((IOException) cause)) {
+                  delay = delayMs(n, null, start, budgetMs);
+                }
+              }
+              if (delay < 0) {
+                if (cause != null) {
+                  result.completeExceptionally(cause);
+                } else {
+                  result.complete(response);
+                }
+                return;
+              }
+              if (response != null) {
+                closeQuietly(response);
+              }
+              CompletableFuture.delayedExecutor(delay, MILLISECONDS)
+                  .execute(() -> attemptAsync(attempt, n + 1, start, result));
+            });
+  }
+
+  /**
+   * Compute the delay before retry {@code n}.
+   *
+   * @return delay in milliseconds, or -1 if the retry would end after the budget
+   */
+  private long delayMs(int n, Response response, long start, long budgetMs) {
+    long backoff = Math.min(maxBackoffMs, initialBackoffMs << Math.min(n, 30));
+    long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    if (response != null) {
+      delay = Math.max(delay, retryAfterMs(response.getHeader("Retry-After")));
+    }
+    long elapsed = NANOSECONDS.toMillis(System.nanoTime() - start);
+    return elapsed + delay < budgetMs ? delay : -1;
+  }
+
+  @VisibleForTesting
+  static long retryAfterMs(String retryAfter) {
+    if (retryAfter == null) {
+      return 0;
+    }
+    try {
+      return SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+    } catch (NumberFormatException e) {
+      // Not delay-seconds, try an HTTP-date.
+    }
+    try {
+      ZonedDateTime at =
+          ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+      return Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toMillis());
+    } catch (DateTimeParseException e) {
+      return 0;
+    }
+  }
+
+  private static boolean isTransient(Response response) {
+    int code = response.getCode();
+    return code == 429 || (code >= 500 && code != 501);
+  }
+
+  private static boolean isTransient(IOException e) {
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      if (t instanceof SocketException || t instanceof EOFException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void closeQuietly(Response response) {
+    try {
+      response.close();
+    } catch (IOException e) {
+      // Nothing was read from it.
+    }
+  }
+}
@@ -0,0 +1,97 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.httpd.AllRequestFilter;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Falls back to the interactive login after a silent login ({@code prompt=none}) failed.
+ *
+ * <p>If the user has no session at the IdP, or has to consent first, the IdP answers a silent
+ * authorization request with an error like {@code login_required} instead of a code. Gerrit
+ * doesn't handle such a callback. This filter marks the browser with a short-lived cookie and
+ * restarts the login, for which {@link IdpClient#getAuthorizationUrl} then returns the interactive
+ * URL.
+ */
+@Singleton
+class SilentLoginFilter extends AllRequestFilter {
+  private static final Logger log = LoggerFactory.getLogger(SilentLoginFilter.class);
+
+  static final String COOKIE = "GerritOAuthInteractiveLogin";
+
+  private static final int COOKIE_MAX_AGE_SECONDS = 300;
+
+  /** Errors of a silent authorization request that ask for the interactive one. */
+  private static final ImmutableSet<String> ERRORS =
+      ImmutableSet.of(
+          "login_required",
+          "interaction_required",
+          "consent_required",
+          "account_selection_required");
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    if (request instanceof HttpServletRequest
+        && response instanceof HttpServletResponse
+        && isFailedSilentLogin((HttpServletRequest) request)) {
+      HttpServletRequest req = (HttpServletRequest) request;
+      log.debug("OAuth2: silent login failed: {}", req.getParameter("error"));
+      Cookie cookie = new Cookie(COOKIE, "1");
+      cookie.setPath(req.getContextPath() + "/");
+      cookie.setMaxAge(COOKIE_MAX_AGE_SECONDS);
+      cookie.setHttpOnly(true);
+      cookie.setSecure(req.isSecure());
+      HttpServletResponse res = (HttpServletResponse) response;
+      res.addCookie(cookie);
+      res.sendRedirect(req.getContextPath() + "/login/");
+      return;
+    }
+    chain.doFilter(request, response);
+  }
+
+  private static boolean isFailedSilentLogin(HttpServletRequest req) {
+    String error = req.getParameter("error");
+    return error != null
+        && ERRORS.contains(error)
+        && req.getParameter("code") == null
+        && req.getRequestURI().equals(req.getContextPath() + "/oauth");
+  }
+
+  /** Whether a silent login of the browser sending the request failed recently. */
+  static boolean isInteractive(HttpServletRequest req) {
+    Cookie[] cookies = req.getCookies();
+    if (cookies != null) {
+      for (Cookie cookie : cookies) {
+        if (COOKIE.equals(cookie.getName())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gerrit.extensions.auth.oauth.OAuthToken;
+import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cache of user info responses, keyed by provider and the SHA-256 of the access token.
+ *
+ * <p>Entries live until the access token expires, as announced by {@code expires_in} in the token
+ * response, but not longer than the {@code maxAge} of the cache. Concurrent lookups for the same
+ * token, e.g. double submitted callbacks, share a single call to the IdP.
+ */
+@Singleton
+class UserInfoCache {
+  static final String CACHE_NAME = "userinfo";
+
+  @FunctionalInterface
+  interface Loader {
+    OAuthUserInfo load(OAuthToken token) throws IOException;
+  }
+
+  static class Entry {
+    final OAuthUserInfo userInfo;
+    final long expiresAt;
+
+    Entry(OAuthUserInfo userInfo, long expiresAt) {
+      this.userInfo = userInfo;
+      this.expiresAt = expiresAt;
+    }
+
+    boolean isExpired() {
+      return System.currentTimeMillis() >= expiresAt;
+    }
+  }
+
+  static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, String.class, Entry.class)
+            .maximumWeight(4096)
+            .expireAfterWrite(Duration.ofMinutes(10));
+        bind(UserInfoCache.class);
+      }
+    };
+  }
+
+  // Thrown by the cache loader when the provider rejected the token.
+  private static class NoUserInfo extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    NoUserInfo() {
+      super(null, null, false, false);
+    }
+  }
+
+  private final Cache<String, Entry> cache;
+
+  @Inject
+  UserInfoCache(@Named(CACHE_NAME) Cache<String, Entry> cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Get the user info for a token, loading it from the IdP on a cache miss.
+   *
+   * @param provider name of the provider
+   * @param token access token
+   * @param loader retrieves the user info from the IdP
+   * @return user info, or null if the provider rejected the token
+   * @throws IOException if the user info couldn't be retrieved
+   */
+  OAuthUserInfo get(String provider, OAuthToken token, Loader loader) throws IOException {
+    String key = key(provider, token.getToken());
+    Entry entry = cache.getIfPresent(key);
+    if (entry != null) {
+      if (!entry.isExpired()) {
+        return entry.userInfo;
+      }
+      cache.invalidate(key);
+    }
+    try {
+      return cache
+          .get(
+              key,
+              () -> {
+                OAuthUserInfo userInfo = loader.load(token);
+                if (userInfo == null) {
+                  throw new NoUserInfo();
+                }
+                return new Entry(userInfo, expiresAt(token.getRaw()));
+              })
+          .userInfo;
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof NoUserInfo) {
+        return null;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  static String key(String provider, String accessToken) {
+    return provider + ":" + Hashing.sha256().hashString(accessToken, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Compute the expiry of a token from the {@code expires_in} field of the raw token response,
+   * which is either JSON or form encoded.
+   *
+   * @return expiry in milliseconds since the epoch, {@link Long#MAX_VALUE} if unknown
+   */
+  static long expiresAt(String rawResponse) {
+    String expiresIn = null;
+    if (rawResponse != null) {
+      if (rawResponse.trim().startsWith("{")) {
+        try {
+          expiresIn =
+              JsonFields.getString(JsonFields.parse(rawResponse, "expires_in"), "expires_in");
+        } catch (IOException e) {
+          // Treat as unknown expiry.
+        }
+      } else {
+        for (String param : Splitter.on('&').split(rawResponse)) {
+          if (param.startsWith("expires_in=")) {
+            expiresIn = param.substring("expires_in=".length());
+          }
+        }
+      }
+    }
+    if (expiresIn != null) {
+      try {
+        return System.currentTimeMillis() + SECONDS.toMillis(Long.parseLong(expiresIn.trim()));
+      } catch (NumberFormatException e) {
+        // Treat as unknown expiry.
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+}
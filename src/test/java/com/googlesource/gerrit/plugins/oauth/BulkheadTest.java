@@ -0,0 +1,70 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.gerrit.server.config.PluginConfig;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class BulkheadTest {
+
+  private static Bulkhead bulkhead(int queued, String wait) {
+    PluginConfig.Update cfg =
+        PluginConfig.Update.forTest("gerrit-oauth-provider-github-oauth", new Config());
+    cfg.setInt(Bulkhead.MAX_CONCURRENT_CALLS, 1);
+    cfg.setInt(Bulkhead.MAX_QUEUED_CALLS, queued);
+    cfg.setString(Bulkhead.MAX_QUEUE_WAIT, wait);
+    return new Bulkhead("github-oauth", cfg.asPluginConfig());
+  }
+
+  @Test
+  public void callBeyondQueueFailsRightAway() throws Exception {
+    Bulkhead bulkhead = bulkhead(0, "1 min");
+    bulkhead.acquire();
+    long start = System.nanoTime();
+    assertThrows(Bulkhead.FullException.class, bulkhead::acquire);
+    assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)).isLessThan(1);
+  }
+
+  @Test
+  public void queuedCallFailsAfterMaxQueueWait() throws Exception {
+    Bulkhead bulkhead = bulkhead(1, "20 ms");
+    bulkhead.acquire();
+    assertThrows(Bulkhead.FullException.class, bulkhead::acquire);
+  }
+
+  @Test
+  public void queuedCallGetsReleasedSlot() throws Exception {
+    Bulkhead bulkhead = bulkhead(1, "1 min");
+    bulkhead.acquire();
+    CompletableFuture<Void> queued =
+        CompletableFuture.runAsync(
+            () -> {
+              try {
+                bulkhead.acquire();
+              } catch (Exception e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    bulkhead.release();
+    queued.get(10, TimeUnit.SECONDS);
+    assertThat(queued.isCompletedExceptionally()).isFalse();
+  }
+}
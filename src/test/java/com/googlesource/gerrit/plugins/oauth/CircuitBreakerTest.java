@@ -0,0 +1,141 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertThrows;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.googlesource.gerrit.plugins.oauth.CircuitBreaker.State;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+  private static final long FAST = 1;
+  private static final long SLOW = SECONDS.toNanos(20);
+
+  private final AtomicLong now = new AtomicLong();
+  private PluginConfig.Update cfg;
+
+  @Before
+  public void setUp() {
+    cfg = PluginConfig.Update.forTest("gerrit-oauth-provider-keycloak-oauth", new Config());
+    cfg.setString(CircuitBreaker.WINDOW, "4");
+    cfg.setString(CircuitBreaker.HALF_OPEN_CALLS, "2");
+  }
+
+  private CircuitBreaker breaker() {
+    return new CircuitBreaker("keycloak-oauth", cfg.asPluginConfig(), now::get);
+  }
+
+  private static void call(CircuitBreaker breaker, long nanos, boolean failed) throws Exception {
+    breaker.acquire();
+    breaker.record(nanos, failed);
+  }
+
+  @Test
+  public void staysClosedBelowFailureRate() throws Exception {
+    CircuitBreaker breaker = breaker();
+    call(breaker, FAST, true);
+    call(breaker, FAST, false);
+    call(breaker, FAST, false);
+    call(breaker, FAST, false);
+    call(breaker, FAST, true);
+    assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  public void opensAtFailureRateAndFailsFast() throws Exception {
+    CircuitBreaker breaker = breaker();
+    call(breaker, FAST, false);
+    call(breaker, FAST, false);
+    call(breaker, FAST, true);
+    assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+    call(breaker, FAST, true);
+    assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    assertThrows(CircuitBreaker.OpenException.class, breaker::acquire);
+  }
+
+  @Test
+  public void opensWhenAllCallsAreSlow() throws Exception {
+    CircuitBreaker breaker = breaker();
+    for (int i = 0; i < 4; i++) {
+      call(breaker, SLOW, false);
+    }
+    assertThat(breaker.getState()).isEqualTo(State.OPEN);
+  }
+
+  @Test
+  public void closesAfterSuccessfulTrialCalls() throws Exception {
+    CircuitBreaker breaker = breaker();
+    for (int i = 0; i < 4; i++) {
+      call(breaker, FAST, true);
+    }
+    now.addAndGet(SECONDS.toNanos(30));
+    breaker.acquire();
+    breaker.acquire();
+    assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+    // Only half-open-calls trial calls are let through.
+    assertThrows(CircuitBreaker.OpenException.class, breaker::acquire);
+    breaker.record(FAST, false);
+    breaker.record(FAST, false);
+    assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+    call(breaker, FAST, false);
+  }
+
+  @Test
+  public void releasedTrialCallIsNotCounted() throws Exception {
+    CircuitBreaker breaker = breaker();
+    for (int i = 0; i < 4; i++) {
+      call(breaker, FAST, true);
+    }
+    now.addAndGet(SECONDS.toNanos(30));
+    breaker.acquire();
+    breaker.acquire();
+    breaker.release();
+    breaker.release();
+    assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+    // The released calls gave back their trial slots.
+    call(breaker, FAST, false);
+    call(breaker, FAST, false);
+    assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  public void reopensAfterFailedTrialCalls() throws Exception {
+    CircuitBreaker breaker = breaker();
+    for (int i = 0; i < 4; i++) {
+      call(breaker, FAST, true);
+    }
+    now.addAndGet(SECONDS.toNanos(30));
+    call(breaker, FAST, true);
+    call(breaker, FAST, false);
+    assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    assertThrows(CircuitBreaker.OpenException.class, breaker::acquire);
+  }
+
+  @Test
+  public void canBeDisabled() throws Exception {
+    cfg.setBoolean(CircuitBreaker.CIRCUIT_BREAKER, false);
+    CircuitBreaker breaker = breaker();
+    for (int i = 0; i < 8; i++) {
+      call(breaker, FAST, true);
+    }
+    assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+  }
+}
@@ -0,0 +1,66 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+
+public class DeadlineTest {
+
+  @After
+  public void tearDown() {
+    Deadline.set(null);
+  }
+
+  @Test
+  public void timeoutIsKeptWithoutDeadline() throws Exception {
+    assertThat(Deadline.cap(30_000)).isEqualTo(30_000);
+    Deadline.check();
+  }
+
+  @Test
+  public void timeoutIsCappedAtTimeLeft() throws Exception {
+    Deadline.set(new Deadline("azure-oauth", 1_000));
+    assertThat(Deadline.cap(30_000)).isAtMost(1_000);
+    assertThat(Deadline.cap(30_000)).isGreaterThan(0);
+    assertThat(Deadline.cap(10)).isEqualTo(10);
+    Deadline.check();
+  }
+
+  @Test
+  public void passedDeadlineIsReported() {
+    Deadline.set(new Deadline("azure-oauth", 0));
+    assertThat(Deadline.cap(30_000)).isEqualTo(1);
+    Deadline.ExceededException e =
+        assertThrows(Deadline.ExceededException.class, Deadline::check);
+    assertThat(e).hasMessageThat().contains("azure-oauth");
+  }
+
+  @Test
+  public void deadlineIsPerThread() throws Exception {
+    Deadline.set(new Deadline("azure-oauth", 0));
+    AtomicReference<Deadline> seen = new AtomicReference<>(Deadline.current());
+    Thread other = new Thread(() -> seen.set(Deadline.current()));
+    other.start();
+    other.join();
+    assertThat(seen.get()).isNull();
+    Deadline.set(null);
+    assertThat(Deadline.current()).isNull();
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GitCredentialCacheTest {
+  private static final String PROVIDER = "keycloak-oauth";
+  private static final OAuthUserInfo USER =
+      new OAuthUserInfo("keycloak-oauth:1", "jdoe", "jdoe@example.com", "John Doe", null);
+
+  private GitCredentialCache cache;
+  private AtomicInteger loads;
+
+  @Before
+  public void setUp() {
+    cache = new GitCredentialCache(CacheBuilder.newBuilder().build());
+    loads = new AtomicInteger();
+  }
+
+  private OAuthUserInfo load() {
+    loads.incrementAndGet();
+    return USER;
+  }
+
+  @Test
+  public void acceptedCredentialsAreServedFromCache() throws Exception {
+    String key = cache.key(PROVIDER, "jdoe", "secret");
+    assertThat(cache.get(key, this::load)).isSameInstanceAs(USER);
+    assertThat(cache.get(key, this::load)).isSameInstanceAs(USER);
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void refusedCredentialsAreNotCached() throws Exception {
+    String key = cache.key(PROVIDER, "jdoe", "secret");
+    assertThat(cache.get(key, () -> null)).isNull();
+    assertThat(cache.get(key, this::load)).isSameInstanceAs(USER);
+  }
+
+  @Test
+  public void loaderExceptionIsPropagated() {
+    String key = cache.key(PROVIDER, "jdoe", "secret");
+    assertThrows(
+        IOException.class,
+        () ->
+            cache.get(
+                key,
+                () -> {
+                  throw new IOException("boom");
+                }));
+  }
+
+  @Test
+  public void keyDependsOnUserAndPasswordButDoesNotContainThem() {
+    String key = cache.key(PROVIDER, "jdoe", "secret");
+    assertThat(key).startsWith(PROVIDER + ":");
+    assertThat(key).doesNotContain("jdoe");
+    assertThat(key).doesNotContain("secret");
+    assertThat(cache.key(PROVIDER, "jdoe", "other")).isNotEqualTo(key);
+    assertThat(cache.key(PROVIDER, "jdo", "esecret")).isNotEqualTo(key);
+    assertThat(cache.key(PROVIDER, "jdoe", "secret")).isEqualTo(key);
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import org.junit.Test;
+
+public class GitHubGraphQlTest {
+
+  @Test
+  public void viewerOnlyWithoutOrganizations() throws IOException {
+    JsonObject body =
+        JsonFields.parse(
+            new GitHubGraphQl(ImmutableList.of()).getRequestBody(), "query", "variables");
+    assertThat(body.get("query").getAsString())
+        .isEqualTo("query { viewer { login databaseId name email } }");
+    assertThat(body.getAsJsonObject("variables").keySet()).isEmpty();
+  }
+
+  @Test
+  public void organizationsArePassedAsVariables() throws IOException {
+    JsonObject body =
+        JsonFields.parse(
+            new GitHubGraphQl(ImmutableList.of("acme", "acme/dev", "other")).getRequestBody(),
+            "query",
+            "variables");
+    assertThat(body.get("query").getAsString())
+        .isEqualTo(
+            "query($o0: String!, $o1: String!) { viewer { login databaseId name email }"
+                + " o0: organization(login: $o0) { viewerIsAMember"
+                + " teams(first: 100, role: MEMBER) { nodes { slug } } }"
+                + " o1: organization(login: $o1) { viewerIsAMember } }");
+    assertThat(body.getAsJsonObject("variables").get("o0").getAsString()).isEqualTo("acme");
+    assertThat(body.getAsJsonObject("variables").get("o1").getAsString()).isEqualTo("other");
+  }
+
+  @Test
+  public void membershipsAreRead() throws IOException {
+    GitHubGraphQl.Result result =
+        new GitHubGraphQl(ImmutableList.of("acme/dev", "other", "hidden"))
+            .parse(
+                "{\"data\":{\"viewer\":{\"login\":\"jdoe\",\"databaseId\":42,"
+                    + "\"name\":\"John\",\"email\":\"jdoe@example.com\"},"
+                    + "\"o0\":{\"viewerIsAMember\":true,"
+                    + "\"teams\":{\"nodes\":[{\"slug\":\"dev\"},{\"slug\":\"ops\"}]}},"
+                    + "\"o1\":{\"viewerIsAMember\":false},\"o2\":null},"
+                    + "\"errors\":[{\"type\":\"NOT_FOUND\",\"path\":[\"o2\"]}]}");
+    assertThat(JsonFields.getString(result.viewer, "databaseId")).isEqualTo("42");
+    assertThat(result.memberships).containsExactly("acme", "acme/dev", "acme/ops");
+  }
+
+  @Test
+  public void responseWithoutViewerIsRejected() {
+    GitHubGraphQl graphQl = new GitHubGraphQl(ImmutableList.of());
+    assertThrows(
+        IOException.class,
+        () -> graphQl.parse("{\"data\":null,\"errors\":[{\"message\":\"Bad credentials\"}]}"));
+    assertThrows(IOException.class, () -> graphQl.parse("{\"data\":{\"viewer\":null}}"));
+  }
+}
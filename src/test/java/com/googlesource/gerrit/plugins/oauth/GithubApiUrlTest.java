@@ -15,6 +15,8 @@
 package com.googlesource.gerrit.plugins.oauth;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
 import com.google.common.base.CharMatcher;
@@ -39,6 +41,9 @@ public class GithubApiUrlTest {
 
   @Mock private PluginConfigFactory pluginConfigFactoryMock;
   @Mock private Provider<String> urlProviderMock;
+  @Mock private OAuthHttpClient httpClientMock;
+  @Mock private IdpClients idpClientsMock;
+  @Mock private IdpClient idpClientMock;
 
   private OAuthServiceProvider getGithubOAuthProvider(String rootUrl) {
     PluginConfig.Update pluginConfig =
@@ -52,8 +57,11 @@ public class GithubApiUrlTest {
             PLUGIN_NAME + GitHubOAuthService.CONFIG_SUFFIX))
         .thenReturn(pluginConfig.asPluginConfig());
     when(urlProviderMock.get()).thenReturn(CANONICAL_URL);
+    when(idpClientsMock.create(eq(GitHubOAuthService.CONFIG_SUFFIX), any(), any()))
+        .thenReturn(idpClientMock);
 
-    return new GitHubOAuthService(pluginConfigFactoryMock, PLUGIN_NAME, urlProviderMock);
+    return new GitHubOAuthService(
+        pluginConfigFactoryMock, PLUGIN_NAME, urlProviderMock, httpClientMock, idpClientsMock);
   }
 
   private String getExpectedUrl(String rootUrl) throws Exception {
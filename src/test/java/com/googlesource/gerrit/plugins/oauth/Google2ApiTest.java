@@ -32,4 +32,15 @@ public class Google2ApiTest {
   public void testAccessTokenExtractor() {
     assertThat(api.getAccessTokenExtractor()).isInstanceOf(OAuth2AccessTokenJsonExtractor.class);
   }
+
+  @Test
+  public void testRootUrl() {
+    assertThat(api.getAccessTokenEndpoint())
+        .isEqualTo("https://www.googleapis.com/oauth2/v4/token");
+    Google2Api stub = new Google2Api("http://localhost:8080/google/");
+    assertThat(stub.getAccessTokenEndpoint())
+        .isEqualTo("http://localhost:8080/google/oauth2/v4/token");
+    assertThat(stub.getAuthorizationBaseUrl())
+        .isEqualTo("http://localhost:8080/google/o/oauth2/auth");
+  }
 }
@@ -0,0 +1,96 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.gerrit.server.config.PluginConfig;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HedgingTest {
+  private PluginConfig.Update cfg;
+
+  @Before
+  public void setUp() {
+    cfg = PluginConfig.Update.forTest("gerrit-oauth-provider-azure-oauth", new Config());
+    cfg.setBoolean(Hedging.HEDGE, true);
+    cfg.setString(Hedging.MIN_DELAY, "1 ms");
+  }
+
+  private Hedging hedging() {
+    return new Hedging(cfg.asPluginConfig());
+  }
+
+  @Test
+  public void disabledByDefault() {
+    assertThat(
+            new Hedging(
+                    PluginConfig.Update.forTest("gerrit-oauth-provider-azure-oauth", new Config())
+                        .asPluginConfig())
+                .isEnabled())
+        .isFalse();
+  }
+
+  @Test
+  public void noDelayBeforeEnoughSamples() {
+    Hedging hedging = hedging();
+    for (int i = 0; i < 19; i++) {
+      hedging.record(MILLISECONDS.toNanos(10));
+    }
+    assertThat(hedging.delayMs()).isEqualTo(-1);
+  }
+
+  @Test
+  public void delayIsPercentileOfRecentLatencies() {
+    Hedging hedging = hedging();
+    for (int i = 1; i <= 100; i++) {
+      hedging.record(MILLISECONDS.toNanos(i));
+    }
+    assertThat(hedging.delayMs()).isEqualTo(95);
+    cfg.setInt(Hedging.PERCENTILE, 50);
+    hedging = hedging();
+    for (int i = 1; i <= 100; i++) {
+      hedging.record(MILLISECONDS.toNanos(i));
+    }
+    assertThat(hedging.delayMs()).isEqualTo(50);
+  }
+
+  @Test
+  public void delayIsAtLeastMinDelay() {
+    cfg.setString(Hedging.MIN_DELAY, "200 ms");
+    Hedging hedging = hedging();
+    for (int i = 0; i < 20; i++) {
+      hedging.record(MILLISECONDS.toNanos(10));
+    }
+    assertThat(hedging.delayMs()).isEqualTo(200);
+  }
+
+  @Test
+  public void hedgeRateIsCapped() {
+    cfg.setInt(Hedging.MAX_RATE, 10);
+    Hedging hedging = hedging();
+    int hedges = 0;
+    for (int i = 0; i < 100; i++) {
+      hedging.delayMs();
+      if (hedging.tryHedge()) {
+        hedges++;
+      }
+    }
+    assertThat(hedges).isEqualTo(10);
+  }
+}
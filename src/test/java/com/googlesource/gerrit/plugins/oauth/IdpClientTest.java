@@ -0,0 +1,461 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.github.scribejava.core.exceptions.OAuthException;
+import com.github.scribejava.core.model.OAuth2AccessToken;
+import com.github.scribejava.core.model.OAuth2AccessTokenErrorResponse;
+import com.github.scribejava.core.model.Response;
+import com.github.scribejava.core.oauth.OAuth20Service;
+import com.github.scribejava.core.oauth2.OAuth2Error;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.extensions.auth.oauth.OAuthToken;
+import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.googlesource.gerrit.plugins.oauth.IdpMetrics.Failure;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IdpClientTest {
+  private static final String CODE = "code";
+  // {"alg":"RS256"}.{}.signature
+  private static final String RS256_JWT = "eyJhbGciOiJSUzI1NiJ9.e30.c2lnbmF0dXJl";
+  private static final String AUTHORIZATION_URL =
+      "https://idp.example.com/authorize?response_type=code&client_id=gerrit";
+  private static final String ISSUER = "https://idp.example.com";
+  private static final String JWKS_URL = "https://idp.example.com/keys";
+  private static final OAuthUserInfo USER =
+      new OAuthUserInfo("google-oauth:1", "jdoe", null, null, null);
+
+  @Mock private OAuth20Service serviceMock;
+  @Mock private HttpServletRequest requestMock;
+  @Mock private HttpServletResponse responseMock;
+
+  private final List<Failure> failures = new ArrayList<>();
+  private KeyPair signingKey;
+  private String keySet;
+  private final IdpMetrics metrics =
+      new IdpMetrics(new DisabledMetricMaker()) {
+        @Override
+        void failure(String provider, Failure failure) {
+          failures.add(failure);
+        }
+      };
+
+  private IdpClient asyncClient() {
+    return client("async");
+  }
+
+  private IdpClient client(String mode) {
+    return client(mode, new Config());
+  }
+
+  private IdpClient client(String mode, Config config) {
+    PluginConfig.Update cfg =
+        PluginConfig.Update.forTest(
+            "gerrit-oauth-provider" + GoogleOAuthService.CONFIG_SUFFIX, config);
+    cfg.setString(IdpClient.CALL_MODE, mode);
+    cfg.setString(IdpClient.ASYNC_TIMEOUT, "50 ms");
+    return new IdpClient(
+        GoogleOAuthService.CONFIG_SUFFIX,
+        cfg.asPluginConfig(),
+        serviceMock,
+        Runnable::run,
+        new UserInfoCache(CacheBuilder.newBuilder().build()),
+        new RejectedTokenCache(CacheBuilder.newBuilder().build(), new DisabledMetricMaker()),
+        new GitCredentialCache(CacheBuilder.newBuilder().build()),
+        new RefreshTokenStore(CacheBuilder.newBuilder().build()),
+        new JwksCache(
+            url ->
+                keySet != null
+                    ? CompletableFuture.completedFuture(
+                        new Response(200, "OK", ImmutableMap.of(), keySet))
+                    : new CompletableFuture<>(),
+            cfg.asPluginConfig()),
+        metrics,
+        () -> requestMock,
+        () -> responseMock);
+  }
+
+  @Test
+  public void nameHasNoLeadingDash() {
+    assertThat(asyncClient().getName()).isEqualTo("google-oauth");
+  }
+
+  @Test
+  public void asyncAccessTokenIsReturned() throws Exception {
+    OAuth2AccessToken token = new OAuth2AccessToken("token", "raw");
+    when(serviceMock.getAccessTokenAsync(CODE))
+        .thenReturn(CompletableFuture.completedFuture(token));
+    assertThat(asyncClient().getAccessToken(CODE)).isSameInstanceAs(token);
+  }
+
+  @Test
+  public void asyncIOExceptionIsUnwrapped() {
+    CompletableFuture<OAuth2AccessToken> failed = new CompletableFuture<>();
+    failed.completeExceptionally(new IOException("boom"));
+    when(serviceMock.getAccessTokenAsync(CODE)).thenReturn(failed);
+    IOException e = assertThrows(IOException.class, () -> asyncClient().getAccessToken(CODE));
+    assertThat(e).hasMessageThat().isEqualTo("boom");
+  }
+
+  @Test
+  public void asyncCallTimesOut() {
+    CompletableFuture<OAuth2AccessToken> pending = new CompletableFuture<>();
+    when(serviceMock.getAccessTokenAsync(CODE)).thenReturn(pending);
+    assertThrows(IOException.class, () -> asyncClient().getAccessToken(CODE));
+    assertThat(pending.isCancelled()).isTrue();
+  }
+
+  @Test
+  public void offloadedAccessTokenIsReturned() throws Exception {
+    OAuth2AccessToken token = new OAuth2AccessToken("token", "raw");
+    when(serviceMock.getAccessToken(CODE)).thenReturn(token);
+    assertThat(client("offload").getAccessToken(CODE)).isSameInstanceAs(token);
+  }
+
+  @Test
+  public void offloadedIOExceptionIsUnwrapped() throws Exception {
+    when(serviceMock.getAccessToken(CODE)).thenThrow(new IOException("boom"));
+    IOException e = assertThrows(IOException.class, () -> client("offload").getAccessToken(CODE));
+    assertThat(e).hasMessageThat().isEqualTo("boom");
+  }
+
+  @Test
+  public void rejectedTokenIsRefusedWithoutCallingIdp() throws Exception {
+    IdpClient client = client("blocking");
+    OAuthToken token = new OAuthToken("token", "", "{}");
+    AtomicInteger loads = new AtomicInteger();
+    UserInfoCache.Loader loader =
+        t -> {
+          loads.incrementAndGet();
+          return client.reject(t, Failure.HOSTED_DOMAIN_MISMATCH);
+        };
+    assertThat(client.getUserInfo(token, loader)).isNull();
+    assertThat(client.getUserInfo(token, loader)).isNull();
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void failuresAreCounted() throws Exception {
+    IdpClient client = client("blocking");
+    client.getUserInfo(
+        new OAuthToken("t1", "", "{}"), t -> client.reject(t, Failure.TENANT_MISMATCH));
+    assertThrows(
+        IOException.class,
+        () ->
+            client.getUserInfo(
+                new OAuthToken("t2", "", "{}"),
+                t -> {
+                  throw new IdpResponseException(Failure.MISSING_ID, "no id");
+                }));
+    assertThrows(
+        IOException.class,
+        () ->
+            client.getUserInfo(
+                new OAuthToken("t3", "", "{}"),
+                t -> {
+                  JsonFields.parse("[]", "id");
+                  return null;
+                }));
+    assertThat(failures)
+        .containsExactly(Failure.TENANT_MISMATCH, Failure.MISSING_ID, Failure.INVALID_JSON)
+        .inOrder();
+    assertThat(metrics.inFlight(client.getName()).sum()).isEqualTo(0);
+  }
+
+  @Test
+  public void otherTokensAreNotRefused() throws Exception {
+    IdpClient client = client("blocking");
+    OAuthUserInfo user = new OAuthUserInfo("google-oauth:1", null, null, null, null);
+    client.getUserInfo(new OAuthToken("bad", "", "{}"), t -> null);
+    assertThat(client.getUserInfo(new OAuthToken("good", "", "{}"), t -> user))
+        .isSameInstanceAs(user);
+  }
+
+  @Test
+  public void accessTokenOfUserIsAcceptedOnce() throws Exception {
+    IdpClient client = client("blocking");
+    OAuthUserInfo user = new OAuthUserInfo("github-oauth:1", "jdoe", null, null, null);
+    AtomicInteger loads = new AtomicInteger();
+    UserInfoCache.Loader loader =
+        t -> {
+          loads.incrementAndGet();
+          return user;
+        };
+    assertThat(client.loginWithAccessToken("JDoe", "pat", loader)).isSameInstanceAs(user);
+    assertThat(client.loginWithAccessToken("JDoe", "pat", loader)).isSameInstanceAs(user);
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void accessTokenOfOtherUserIsRefused() throws Exception {
+    IdpClient client = client("blocking");
+    OAuthUserInfo user = new OAuthUserInfo("github-oauth:1", "jdoe", null, null, null);
+    AtomicInteger loads = new AtomicInteger();
+    UserInfoCache.Loader loader =
+        t -> {
+          loads.incrementAndGet();
+          return user;
+        };
+    assertThat(client.loginWithAccessToken("mallory", "pat", loader)).isNull();
+    assertThat(client.loginWithAccessToken("mallory", "pat", loader)).isNull();
+    assertThat(loads.get()).isEqualTo(1);
+    assertThat(failures).containsExactly(Failure.USERNAME_MISMATCH);
+  }
+
+  @Test
+  public void passwordRefusedByIdpIsRejected() throws Exception {
+    IdpClient client = client("blocking");
+    when(serviceMock.getAccessTokenPasswordGrant("jdoe", "secret"))
+        .thenThrow(
+            new OAuth2AccessTokenErrorResponse(OAuth2Error.INVALID_GRANT, "invalid", null, "{}"));
+    assertThat(client.login("jdoe", "secret", t -> USER)).isNull();
+    assertThat(client.login("jdoe", "secret", t -> USER)).isNull();
+    verify(serviceMock).getAccessTokenPasswordGrant("jdoe", "secret");
+  }
+
+  @Test
+  public void failedPasswordGrantIsNotRejected() throws Exception {
+    IdpClient client = client("blocking");
+    when(serviceMock.getAccessTokenPasswordGrant("jdoe", "secret"))
+        .thenThrow(new OAuthException("Response body is incorrect: <html>"))
+        .thenReturn(new OAuth2AccessToken("token", "{}"));
+    assertThrows(IOException.class, () -> client.login("jdoe", "secret", t -> USER));
+    assertThat(client.login("jdoe", "secret", t -> USER)).isSameInstanceAs(USER);
+  }
+
+  @Test
+  public void idTokenIsReadFromTokenResponse() throws Exception {
+    OAuthToken token = new OAuthToken("token", "", "{\"id_token\":\"a.b.c\"}");
+    assertThat(IdpClient.getIdToken(token)).isEqualTo("a.b.c");
+  }
+
+  @Test
+  public void missingIdTokenIsReported() {
+    OAuthToken token = new OAuthToken("token", "", "access_token=token");
+    assertThrows(IOException.class, () -> IdpClient.getIdToken(token));
+  }
+
+  @Test
+  public void idTokenIsNotVerifiedByDefault() throws Exception {
+    IdpClient client = client("blocking");
+    assertThat(client.useIdTokenClaims()).isFalse();
+    assertThat(client.verifyIdToken("a.b.c", "https://idp.example.com/keys", ImmutableSet.of()))
+        .isTrue();
+  }
+
+  @Test
+  public void idTokenClaimsImplyVerification() {
+    Config config = new Config();
+    config.setString(
+        "plugin",
+        "gerrit-oauth-provider" + GoogleOAuthService.CONFIG_SUFFIX,
+        IdpClient.CLAIMS_SOURCE,
+        "id_token");
+    IdpClient client = client("blocking", config);
+    assertThat(client.useIdTokenClaims()).isTrue();
+    // The key set never arrives, so verification fails after async-timeout.
+    assertThrows(
+        IOException.class,
+        () -> client.verifyIdToken(RS256_JWT, JWKS_URL, ImmutableSet.of(ISSUER)));
+  }
+
+  @Test
+  public void idTokenOfIssuerForClientIsAccepted() throws Exception {
+    IdpClient client = verifyingClient();
+    assertThat(verifyIdToken(client, ISSUER, "\"gerrit\"")).isTrue();
+    assertThat(verifyIdToken(client, ISSUER + "/", "[\"gerrit\"]")).isTrue();
+  }
+
+  @Test
+  public void idTokenForOtherClientIsRejected() throws Exception {
+    IdpClient client = verifyingClient();
+    assertThat(verifyIdToken(client, ISSUER, "\"other\"")).isFalse();
+    // Several audiences without the client as authorized party.
+    assertThat(verifyIdToken(client, ISSUER, "[\"other\",\"gerrit\"]")).isFalse();
+  }
+
+  @Test
+  public void idTokenOfOtherIssuerIsRejected() throws Exception {
+    IdpClient client = verifyingClient();
+    assertThat(verifyIdToken(client, "https://other.example.com", "\"gerrit\"")).isFalse();
+  }
+
+  private boolean verifyIdToken(IdpClient client, String iss, String aud) throws Exception {
+    return client.verifyIdToken(idToken(iss, aud), JWKS_URL, ImmutableSet.of(ISSUER));
+  }
+
+  private IdpClient verifyingClient() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    signingKey = generator.generateKeyPair();
+    RSAPublicKey key = (RSAPublicKey) signingKey.getPublic();
+    keySet =
+        String.format(
+            "{\"keys\":[{\"kty\":\"RSA\",\"kid\":\"1\",\"n\":\"%s\",\"e\":\"%s\"}]}",
+            base64(key.getModulus()), base64(key.getPublicExponent()));
+    when(serviceMock.getApiKey()).thenReturn("gerrit");
+    Config config = new Config();
+    config.setBoolean(
+        "plugin",
+        "gerrit-oauth-provider" + GoogleOAuthService.CONFIG_SUFFIX,
+        IdpClient.VERIFY_ID_TOKEN,
+        true);
+    return client("blocking", config);
+  }
+
+  private String idToken(String iss, String aud) throws Exception {
+    String input =
+        base64("{\"alg\":\"RS256\",\"kid\":\"1\"}".getBytes(UTF_8))
+            + "."
+            + base64(String.format("{\"iss\":\"%s\",\"aud\":%s}", iss, aud).getBytes(UTF_8));
+    Signature signature = Signature.getInstance("SHA256withRSA");
+    signature.initSign(signingKey.getPrivate());
+    signature.update(input.getBytes(UTF_8));
+    return input + "." + base64(signature.sign());
+  }
+
+  private static String base64(BigInteger value) {
+    byte[] bytes = value.toByteArray();
+    return base64(bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes);
+  }
+
+  private static String base64(byte[] value) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(value);
+  }
+
+  @Test
+  public void silentLoginIsOffByDefault() {
+    IdpClient client = asyncClient();
+    assertThat(client.getAuthorizationUrl(AUTHORIZATION_URL)).isEqualTo(AUTHORIZATION_URL);
+  }
+
+  @Test
+  public void silentLoginAsksForNoPrompt() {
+    IdpClient client = client("async", silentLoginConfig());
+    assertThat(client.getAuthorizationUrl(AUTHORIZATION_URL))
+        .isEqualTo(AUTHORIZATION_URL + "&prompt=none");
+  }
+
+  @Test
+  public void silentLoginFallsBackToInteractiveLogin() {
+    when(requestMock.getCookies())
+        .thenReturn(new Cookie[] {new Cookie(SilentLoginFilter.COOKIE, "1")});
+    IdpClient client = client("async", silentLoginConfig());
+    assertThat(client.getAuthorizationUrl(AUTHORIZATION_URL)).isEqualTo(AUTHORIZATION_URL);
+  }
+
+  @Test
+  public void grantLogsBrowserInAgainWithRenewedToken() throws Exception {
+    IdpClient client = client("blocking", refreshTokensConfig());
+    String handle = logInWithRefreshToken(client);
+    when(serviceMock.getCallback()).thenReturn("https://gerrit.example.com/oauth");
+    OAuth2AccessToken renewed = new OAuth2AccessToken("renewed", "{}");
+    when(serviceMock.refreshAccessToken("refresh")).thenReturn(renewed);
+    assertThat(client.getAuthorizationUrl(AUTHORIZATION_URL))
+        .isEqualTo("https://gerrit.example.com/oauth?code=" + handle);
+    assertThat(client.getAccessToken(handle)).isSameInstanceAs(renewed);
+  }
+
+  @Test
+  public void refusedGrantFallsBackToIdp() throws Exception {
+    IdpClient client = client("blocking", refreshTokensConfig());
+    logInWithRefreshToken(client);
+    when(serviceMock.refreshAccessToken("refresh"))
+        .thenThrow(
+            new OAuth2AccessTokenErrorResponse(OAuth2Error.INVALID_GRANT, "revoked", null, "{}"));
+    assertThat(client.getAuthorizationUrl(AUTHORIZATION_URL)).isEqualTo(AUTHORIZATION_URL);
+    // The grant is gone, the next login doesn't try it again.
+    assertThat(client.getAuthorizationUrl(AUTHORIZATION_URL)).isEqualTo(AUTHORIZATION_URL);
+    verify(serviceMock).refreshAccessToken("refresh");
+  }
+
+  @Test
+  public void renewedTokenIsOnlyHandedToBrowserOfGrant() throws Exception {
+    IdpClient client = client("blocking", refreshTokensConfig());
+    String handle = logInWithRefreshToken(client);
+    when(serviceMock.getCallback()).thenReturn("https://gerrit.example.com/oauth");
+    when(serviceMock.refreshAccessToken("refresh"))
+        .thenReturn(new OAuth2AccessToken("renewed", "{}"));
+    client.getAuthorizationUrl(AUTHORIZATION_URL);
+
+    when(requestMock.getCookies()).thenReturn(null);
+    OAuth2AccessToken token = new OAuth2AccessToken("token", "{}");
+    when(serviceMock.getAccessToken(handle)).thenReturn(token);
+    assertThat(client.getAccessToken(handle)).isSameInstanceAs(token);
+  }
+
+  private String logInWithRefreshToken(IdpClient client) throws Exception {
+    when(serviceMock.getAccessToken(CODE))
+        .thenReturn(new OAuth2AccessToken("token", "Bearer", 60, "refresh", null, "{}"));
+    OAuth2AccessToken token = client.getAccessToken(CODE);
+    client.getUserInfo(new OAuthToken(token.getAccessToken(), "", "{}"), t -> USER);
+    ArgumentCaptor<Cookie> cookie = ArgumentCaptor.forClass(Cookie.class);
+    verify(responseMock).addCookie(cookie.capture());
+    assertThat(cookie.getValue().getName()).isEqualTo(RefreshTokenStore.COOKIE);
+    when(requestMock.getCookies()).thenReturn(new Cookie[] {cookie.getValue()});
+    return cookie.getValue().getValue();
+  }
+
+  private static Config refreshTokensConfig() {
+    Config config = new Config();
+    config.setBoolean(
+        "plugin",
+        "gerrit-oauth-provider" + GoogleOAuthService.CONFIG_SUFFIX,
+        IdpClient.REFRESH_TOKENS,
+        true);
+    return config;
+  }
+
+  private static Config silentLoginConfig() {
+    Config config = new Config();
+    config.setBoolean(
+        "plugin",
+        "gerrit-oauth-provider" + GoogleOAuthService.CONFIG_SUFFIX,
+        IdpClient.SILENT_LOGIN,
+        true);
+    return config;
+  }
+}
@@ -0,0 +1,57 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import org.junit.Test;
+
+public class JsonFieldsTest {
+
+  @Test
+  public void onlyRequestedFieldsAreRead() throws IOException {
+    JsonObject fields =
+        JsonFields.parse(
+            "{\"id\":42,\"avatar\":{\"url\":\"x\",\"sizes\":[1,2]},\"name\":\"John\","
+                + "\"email\":null,\"user\":{\"username\":\"jdoe\"}}",
+            "id",
+            "email",
+            "user",
+            "login");
+    assertThat(fields.keySet()).containsExactly("id", "email", "user");
+    assertThat(fields.get("id").getAsString()).isEqualTo("42");
+    assertThat(fields.get("email").isJsonNull()).isTrue();
+    assertThat(fields.getAsJsonObject("user").get("username").getAsString()).isEqualTo("jdoe");
+  }
+
+  @Test
+  public void getString() throws IOException {
+    JsonObject fields = JsonFields.parse("{\"a\":\"x\",\"b\":1,\"c\":null,\"d\":[]}", "a", "b");
+    assertThat(JsonFields.getString(fields, "a")).isEqualTo("x");
+    assertThat(JsonFields.getString(fields, "b")).isEqualTo("1");
+    assertThat(JsonFields.getString(fields, "c")).isNull();
+    assertThat(JsonFields.getString(fields, "d")).isNull();
+  }
+
+  @Test
+  public void nonObjectIsRejected() {
+    assertThrows(IOException.class, () -> JsonFields.parse("[{\"id\":1}]", "id"));
+    assertThrows(IOException.class, () -> JsonFields.parse("{\"id\":", "id"));
+    assertThrows(IOException.class, () -> JsonFields.parse((String) null, "id"));
+  }
+}
@@ -0,0 +1,226 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.github.scribejava.core.model.Response;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.server.config.PluginConfig;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JwksCacheTest {
+  private static final String JWKS_URL = "https://idp.example.com/keys";
+  private static final String PAYLOAD = "{\"sub\":\"42\"}";
+
+  private KeyPair rsa;
+  private KeyPair ec;
+  private String keySet;
+  private AtomicInteger fetches;
+
+  @Before
+  public void setUp() throws Exception {
+    KeyPairGenerator rsaGen = KeyPairGenerator.getInstance("RSA");
+    rsaGen.initialize(2048);
+    rsa = rsaGen.generateKeyPair();
+    KeyPairGenerator ecGen = KeyPairGenerator.getInstance("EC");
+    ecGen.initialize(new ECGenParameterSpec("secp256r1"));
+    ec = ecGen.generateKeyPair();
+    keySet = keySet(rsaJwk("rsa-1", rsa), ecJwk("ec-1", ec));
+    fetches = new AtomicInteger();
+  }
+
+  private JwksCache cache(String minRefetchInterval) {
+    PluginConfig.Update cfg = PluginConfig.Update.forTest("gerrit-oauth-provider", new Config());
+    cfg.setString(JwksCache.MIN_REFETCH_INTERVAL, minRefetchInterval);
+    return new JwksCache(
+        url -> {
+          fetches.incrementAndGet();
+          return CompletableFuture.completedFuture(
+              new Response(200, "OK", ImmutableMap.of(), keySet));
+        },
+        cfg.asPluginConfig());
+  }
+
+  @Test
+  public void validRsaSignatureIsAccepted() throws Exception {
+    assertThat(cache("1 min").verify(JWKS_URL, jwt("RS256", "rsa-1", rsa.getPrivate()), 1000))
+        .isTrue();
+  }
+
+  @Test
+  public void validEcSignatureIsAccepted() throws Exception {
+    assertThat(cache("1 min").verify(JWKS_URL, jwt("ES256", "ec-1", ec.getPrivate()), 1000))
+        .isTrue();
+  }
+
+  @Test
+  public void tamperedPayloadIsRejected() throws Exception {
+    String jwt = jwt("RS256", "rsa-1", rsa.getPrivate());
+    String[] parts = jwt.split("\\.");
+    String tampered = parts[0] + "." + base64("{\"sub\":\"43\"}") + "." + parts[2];
+    assertThat(cache("1 min").verify(JWKS_URL, tampered, 1000)).isFalse();
+  }
+
+  @Test
+  public void unsignedTokenIsRejected() throws Exception {
+    String jwt = base64("{\"alg\":\"none\"}") + "." + base64(PAYLOAD) + ".";
+    assertThat(cache("1 min").verify(JWKS_URL, jwt, 1000)).isFalse();
+  }
+
+  @Test
+  public void keySetIsFetchedOnce() throws Exception {
+    JwksCache cache = cache("1 min");
+    String jwt = jwt("RS256", "rsa-1", rsa.getPrivate());
+    cache.verify(JWKS_URL, jwt, 1000);
+    cache.verify(JWKS_URL, jwt, 1000);
+    cache.verify(JWKS_URL, jwt("ES256", "ec-1", ec.getPrivate()), 1000);
+    assertThat(fetches.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void prefetchedKeySetIsUsed() throws Exception {
+    JwksCache cache = cache("1 min");
+    cache.prefetch(JWKS_URL).get();
+    cache.prefetch(JWKS_URL).get();
+    assertThat(cache.verify(JWKS_URL, jwt("RS256", "rsa-1", rsa.getPrivate()), 1000)).isTrue();
+    assertThat(fetches.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void unknownKeyIdTriggersRefetch() throws Exception {
+    JwksCache cache = cache("0 ms");
+    cache.verify(JWKS_URL, jwt("RS256", "rsa-1", rsa.getPrivate()), 1000);
+    keySet = keySet(rsaJwk("rsa-2", rsa));
+    assertThat(cache.verify(JWKS_URL, jwt("RS256", "rsa-2", rsa.getPrivate()), 1000)).isTrue();
+    assertThat(fetches.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void unknownKeyIdIsNotRefetchedTooOften() throws Exception {
+    JwksCache cache = cache("1 min");
+    cache.verify(JWKS_URL, jwt("RS256", "rsa-1", rsa.getPrivate()), 1000);
+    assertThat(cache.verify(JWKS_URL, jwt("RS256", "bogus", rsa.getPrivate()), 1000)).isFalse();
+    assertThat(cache.verify(JWKS_URL, jwt("RS256", "bogus", rsa.getPrivate()), 1000)).isFalse();
+    assertThat(fetches.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void concurrentFetchesShareOneRequest() throws Exception {
+    CompletableFuture<Response> pending = new CompletableFuture<>();
+    PluginConfig cfg =
+        PluginConfig.Update.forTest("gerrit-oauth-provider", new Config()).asPluginConfig();
+    JwksCache cache =
+        new JwksCache(
+            url -> {
+              fetches.incrementAndGet();
+              return pending;
+            },
+            cfg);
+    String jwt = jwt("RS256", "rsa-1", rsa.getPrivate());
+    CompletableFuture<Boolean> first =
+        CompletableFuture.supplyAsync(() -> verifyUnchecked(cache, jwt));
+    CompletableFuture<Boolean> second =
+        CompletableFuture.supplyAsync(() -> verifyUnchecked(cache, jwt));
+    while (fetches.get() == 0) {
+      Thread.sleep(1);
+    }
+    pending.complete(new Response(200, "OK", ImmutableMap.of(), keySet));
+    assertThat(first.get()).isTrue();
+    assertThat(second.get()).isTrue();
+    assertThat(fetches.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void failedFetchIsReported() {
+    JwksCache cache =
+        new JwksCache(
+            url ->
+                CompletableFuture.completedFuture(
+                    new Response(500, "Error", ImmutableMap.of(), "")),
+            PluginConfig.Update.forTest("gerrit-oauth-provider", new Config()).asPluginConfig());
+    assertThrows(
+        IOException.class,
+        () -> cache.verify(JWKS_URL, jwt("RS256", "rsa-1", rsa.getPrivate()), 1000));
+  }
+
+  private static boolean verifyUnchecked(JwksCache cache, String jwt) {
+    try {
+      return cache.verify(JWKS_URL, jwt, 5000);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String jwt(String alg, String kid, PrivateKey key) throws Exception {
+    String input =
+        base64(String.format("{\"alg\":\"%s\",\"kid\":\"%s\"}", alg, kid)) + "." + base64(PAYLOAD);
+    Signature signature =
+        Signature.getInstance(
+            alg.startsWith("RS") ? "SHA256withRSA" : "SHA256withECDSAinP1363Format");
+    signature.initSign(key);
+    signature.update(input.getBytes(UTF_8));
+    return input + "." + base64(signature.sign());
+  }
+
+  private static String keySet(String... jwks) {
+    return "{\"keys\":[" + String.join(",", jwks) + "]}";
+  }
+
+  private static String rsaJwk(String kid, KeyPair keyPair) {
+    RSAPublicKey key = (RSAPublicKey) keyPair.getPublic();
+    return String.format(
+        "{\"kty\":\"RSA\",\"use\":\"sig\",\"kid\":\"%s\",\"n\":\"%s\",\"e\":\"%s\"}",
+        kid, base64(key.getModulus()), base64(key.getPublicExponent()));
+  }
+
+  private static String ecJwk(String kid, KeyPair keyPair) {
+    ECPublicKey key = (ECPublicKey) keyPair.getPublic();
+    return String.format(
+        "{\"kty\":\"EC\",\"crv\":\"P-256\",\"kid\":\"%s\",\"x\":\"%s\",\"y\":\"%s\"}",
+        kid, base64(key.getW().getAffineX()), base64(key.getW().getAffineY()));
+  }
+
+  private static String base64(BigInteger value) {
+    byte[] bytes = value.toByteArray();
+    int skip = bytes[0] == 0 ? 1 : 0;
+    return base64(Arrays.copyOfRange(bytes, skip, bytes.length));
+  }
+
+  private static String base64(String value) {
+    return base64(value.getBytes(UTF_8));
+  }
+
+  private static String base64(byte[] value) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(value);
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Random;
+import org.junit.Test;
+
+public class JwtDecoderTest {
+  private static String jwt(String payload) {
+    Base64.Encoder enc = Base64.getUrlEncoder().withoutPadding();
+    return enc.encodeToString("{\"alg\":\"RS256\"}".getBytes(UTF_8))
+        + "."
+        + enc.encodeToString(payload.getBytes(UTF_8))
+        + ".c2lnbmF0dXJl";
+  }
+
+  @Test
+  public void onlyRequestedClaimsAreReturned() throws Exception {
+    JsonObject claims =
+        JwtDecoder.decodeClaims(
+            jwt("{\"sub\":\"42\",\"email\":\"jdoe@example.com\",\"aud\":[\"a\",\"b\"],\"x\":{}}"),
+            "email",
+            "aud",
+            "name");
+    assertThat(claims.keySet()).containsExactly("email", "aud");
+    assertThat(claims.get("email").getAsString()).isEqualTo("jdoe@example.com");
+    assertThat(claims.get("aud").getAsJsonArray().size()).isEqualTo(2);
+  }
+
+  @Test
+  public void payloadDecodesLikeJdkDecoder() throws Exception {
+    Random random = new Random(0);
+    for (int len = 0; len < 64; len++) {
+      byte[] data = new byte[len];
+      random.nextBytes(data);
+      String segment = Base64.getUrlEncoder().encodeToString(data);
+      assertThat(JwtDecoder.decodePayload("h." + segment + ".s")).isEqualTo(data);
+      assertThat(JwtDecoder.decodePayload("h." + segment.replace("=", "") + ".s"))
+          .isEqualTo(data);
+      String standard = Base64.getEncoder().encodeToString(data);
+      assertThat(JwtDecoder.decodePayload("h." + standard + ".s")).isEqualTo(data);
+    }
+  }
+
+  @Test
+  public void unicodeClaimIsDecoded() throws Exception {
+    JsonObject claims =
+        JwtDecoder.decodeClaims(jwt("{\"name\":\"J\u00fcrgen M\u00fcller\"}"), "name");
+    assertThat(claims.get("name").getAsString()).isEqualTo("J\u00fcrgen M\u00fcller");
+  }
+
+  @Test
+  public void wrongNumberOfSegmentsIsRejected() {
+    assertThrows(IOException.class, () -> JwtDecoder.decodePayload("abc"));
+    assertThrows(IOException.class, () -> JwtDecoder.decodePayload("a.b"));
+    assertThrows(IOException.class, () -> JwtDecoder.decodePayload("a.b.c.d"));
+  }
+
+  @Test
+  public void invalidBase64IsRejected() {
+    assertThrows(IOException.class, () -> JwtDecoder.decodePayload("a.b*c.d"));
+    assertThrows(IOException.class, () -> JwtDecoder.decodePayload("a.abcde.d"));
+  }
+
+  @Test
+  public void payloadMustBeObject() {
+    assertThrows(IOException.class, () -> JwtDecoder.decodeClaims(jwt("[1]"), "sub"));
+    assertThrows(IOException.class, () -> JwtDecoder.decodeClaims(jwt("{\"sub\":"), "sub"));
+  }
+}
@@ -0,0 +1,97 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.extensions.auth.oauth.OAuthServiceProvider;
+import com.google.gerrit.extensions.auth.oauth.OAuthToken;
+import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
+import com.google.gerrit.extensions.auth.oauth.OAuthVerifier;
+import com.google.gerrit.server.config.PluginConfig;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class LazyOAuthProviderTest {
+
+  @Test
+  public void serviceIsBuiltOnFirstUseOnly() throws Exception {
+    AtomicInteger built = new AtomicInteger();
+    LazyOAuthProvider provider =
+        new LazyOAuthProvider(
+            "Test OAuth2",
+            () -> {
+              built.incrementAndGet();
+              return new TestService();
+            });
+
+    assertThat(provider.getName()).isEqualTo("Test OAuth2");
+    assertThat(built.get()).isEqualTo(0);
+
+    assertThat(provider.getAuthorizationUrl()).isEqualTo("https://idp.example.com/authorize");
+    assertThat(provider.getVersion()).isEqualTo("2.0");
+    assertThat(built.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void configSuffixesAreUnique() {
+    Set<String> suffixes = new HashSet<>();
+    for (ProviderType type : ProviderType.values()) {
+      assertThat(suffixes.add(type.getConfigSuffix())).isTrue();
+    }
+  }
+
+  @Test
+  public void personalAccessTokenLoginIsOptIn() {
+    PluginConfig.Update cfg = PluginConfig.Update.forTest("gerrit-oauth-provider", new Config());
+    assertThat(ProviderType.GITHUB.hasGitLogin(cfg.asPluginConfig())).isFalse();
+    assertThat(ProviderType.KEYCLOAK.hasGitLogin(cfg.asPluginConfig())).isTrue();
+    assertThat(ProviderType.GOOGLE.hasGitLogin(cfg.asPluginConfig())).isFalse();
+
+    cfg.setBoolean(IdpClient.PERSONAL_ACCESS_TOKENS, true);
+    assertThat(ProviderType.GITHUB.hasGitLogin(cfg.asPluginConfig())).isTrue();
+    assertThat(ProviderType.GITLAB.hasGitLogin(cfg.asPluginConfig())).isTrue();
+  }
+
+  private static class TestService implements OAuthServiceProvider {
+    @Override
+    public String getAuthorizationUrl() {
+      return "https://idp.example.com/authorize";
+    }
+
+    @Override
+    public OAuthToken getAccessToken(OAuthVerifier rv) {
+      return null;
+    }
+
+    @Override
+    public OAuthUserInfo getUserInfo(OAuthToken token) {
+      return null;
+    }
+
+    @Override
+    public String getVersion() {
+      return "2.0";
+    }
+
+    @Override
+    public String getName() {
+      return "Test";
+    }
+  }
+}
@@ -0,0 +1,165 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.github.scribejava.core.model.Response;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.server.config.PluginConfig;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OidcDiscoveryTest {
+  private static final String ISSUER = "https://idp.example.com/realms/gerrit";
+  private static final String DOCUMENT =
+      "{\"issuer\":\"" + ISSUER + "\","
+          + "\"authorization_endpoint\":\"https://login.example.com/auth\","
+          + "\"token_endpoint\":\"https://login.example.com/token\","
+          + "\"jwks_uri\":\"https://login.example.com/keys\"}";
+
+  private Path pluginData;
+  private PluginConfig providerCfg;
+  private List<Map<String, String>> requests;
+  private Response next;
+
+  @Before
+  public void setUp() throws IOException {
+    pluginData = Files.createTempDirectory("oidc-discovery-test");
+    PluginConfig.Update cfg =
+        PluginConfig.Update.forTest("gerrit-oauth-provider-keycloak-oauth", new Config());
+    cfg.setBoolean(OidcDiscovery.DISCOVERY, true);
+    providerCfg = cfg.asPluginConfig();
+    requests = new ArrayList<>();
+  }
+
+  private OidcDiscovery discovery() {
+    return new OidcDiscovery(
+        (url, headers) -> {
+          assertThat(url).isEqualTo(ISSUER + OidcDiscovery.WELL_KNOWN_PATH);
+          requests.add(headers);
+          return next != null
+              ? CompletableFuture.completedFuture(next)
+              : CompletableFuture.failedFuture(new IOException("connection refused"));
+        },
+        pluginData,
+        PluginConfig.Update.forTest("gerrit-oauth-provider", new Config()).asPluginConfig());
+  }
+
+  private static Response ok(String cacheControl) {
+    return ok(cacheControl, DOCUMENT);
+  }
+
+  private static Response ok(String cacheControl, String document) {
+    return new Response(
+        200, "OK", ImmutableMap.of("ETag", "\"v1\"", "Cache-Control", cacheControl), document);
+  }
+
+  @Test
+  public void discoveryIsDisabledByDefault() {
+    PluginConfig cfg =
+        PluginConfig.Update.forTest("gerrit-oauth-provider-keycloak-oauth", new Config())
+            .asPluginConfig();
+    assertThat(discovery().forIssuer(cfg, ISSUER)).isNull();
+  }
+
+  @Test
+  public void discoveredEndpointsAreUsed() {
+    next = ok("max-age=3600");
+    OidcDiscovery.Issuer issuer = discovery().forIssuer(providerCfg, ISSUER + "/");
+    assertThat(issuer.getAuthorizationEndpoint("fixed"))
+        .isEqualTo("https://login.example.com/auth");
+    assertThat(issuer.getTokenEndpoint("fixed")).isEqualTo("https://login.example.com/token");
+    assertThat(issuer.getJwksUri("fixed")).isEqualTo("https://login.example.com/keys");
+    assertThat(issuer.getUserInfoEndpoint("fixed")).isEqualTo("fixed");
+    assertThat(requests).hasSize(1);
+  }
+
+  @Test
+  public void storedDocumentIsUsedWithoutFetching() {
+    next = ok("max-age=3600");
+    discovery().forIssuer(providerCfg, ISSUER).getTokenEndpoint("fixed");
+
+    next = null;
+    OidcDiscovery.Issuer issuer = discovery().forIssuer(providerCfg, ISSUER);
+    assertThat(issuer.getTokenEndpoint("fixed")).isEqualTo("https://login.example.com/token");
+    assertThat(requests).hasSize(1);
+  }
+
+  @Test
+  public void expiredDocumentIsRevalidatedWithEtag() {
+    next = ok("max-age=0");
+    OidcDiscovery.Issuer issuer = discovery().forIssuer(providerCfg, ISSUER);
+    issuer.getTokenEndpoint("fixed");
+
+    next = new Response(304, "Not Modified", ImmutableMap.of(), (String) null);
+    assertThat(issuer.getTokenEndpoint("fixed")).isEqualTo("https://login.example.com/token");
+    assertThat(requests).hasSize(2);
+    assertThat(requests.get(1)).containsEntry("If-None-Match", "\"v1\"");
+  }
+
+  @Test
+  public void fixedEndpointsAreUsedWhenDiscoveryFails() {
+    OidcDiscovery.Issuer issuer = discovery().forIssuer(providerCfg, ISSUER);
+    assertThat(issuer.getTokenEndpoint("fixed")).isEqualTo("fixed");
+    assertThat(issuer.getJwksUri("fixed")).isEqualTo("fixed");
+    // The failure is remembered, the IdP is not asked again on every lookup.
+    assertThat(requests).hasSize(1);
+  }
+
+  @Test
+  public void storedDocumentIsKeptWhenRevalidationFails() {
+    next = ok("max-age=0");
+    OidcDiscovery.Issuer issuer = discovery().forIssuer(providerCfg, ISSUER);
+    issuer.getTokenEndpoint("fixed");
+
+    next = null;
+    assertThat(issuer.getTokenEndpoint("fixed")).isEqualTo("https://login.example.com/token");
+    assertThat(issuer.getTokenEndpoint("fixed")).isEqualTo("https://login.example.com/token");
+    assertThat(requests).hasSize(2);
+  }
+
+  @Test
+  public void documentOfOtherIssuerIsRejected() {
+    next = ok("max-age=3600", DOCUMENT.replace(ISSUER, "https://evil.example.com"));
+    OidcDiscovery.Issuer issuer = discovery().forIssuer(providerCfg, ISSUER);
+    assertThat(issuer.getTokenEndpoint("fixed")).isEqualTo("fixed");
+    assertThat(issuer.getJwksUri("fixed")).isEqualTo("fixed");
+  }
+
+  @Test
+  public void storedDocumentIsKeptWhenNewDocumentIsOfOtherIssuer() {
+    next = ok("max-age=0");
+    OidcDiscovery.Issuer issuer = discovery().forIssuer(providerCfg, ISSUER);
+    issuer.getTokenEndpoint("fixed");
+
+    next =
+        ok(
+            "max-age=3600",
+            DOCUMENT
+                .replace(ISSUER, "https://evil.example.com")
+                .replace("login.example.com", "login.evil.example.com"));
+    assertThat(issuer.getTokenEndpoint("fixed")).isEqualTo("https://login.example.com/token");
+    assertThat(issuer.getTokenEndpoint("fixed")).isEqualTo("https://login.example.com/token");
+  }
+}
@@ -0,0 +1,119 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.github.scribejava.core.model.OAuth2AccessToken;
+import com.google.common.cache.CacheBuilder;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class RefreshTokenStoreTest {
+  private static final String PROVIDER = "azure-oauth";
+
+  private final RefreshTokenStore store = new RefreshTokenStore(CacheBuilder.newBuilder().build());
+  private final HttpServletRequest req = mock(HttpServletRequest.class);
+  private final HttpServletResponse res = mock(HttpServletResponse.class);
+
+  private static OAuth2AccessToken token(String accessToken, String refreshToken) {
+    return new OAuth2AccessToken(accessToken, "Bearer", 3600, refreshToken, null, "{}");
+  }
+
+  private Cookie sentCookie() {
+    ArgumentCaptor<Cookie> cookie = ArgumentCaptor.forClass(Cookie.class);
+    verify(res).addCookie(cookie.capture());
+    return cookie.getValue();
+  }
+
+  private HttpServletRequest requestWith(Cookie cookie) {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getCookies()).thenReturn(new Cookie[] {cookie});
+    return request;
+  }
+
+  @Test
+  public void grantIsFoundByCookieOfLogin() {
+    store.put(PROVIDER, token("access", "refresh"), req, res);
+    Cookie cookie = sentCookie();
+    assertThat(cookie.getName()).isEqualTo(RefreshTokenStore.COOKIE);
+
+    RefreshTokenStore.Grant grant = store.get(PROVIDER, requestWith(cookie));
+    assertThat(grant).isNotNull();
+    assertThat(grant.getHandle()).isEqualTo(cookie.getValue());
+    assertThat(grant.getRefreshToken()).isEqualTo("refresh");
+    assertThat(store.get("dex-oauth", requestWith(cookie))).isNull();
+    assertThat(store.get(PROVIDER, req)).isNull();
+  }
+
+  @Test
+  public void loginWithoutRefreshTokenIsNotKept() {
+    store.put(PROVIDER, new OAuth2AccessToken("access", "{}"), req, res);
+    verify(res, never()).addCookie(any());
+  }
+
+  @Test
+  public void renewedTokenIsTakenOnceAndRotatedRefreshTokenKept() {
+    store.put(PROVIDER, token("access", "refresh"), req, res);
+    RefreshTokenStore.Grant grant = store.get(PROVIDER, requestWith(sentCookie()));
+
+    OAuth2AccessToken renewed = token("renewed", "rotated");
+    grant.renewed(renewed);
+    assertThat(grant.getRefreshToken()).isEqualTo("rotated");
+    assertThat(grant.takeRenewed()).isSameInstanceAs(renewed);
+    assertThat(grant.takeRenewed()).isNull();
+
+    grant.renewed(token("renewed-again", null));
+    assertThat(grant.getRefreshToken()).isEqualTo("rotated");
+  }
+
+  @Test
+  public void newLoginReplacesGrantOfBrowser() {
+    store.put(PROVIDER, token("access", "refresh"), req, res);
+    HttpServletRequest browser = requestWith(sentCookie());
+
+    store.put(PROVIDER, token("access", "other"), browser, res);
+    assertThat(store.get(PROVIDER, browser)).isNull();
+  }
+
+  @Test
+  public void removedGrantIsGone() {
+    store.put(PROVIDER, token("access", "refresh"), req, res);
+    HttpServletRequest browser = requestWith(sentCookie());
+    store.remove(store.get(PROVIDER, browser));
+    assertThat(store.get(PROVIDER, browser)).isNull();
+  }
+
+  @Test
+  public void logoutRemovesGrantAndCookie() {
+    store.put(PROVIDER, token("access", "refresh"), req, res);
+    HttpServletRequest browser = requestWith(sentCookie());
+    HttpServletResponse logout = mock(HttpServletResponse.class);
+
+    store.remove(browser, logout);
+    assertThat(store.get(PROVIDER, browser)).isNull();
+    ArgumentCaptor<Cookie> cookie = ArgumentCaptor.forClass(Cookie.class);
+    verify(logout).addCookie(cookie.capture());
+    assertThat(cookie.getValue().getValue()).isEmpty();
+  }
+}
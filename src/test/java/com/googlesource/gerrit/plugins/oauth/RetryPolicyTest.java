@@ -0,0 +1,140 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.github.scribejava.core.model.Response;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.server.config.PluginConfig;
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+  private PluginConfig.Update cfg;
+  private AtomicInteger attempts;
+
+  @Before
+  public void setUp() {
+    cfg = PluginConfig.Update.forTest("gerrit-oauth-provider-github-oauth", new Config());
+    cfg.setInt(RetryPolicy.RETRIES, 2);
+    cfg.setString(RetryPolicy.INITIAL_BACKOFF, "1 ms");
+    cfg.setString(RetryPolicy.MAX_BACKOFF, "2 ms");
+    attempts = new AtomicInteger();
+  }
+
+  private RetryPolicy policy() {
+    return new RetryPolicy(cfg.asPluginConfig());
+  }
+
+  private static Response response(int code) {
+    return response(code, ImmutableMap.of());
+  }
+
+  private static Response response(int code, ImmutableMap<String, String> headers) {
+    return new Response(code, null, headers, "{}");
+  }
+
+  private RetryPolicy.Attempt answers(Object... outcomes) {
+    Deque<Object> queue = new ArrayDeque<>(ImmutableList.copyOf(outcomes));
+    return () -> {
+      attempts.incrementAndGet();
+      Object outcome = queue.size() > 1 ? queue.poll() : queue.peek();
+      if (outcome instanceof IOException) {
+        throw (IOException) outcome;
+      }
+      return (Response) outcome;
+    };
+  }
+
+  @Test
+  public void serverErrorIsRetried() throws Exception {
+    Response ok = response(200);
+    assertThat(policy().execute(answers(response(503), response(429), ok))).isSameInstanceAs(ok);
+    assertThat(attempts.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void lastResponseIsReturnedAfterRetries() throws Exception {
+    assertThat(policy().execute(answers(response(502))).getCode()).isEqualTo(502);
+    assertThat(attempts.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void nothingIsRetriedByDefault() throws Exception {
+    cfg = PluginConfig.Update.forTest("gerrit-oauth-provider-github-oauth", new Config());
+    assertThat(policy().execute(answers(response(503), response(200))).getCode()).isEqualTo(503);
+    assertThat(attempts.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void clientErrorIsNotRetried() throws Exception {
+    assertThat(policy().execute(answers(response(401), response(200))).getCode()).isEqualTo(401);
+    assertThat(attempts.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void connectionResetIsRetried() throws Exception {
+    IOException reset = new IOException("Connection reset", new SocketException("reset"));
+    assertThat(policy().execute(answers(reset, response(200))).getCode()).isEqualTo(200);
+    assertThat(attempts.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void otherIOExceptionIsNotRetried() {
+    assertThrows(IOException.class, () -> policy().execute(answers(new IOException("bad"))));
+    assertThat(attempts.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void retryAfterBeyondBudgetIsNotWaitedFor() throws Exception {
+    Response limited = response(429, ImmutableMap.of("Retry-After", "60"));
+    assertThat(policy().execute(answers(limited, response(200)))).isSameInstanceAs(limited);
+    assertThat(attempts.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void retryAfterIsParsed() {
+    assertThat(RetryPolicy.retryAfterMs("3")).isEqualTo(3000);
+    assertThat(RetryPolicy.retryAfterMs("Wed, 21 Oct 2015 07:28:00 GMT")).isEqualTo(0);
+    assertThat(RetryPolicy.retryAfterMs("soon")).isEqualTo(0);
+    assertThat(RetryPolicy.retryAfterMs(null)).isEqualTo(0);
+  }
+
+  @Test
+  public void asyncServerErrorIsRetried() throws Exception {
+    Response ok = response(200);
+    Deque<Response> responses = new ArrayDeque<>(ImmutableList.of(response(500), ok));
+    CompletableFuture<Response> result =
+        policy()
+            .executeAsync(
+                () -> {
+                  attempts.incrementAndGet();
+                  return CompletableFuture.completedFuture(responses.poll());
+                });
+    assertThat(result.get(10, TimeUnit.SECONDS)).isSameInstanceAs(ok);
+    assertThat(attempts.get()).isEqualTo(2);
+  }
+}
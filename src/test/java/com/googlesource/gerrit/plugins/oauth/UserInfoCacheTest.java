@@ -0,0 +1,100 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.oauth;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.extensions.auth.oauth.OAuthToken;
+import com.google.gerrit.extensions.auth.oauth.OAuthUserInfo;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UserInfoCacheTest {
+  private static final String PROVIDER = "github-oauth";
+  private static final OAuthUserInfo USER =
+      new OAuthUserInfo("github-oauth:1", "jdoe", "jdoe@example.com", "John Doe", null);
+
+  private UserInfoCache cache;
+  private AtomicInteger loads;
+
+  @Before
+  public void setUp() {
+    cache = new UserInfoCache(CacheBuilder.newBuilder().build());
+    loads = new AtomicInteger();
+  }
+
+  private OAuthUserInfo load(OAuthToken token) {
+    loads.incrementAndGet();
+    return USER;
+  }
+
+  @Test
+  public void secondLookupIsServedFromCache() throws Exception {
+    OAuthToken token = new OAuthToken("token", "", "{\"expires_in\":3600}");
+    assertThat(cache.get(PROVIDER, token, this::load)).isSameInstanceAs(USER);
+    assertThat(cache.get(PROVIDER, token, this::load)).isSameInstanceAs(USER);
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void expiredTokenIsReloaded() throws Exception {
+    OAuthToken token = new OAuthToken("token", "", "{\"expires_in\":0}");
+    cache.get(PROVIDER, token, this::load);
+    cache.get(PROVIDER, token, this::load);
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void rejectedTokenIsNotCached() throws Exception {
+    OAuthToken token = new OAuthToken("token", "", "{}");
+    assertThat(cache.get(PROVIDER, token, t -> null)).isNull();
+    assertThat(cache.get(PROVIDER, token, this::load)).isSameInstanceAs(USER);
+  }
+
+  @Test
+  public void loaderExceptionIsPropagated() {
+    OAuthToken token = new OAuthToken("token", "", "{}");
+    assertThrows(
+        IOException.class,
+        () ->
+            cache.get(
+                PROVIDER,
+                token,
+                t -> {
+                  throw new IOException("boom");
+                }));
+  }
+
+  @Test
+  public void keyDoesNotContainToken() {
+    assertThat(UserInfoCache.key(PROVIDER, "secret-token")).doesNotContain("secret-token");
+    assertThat(UserInfoCache.key(PROVIDER, "secret-token")).startsWith(PROVIDER + ":");
+  }
+
+  @Test
+  public void expiresInIsReadFromJsonAndFormResponses() {
+    long now = System.currentTimeMillis();
+    assertThat(UserInfoCache.expiresAt("{\"access_token\":\"t\",\"expires_in\":60}"))
+        .isAtLeast(now + 60_000);
+    assertThat(UserInfoCache.expiresAt("access_token=t&expires_in=60&token_type=bearer"))
+        .isAtLeast(now + 60_000);
+    assertThat(UserInfoCache.expiresAt("access_token=t")).isEqualTo(Long.MAX_VALUE);
+    assertThat(UserInfoCache.expiresAt(null)).isEqualTo(Long.MAX_VALUE);
+  }
+}